@@ -0,0 +1,10 @@
+#!/bin/sh
+# Build the application and the benchmarks and run them with the fake ffmpeg on the PATH.
+# Extra arguments are passed to JMH, e.g. `./run.sh ScanBenchmark -f 1`.
+set -e
+cd "$(dirname "$0")"
+
+mvn -B -q -f ../pom.xml install -DskipTests
+mvn -B -q package
+
+PATH="$(pwd)/fake-ffmpeg:$PATH" java -jar target/benchmarks.jar "$@"
@@ -0,0 +1,66 @@
+package merger.benchmarks;
+
+import merger.util.CopyStrategy;
+import merger.util.FileLinker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placing a replay without microphone track into the output folder with each {@link CopyStrategy}.
+ * <p>
+ * The returned strategy is the one that was actually used: on file systems without reflink
+ * support REFLINK falls back to COPY, which shows up as COPY-like timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyStrategyBenchmark {
+
+    @Param({"COPY", "REFLINK", "HARD_LINK", "SYMBOLIC_LINK", "AUTO"})
+    public CopyStrategy strategy;
+
+    @Param({"64"})
+    public int replaySizeMb;
+
+    private Path directory;
+    private Path replay;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void createReplay() throws IOException {
+        directory = Files.createTempDirectory("copy-benchmark");
+        replay = directory.resolve("Game_replay_2024.01.01-00.00.mp4");
+        target = directory.resolve("Game_replay_2024.01.01-00.00_merged.mp4");
+        SyntheticReplays.createFile(replay, replaySizeMb * 1024L * 1024L);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteReplay() throws IOException {
+        SyntheticReplays.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public CopyStrategy linkOrCopy() throws IOException {
+        // An existing target is deleted first, exactly like when the output folder is reused
+        return FileLinker.linkOrCopy(replay, target, strategy, () -> false);
+    }
+}
@@ -0,0 +1,106 @@
+package merger.benchmarks;
+
+import merger.ffmpeg.FfmpegProcess;
+import merger.processing.ProcessingConfig;
+import merger.processing.ReplayProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging a replay with its microphone track.
+ * <ul>
+ *     <li>`remux`: {@link ReplayProcessor} writing a merged copy with the in-process remuxer</li>
+ *     <li>`appendInPlace`: {@link ReplayProcessor} replacing the original by appending to it</li>
+ *     <li>`ffmpeg`: the FFmpeg fallback with the arguments the processor uses. Run with
+ *     `fake-ffmpeg` first on the PATH (see run.sh) so the result measures process spawning,
+ *     progress parsing and a plain stream copy instead of a particular FFmpeg build.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"remux", "appendInPlace", "ffmpeg"})
+    public String mode;
+
+    @Param({"256"})
+    public int replaySizeMb;
+
+    private Path directory;
+    private Path originalReplay;
+    private File replay;
+    private File microphoneTrack;
+    private File output;
+    private ReplayProcessor processor;
+
+    @Setup(Level.Trial)
+    public void createReplay() throws IOException {
+        directory = Files.createTempDirectory("merge-benchmark");
+        Path input = Files.createDirectories(directory.resolve("input"));
+        Path outputDirectory = Files.createDirectories(directory.resolve("replays_merged"));
+
+        originalReplay = directory.resolve("original.mp4");
+        SyntheticReplays.createMp4(originalReplay, "vide", replaySizeMb * 1024L * 1024L);
+        replay = input.resolve("Game_replay_2024.01.01-00.00.mp4").toFile();
+        microphoneTrack = input.resolve("Game_replay_2024.01.01-00.00.m4a").toFile();
+        SyntheticReplays.createMp4(microphoneTrack.toPath(), "soun", replaySizeMb * 1024L * 1024L / 20);
+        output = outputDirectory.resolve("Game_replay_2024.01.01-00.00_merged.mp4").toFile();
+
+        boolean replace = "appendInPlace".equals(mode);
+        processor = new ReplayProcessor(outputDirectory.toFile(), input.toFile(), replace, false, new ProcessingConfig(1), null);
+    }
+
+    // Appending in place changes the replay, so every invocation starts from a fresh copy
+    @Setup(Level.Invocation)
+    public void restoreReplay() throws IOException {
+        Files.copy(originalReplay, replay.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteReplay() throws IOException {
+        SyntheticReplays.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long merge() throws Exception {
+        if ("ffmpeg".equals(mode)) {
+            FfmpegProcess ffmpeg = FfmpegProcess.start(Arrays.asList(
+                    "-i", replay.getAbsolutePath(),
+                    "-i", microphoneTrack.getAbsolutePath(),
+                    "-nostdin", "-y",
+                    "-map", "0",
+                    "-map", "1",
+                    "-c", "copy",
+                    output.getAbsolutePath()
+            ), replay.getName(), (totalSize, outTimeMicros, speed, ended) -> {});
+            ffmpeg.waitForSuccess();
+            return output.length();
+        }
+
+        processor.process(replay);
+        return "appendInPlace".equals(mode) ? replay.length() : output.length();
+    }
+}
@@ -0,0 +1,66 @@
+package merger.benchmarks;
+
+import merger.util.ReplayUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a replay library with {@link ReplayUtils#getUnprocessedReplays(File)}.
+ * <p>
+ * The tree is generated once per trial. After the warmup iterations the directory entries are
+ * in the OS cache, so this measures the scanner itself rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    // With a fanout of 6: depth 3 = 259 folders / 2590 replays, depth 4 = 1555 folders / 15550 replays
+    @Param({"3", "4"})
+    public int depth;
+
+    @Param({"6"})
+    public int fanout;
+
+    @Param({"10"})
+    public int replaysPerFolder;
+
+    private Path root;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("scan-benchmark");
+        SyntheticReplays.createReplayTree(root, depth, fanout, replaysPerFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticReplays.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public List<File> getUnprocessedReplays() {
+        return ReplayUtils.getUnprocessedReplays(root.toFile());
+    }
+}
@@ -0,0 +1,156 @@
+package merger.benchmarks;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generates deterministic test data for the benchmarks: ReLive-like folder trees and minimal,
+ * valid MP4 files. A fixed seed keeps the data identical between runs and machines.
+ */
+final class SyntheticReplays {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long SEED = 42;
+
+    private SyntheticReplays() {}
+
+    /**
+     * Create a tree `depth` folders deep with `fanout` subfolders per folder. Every folder
+     * contains `replaysPerFolder` replays with microphone track plus a merged replay and an
+     * unrelated file, so the scan has to filter as it would in a real library.
+     */
+    static void createReplayTree(Path folder, int depth, int fanout, int replaysPerFolder) throws IOException {
+        Files.createDirectories(folder);
+        for (int i = 0; i < replaysPerFolder; i++) {
+            String name = "Game_replay_2024.01.01-00." + String.format("%02d", i);
+            Files.createFile(folder.resolve(name + ".mp4"));
+            Files.createFile(folder.resolve(name + ".m4a"));
+        }
+        Files.createFile(folder.resolve("Game_replay_2023.12.31-23.59_merged.mp4"));
+        Files.createFile(folder.resolve("thumbnail.png"));
+
+        if (depth > 0) {
+            for (int i = 0; i < fanout; i++) {
+                createReplayTree(folder.resolve("folder" + i), depth - 1, fanout, replaysPerFolder);
+            }
+        }
+    }
+
+    /**
+     * Write a file of `size` pseudo-random bytes.
+     */
+    static void createFile(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeRandomBytes(channel, size);
+        }
+    }
+
+    /**
+     * Write an MP4 with a single track (`vide` or `soun`) whose samples are `mediaSize` bytes
+     * in 1 MB chunks. Layout: ftyp, mdat, moov - like ReLive writes its replays.
+     */
+    static void createMp4(Path file, String handler, long mediaSize) throws IOException {
+        int chunkCount = (int) Math.max(1, (mediaSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), new byte[]{0, 0, 2, 0},
+                "isomiso2mp41".getBytes(StandardCharsets.ISO_8859_1));
+
+        long[] chunkOffsets = new long[chunkCount];
+        long mdatPayloadOffset = ftyp.length + 8;
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = mdatPayloadOffset + (long) i * CHUNK_SIZE;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(ftyp));
+            ByteBuffer mdatHeader = ByteBuffer.allocate(8).putInt((int) (8 + mediaSize)).put("mdat".getBytes(StandardCharsets.ISO_8859_1));
+            ((Buffer) mdatHeader).flip();
+            channel.write(mdatHeader);
+            writeRandomBytes(channel, mediaSize);
+            channel.write(ByteBuffer.wrap(moov(handler, chunkOffsets)));
+        }
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void writeRandomBytes(FileChannel channel, long size) throws IOException {
+        Random random = new Random(SEED);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long remaining = size;
+        while (remaining > 0) {
+            random.nextBytes(chunk);
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(CHUNK_SIZE, remaining));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            remaining -= CHUNK_SIZE;
+        }
+    }
+
+    private static byte[] moov(String handler, long[] chunkOffsets) {
+        int timescale = "soun".equals(handler) ? 48000 : 1000;
+        int duration = timescale * 60;
+
+        ByteBuffer stco = ByteBuffer.allocate(8 + chunkOffsets.length * 4);
+        stco.putInt(0).putInt(chunkOffsets.length);
+        for (long offset : chunkOffsets) {
+            stco.putInt((int) offset);
+        }
+
+        byte[] stbl = box("stbl", box("stsd", fullBoxHeader(0), intBytes(0)), box("stco", stco.array()));
+        byte[] mdhd = box("mdhd", fullBoxHeader(0), intBytes(0), intBytes(0), intBytes(timescale), intBytes(duration), new byte[4]);
+        byte[] hdlr = box("hdlr", fullBoxHeader(0), new byte[4], handler.getBytes(StandardCharsets.ISO_8859_1), new byte[13]);
+        byte[] mdia = box("mdia", mdhd, hdlr, box("minf", stbl));
+        byte[] elst = box("elst", fullBoxHeader(0), intBytes(1), intBytes(duration), intBytes(0), intBytes(0x10000));
+        byte[] tkhd = box("tkhd", fullBoxHeader(3), intBytes(0), intBytes(0), intBytes(1), intBytes(0), intBytes(duration), new byte[60]);
+        byte[] trak = box("trak", tkhd, box("edts", elst), mdia);
+        byte[] mvhd = box("mvhd", fullBoxHeader(0), intBytes(0), intBytes(0), intBytes(timescale), intBytes(duration), new byte[76], intBytes(2));
+        return box("moov", mvhd, trak);
+    }
+
+    private static byte[] fullBoxHeader(int flags) {
+        return intBytes(flags); // version 0
+    }
+
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] box(String type, byte[]... payloads) {
+        int size = 8;
+        for (byte[] payload : payloads) {
+            size += payload.length;
+        }
+        ByteBuffer box = ByteBuffer.allocate(size).putInt(size).put(type.getBytes(StandardCharsets.ISO_8859_1));
+        for (byte[] payload : payloads) {
+            box.put(payload);
+        }
+        return box.array();
+    }
+}
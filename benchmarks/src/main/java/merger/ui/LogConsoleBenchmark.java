@@ -0,0 +1,84 @@
+package merger.ui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.*;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The System.out to JTextArea bridge of the UI.
+ * <p>
+ * Lives in the `merger.ui` package to reach the package-private parts of {@link LogConsole}.
+ * Each operation writes a burst of log lines like a batch of finishing replays does and then
+ * runs one flush, which is what the Swing timer does on the EDT. `appendPerWrite` is the
+ * previous bridge that appended every write separately, kept as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LogConsoleBenchmark {
+
+    private static final int LINES_PER_BURST = 200;
+    private static final int LOG_MAX_LINES = UIConstants.LOG_MAX_LINES;
+    private static final String LINE = "12:00:00.000 [ReplayProcessingWorker-1] INFO  merger - Replay: Game_replay_2024.01.01-00.00.mp4 processed in 1.5 seconds";
+
+    private JTextArea textArea;
+    private LogConsole logConsole;
+    private PrintStream consoleStream;
+    private PrintStream appendPerWriteStream;
+
+    @Setup(Level.Iteration)
+    public void createConsole() {
+        textArea = new JTextArea();
+        logConsole = new LogConsole(textArea, LOG_MAX_LINES);
+        consoleStream = new PrintStream(logConsole.createOutputStream(), true);
+        appendPerWriteStream = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                textArea.append(String.valueOf((char) b));
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                textArea.append(new String(b, off, len));
+            }
+        }, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BURST)
+    public void ringBufferWithBatchedFlush() {
+        for (int i = 0; i < LINES_PER_BURST; i++) {
+            consoleStream.println(LINE);
+        }
+        logConsole.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_BURST)
+    public void appendPerWrite() {
+        for (int i = 0; i < LINES_PER_BURST; i++) {
+            appendPerWriteStream.println(LINE);
+        }
+        // The old bridge never trimmed, keep the document bounded so iterations stay comparable
+        if (textArea.getLineCount() > LOG_MAX_LINES) {
+            textArea.setText("");
+        }
+    }
+}
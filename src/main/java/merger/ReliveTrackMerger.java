@@ -1,11 +1,16 @@
 package merger;
 
+import merger.cli.ReliveTrackMergerCli;
 import merger.ui.ReliveTrackMergerUI;
 
 public class ReliveTrackMerger {
 
     public static void main(String[] args) {
+        // Any argument selects the headless mode, which never initializes Swing or AWT
+        if (args.length > 0) {
+            System.exit(ReliveTrackMergerCli.run(args));
+        }
         ReliveTrackMergerUI.start();
     }
 
-}
\ No newline at end of file
+}
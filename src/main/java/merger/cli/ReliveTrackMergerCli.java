@@ -0,0 +1,679 @@
+package merger.cli;
+
+import merger.ffmpeg.FfmpegLocator;
+import merger.processing.BatchProgress;
+import merger.processing.ExecutionPlan;
+import merger.processing.JobAction;
+import merger.processing.ProcessingConfig;
+import merger.processing.ProcessingMetrics;
+import merger.processing.ReplayBatchRunner;
+import merger.processing.ReplayProcessor;
+import merger.processing.ReplayProgress;
+import merger.processing.ThroughputHistory;
+import merger.util.CopyStrategy;
+import merger.util.JobJournal;
+import merger.util.OutputCleaner;
+import merger.util.OutputFolderResolver;
+import merger.util.ProcessedReplayLedger;
+import merger.util.ProcessingLogger;
+import merger.util.ReplayScanner;
+import merger.util.RetentionPolicy;
+import merger.watch.ReplayFolderWatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Headless entry point that runs the scan/process pipeline from command line arguments.
+ * <p>
+ * No Swing, AWT or FlatLaf class is touched, so it runs on servers without a display.
+ * Progress is written to stdout as one JSON object per line; log messages go to stderr.
+ * The exit code tells whether all replays were merged (see the EXIT_* constants).
+ */
+public class ReliveTrackMergerCli {
+
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_SOME_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_ERROR = 3;
+    public static final int EXIT_CANCELLED = 130;
+
+    // Time a shutdown hook waits for running jobs to stop after Ctrl+C
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar radeon-relive-track-merger.jar --input <folder> [options]",
+            "",
+            "Options:",
+            "  --input <folder>       Folder containing the replays (searched recursively), can be repeated",
+            "                         to merge replays from several folders or drives in one run",
+            "  --output <folder>      Output folder, defaults to <first input>/replays_merged",
+            "  --replace              Replace the original replays instead of writing copies",
+            "  --delete-mic           Delete microphone tracks after merging (only with --replace)",
+            "  --concurrency <n>      Number of replays processed in parallel (default " + ProcessingConfig.DEFAULT_CONCURRENCY
+                    + ", at most " + ProcessingConfig.MAX_CONCURRENCY + ")",
+            "  --ffmpeg <path>        FFmpeg binary to use instead of the one found on the PATH",
+            "  --ffmpeg-batch <n>     Replays FFmpeg may merge in one run when the built-in remuxer cannot (default " + ProcessingConfig.DEFAULT_FFMPEG_BATCH_SIZE + ", 1 = off)",
+            "  --copy-strategy <s>    How replays without a microphone track are placed into the output folder:",
+            "                         auto (default: reflink, hard link unless --replace, or copy), reflink, hard-link,",
+            "                         symbolic-link or copy",
+            "  --verify               Also read sampled blocks of copied replays back and compare them with the originals",
+            "  --link-duplicates      Link copies of a replay found by the scan to its result instead of skipping them",
+            "  --clean-output         Delete previously merged replays from the output folder (in the background)",
+            "  --keep-newest <n>      Clean the output folder down to the newest n merged replays per game",
+            "  --max-output-size <gb> Clean the output folder down to the newest merged replays that fit in gb gigabytes",
+            "  --max-age <days>       Clean merged replays older than days from the output folder",
+            "                         Replays cleaned by one of these limits are not merged again",
+            "  --cleanup-dry-run      Only print what cleaning the output folder would delete",
+            "  --watch                Keep running and merge new replays as they are recorded",
+            "  --resume               Only process the replays an interrupted run left unfinished, without scanning",
+            "  --plan                 Only print what would be done with every replay and how long it would take",
+            "  --help                 Show this help",
+            "",
+            "Exit codes: 0 = success, 1 = some replays failed, 2 = invalid arguments, 3 = error, 130 = cancelled");
+
+    private final PrintStream progress;
+    private final Object progressLock = new Object();
+
+    private ReliveTrackMergerCli(PrintStream progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Run the merger with the given arguments and return the exit code.
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        // Keep stdout for machine-readable progress; everything logged goes to stderr
+        PrintStream progress = System.out;
+        System.setOut(System.err);
+
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (options.help) {
+            progress.println(USAGE);
+            return EXIT_SUCCESS;
+        }
+        return new ReliveTrackMergerCli(progress).execute(options);
+    }
+
+    private int execute(Options options) {
+        for (File input : options.inputs) {
+            if (!input.isDirectory()) {
+                ProcessingLogger.error("Input folder does not exist: " + input);
+                return EXIT_ERROR;
+            }
+        }
+
+        if (options.ffmpeg != null) {
+            if (!options.ffmpeg.isFile()) {
+                ProcessingLogger.error("FFmpeg binary does not exist: " + options.ffmpeg);
+                return EXIT_ERROR;
+            }
+            FfmpegLocator.useExecutable(options.ffmpeg);
+        }
+
+        File outputFolder = OutputFolderResolver.resolveSelectedOutput(options.output != null ? options.output : options.inputs.get(0), options.replace);
+        ProcessedReplayLedger ledger = ProcessedReplayLedger.getDefault();
+        List<File> unfinishedReplays = recoverInterruptedJobs(options.inputs, ledger);
+
+        // The output folder is only listed here, the files are deleted in the background while replays are processed
+        OutputCleaner cleaner = null;
+        OutputCleaner.Plan cleanupPlan = null;
+        if (options.isCleaning() && outputFolder.exists()) {
+            cleaner = new OutputCleaner(outputFolder, options.getRetentionPolicy(), ledger);
+            try {
+                cleanupPlan = cleaner.plan(options.cleanupDryRun || options.planOnly);
+            } catch (IOException e) {
+                ProcessingLogger.error("Failed to list the output folder: " + e.getMessage(), e);
+                return EXIT_ERROR;
+            }
+            ProcessingLogger.info("Cleaning output folder (" + options.getRetentionPolicy() + "): " + cleanupPlan);
+            emit("{\"event\":\"cleanup\",\"files\":" + cleanupPlan.getFileCount()
+                    + ",\"bytes\":" + cleanupPlan.getReclaimableBytes()
+                    + ",\"kept\":" + cleanupPlan.getKeptCount()
+                    + ",\"dryRun\":" + (options.cleanupDryRun || options.planOnly) + "}");
+            if (options.cleanupDryRun) {
+                for (File file : cleanupPlan.getFiles()) {
+                    ProcessingLogger.info("Would delete " + file);
+                }
+                return EXIT_SUCCESS;
+            }
+        }
+        if (!options.replace && !options.planOnly && !outputFolder.exists() && !outputFolder.mkdirs()) {
+            ProcessingLogger.error("Failed to create output folder: " + outputFolder);
+            return EXIT_ERROR;
+        }
+
+        ProcessingConfig processingConfig = new ProcessingConfig(options.concurrency);
+        processingConfig.setFfmpegBatchSize(options.ffmpegBatchSize);
+        processingConfig.setSampledVerification(options.verify);
+        processingConfig.setCopyStrategy(options.copyStrategy);
+        ReplayProcessor processor = new ReplayProcessor(outputFolder, options.inputs, options.replace,
+                options.replace && options.deleteMicrophoneTracks, processingConfig, ledger);
+
+        if (options.watch) {
+            if (cleaner != null) {
+                // Watched replays are new recordings, their outputs are not among the planned files
+                cleaner.deleteAsync(cleanupPlan, Collections.emptyList())
+                        .thenAccept(result -> ProcessingLogger.info("Cleaned output folder: " + result));
+            }
+            return watch(options.inputs, processor, processingConfig, ledger);
+        }
+        return processBatch(options.inputs, outputFolder, processor, processingConfig, ledger,
+                options.resume ? unfinishedReplays : null, options.linkDuplicates, options.planOnly, cleaner, cleanupPlan);
+    }
+
+    /**
+     * Clean up or complete the jobs of a run that was killed, before anything is scanned.
+     *
+     * @return replays below the inputs the interrupted run did not finish
+     */
+    private List<File> recoverInterruptedJobs(List<File> inputs, ProcessedReplayLedger ledger) {
+        JobJournal journal = JobJournal.getDefault();
+        List<File> unfinishedReplays = new ArrayList<>();
+        if (journal == null) {
+            return unfinishedReplays;
+        }
+        try {
+            JobJournal.Recovery recovery = journal.recover(ledger);
+            for (JobJournal.Job job : recovery.getPendingJobs()) {
+                if (isBelowAny(job.getReplay(), inputs)) {
+                    unfinishedReplays.add(job.getReplay());
+                }
+            }
+            if (recovery.getCompletedJobs() > 0 || recovery.getRemovedOutputs() > 0 || !unfinishedReplays.isEmpty()) {
+                emit("{\"event\":\"recovered\",\"completed\":" + recovery.getCompletedJobs()
+                        + ",\"removed\":" + recovery.getRemovedOutputs() + ",\"unfinished\":" + unfinishedReplays.size() + "}");
+            }
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to recover interrupted jobs: " + e.getMessage());
+        }
+        return unfinishedReplays;
+    }
+
+    private static boolean isBelowAny(File file, List<File> folders) {
+        for (File folder : folders) {
+            if (file.toPath().startsWith(folder.getAbsoluteFile().toPath().normalize())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param unfinishedReplays replays to process instead of scanning the inputs, null to scan
+     * @param linkDuplicates    whether copies of a replay get its result linked once it is processed, otherwise they are skipped
+     * @param planOnly          whether to only print the execution plan
+     * @param cleaner           cleaner of the output folder whose planned files are deleted during the batch, null if not cleaning
+     */
+    private int processBatch(List<File> inputs, File outputFolder, ReplayProcessor processor, ProcessingConfig processingConfig, ProcessedReplayLedger ledger,
+                             List<File> unfinishedReplays, boolean linkDuplicates, boolean planOnly, OutputCleaner cleaner, OutputCleaner.Plan cleanupPlan) {
+        long startTime = System.currentTimeMillis();
+
+        ProcessingMetrics metrics = processingConfig.getMetrics();
+        List<File> replays;
+        Map<File, File> duplicates = Collections.emptyMap();
+        if (unfinishedReplays != null) {
+            replays = new ArrayList<>(unfinishedReplays);
+            replays.sort(Comparator.comparing(File::getName));
+            emit("{\"event\":\"resumed\",\"replays\":" + replays.size()
+                    + ",\"output\":" + quote(outputFolder.getAbsolutePath()) + "}");
+        } else {
+            long scanStartNanos = System.nanoTime();
+            ReplayScanner scanner = new ReplayScanner(inputs, ledger, processor::getResultFile, replay -> {});
+            replays = scanner.scan().stream()
+                    .sorted(Comparator.comparing(File::getName))
+                    .collect(Collectors.toList());
+            metrics.recordStage(ProcessingMetrics.Stage.SCAN, scanStartNanos);
+            duplicates = scanner.getDuplicates();
+            metrics.getReplaysDuplicate().add(duplicates.size());
+            emit("{\"event\":\"scanned\",\"replays\":" + replays.size() + ",\"skipped\":" + scanner.getSkippedCount()
+                    + ",\"duplicates\":" + duplicates.size()
+                    + ",\"output\":" + quote(outputFolder.getAbsolutePath()) + "}");
+        }
+        metrics.getReplaysScanned().add(replays.size());
+
+        // Estimated from earlier runs, the plan drives the ETA of the progress events
+        ExecutionPlan plan = ExecutionPlan.create(processor, replays, duplicates, linkDuplicates, ThroughputHistory.getDefault());
+        if (planOnly) {
+            for (ExecutionPlan.Entry entry : plan.getEntries()) {
+                emit("{\"event\":\"planned\",\"replay\":" + quote(entry.getReplay().getAbsolutePath())
+                        + ",\"action\":" + quote(entry.getAction().getName())
+                        + ",\"device\":" + quote(entry.getWriteDevice())
+                        + ",\"bytesRead\":" + entry.getBytesRead()
+                        + ",\"bytesWritten\":" + entry.getBytesWritten()
+                        + ",\"seconds\":" + formatSeconds(entry.getEstimatedSeconds()) + "}");
+            }
+        }
+        ProcessingLogger.info("Plan: " + plan);
+        emitPlan(plan, planOnly);
+        if (planOnly) {
+            return EXIT_SUCCESS;
+        }
+
+        CompletableFuture<OutputCleaner.Result> cleanup = null;
+        if (cleaner != null) {
+            List<File> outputs = new ArrayList<>(replays.size());
+            for (File replay : replays) {
+                outputs.add(processor.getOutputFile(replay));
+            }
+            cleanup = cleaner.deleteAsync(cleanupPlan, outputs);
+        }
+
+        BatchProgress batchProgress = new BatchProgress(plan);
+        ReplayBatchRunner runner = new ReplayBatchRunner(processor, processingConfig, createProgressListener(replays.size(), batchProgress));
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = registerShutdownHook(runner, finished);
+        try {
+            runner.run(replays);
+        } finally {
+            finished.countDown();
+        }
+        removeShutdownHook(shutdownHook);
+
+        if (cleanup != null) {
+            OutputCleaner.Result result = cleanup.join();
+            ProcessingLogger.info("Cleaned output folder: " + result);
+            emit("{\"event\":\"cleaned\",\"deleted\":" + result.getDeletedCount()
+                    + ",\"failed\":" + result.getFailedCount()
+                    + ",\"reclaimedBytes\":" + result.getReclaimedBytes() + "}");
+        }
+
+        int linkedDuplicates = 0;
+        if (linkDuplicates && !runner.isShutdownRequested()) {
+            linkedDuplicates = processor.linkDuplicates(duplicates);
+        }
+
+        emit("{\"event\":\"done\",\"total\":" + replays.size()
+                + ",\"processed\":" + runner.getProcessedCount()
+                + ",\"failed\":" + runner.getFailedCount()
+                + ",\"linked\":" + linkedDuplicates
+                + ",\"cancelled\":" + runner.isShutdownRequested()
+                + ",\"seconds\":" + String.format(Locale.ROOT, "%.1f", (System.currentTimeMillis() - startTime) / 1000.0)
+                + ",\"metrics\":" + exportMetrics(metrics) + "}");
+
+        if (runner.isShutdownRequested()) {
+            return EXIT_CANCELLED;
+        }
+        return runner.getFailedCount() > 0 ? EXIT_SOME_FAILED : EXIT_SUCCESS;
+    }
+
+    /**
+     * Merge new replays until the process is stopped (Ctrl+C / SIGTERM).
+     */
+    private int watch(List<File> inputs, ReplayProcessor processor, ProcessingConfig processingConfig, ProcessedReplayLedger ledger) {
+        ReplayBatchRunner runner = new ReplayBatchRunner(processor, processingConfig, createProgressListener(-1, null));
+        List<ReplayFolderWatcher> watchers = new ArrayList<>();
+        for (File input : inputs) {
+            // A processed replay may be reported again once it is recorded anew
+            watchers.add(new ReplayFolderWatcher(input, ledger, processor::getResultFile,
+                    replay -> runner.submit(replay, done -> watchers.forEach(watcher -> watcher.processed(done)))));
+        }
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watchers.forEach(ReplayFolderWatcher::close);
+            // Replays that were already found are finished, running jobs are only terminated if that takes too long
+            runner.close();
+            try {
+                if (!runner.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    runner.requestShutdown();
+                    runner.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exportMetrics(runner.getMetrics());
+            stopped.countDown();
+        }, "ReplayWatchShutdown"));
+
+        try {
+            for (int i = 0; i < watchers.size(); i++) {
+                watchers.get(i).start();
+                emit("{\"event\":\"watching\",\"input\":" + quote(inputs.get(i).getAbsolutePath()) + "}");
+            }
+            stopped.await();
+        } catch (IOException e) {
+            ProcessingLogger.error("Failed to watch input folder: " + e.getMessage(), e);
+            watchers.forEach(ReplayFolderWatcher::close);
+            runner.close();
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return EXIT_CANCELLED;
+    }
+
+    /**
+     * Summary of the execution plan: actions, load per device and the estimated duration.
+     */
+    private void emitPlan(ExecutionPlan plan, boolean dryRun) {
+        StringBuilder actions = new StringBuilder();
+        for (Map.Entry<JobAction, Integer> count : plan.getActionCounts().entrySet()) {
+            actions.append(actions.length() == 0 ? "" : ",").append(quote(count.getKey().getName())).append(':').append(count.getValue());
+        }
+        StringBuilder devices = new StringBuilder();
+        for (ExecutionPlan.DeviceLoad device : plan.getDevices().values()) {
+            devices.append(devices.length() == 0 ? "" : ",")
+                    .append("{\"device\":").append(quote(device.getName()))
+                    .append(",\"bytesRead\":").append(device.getBytesRead())
+                    .append(",\"bytesWritten\":").append(device.getBytesWritten())
+                    .append(",\"seconds\":").append(formatSeconds(device.getEstimatedSeconds())).append('}');
+        }
+        emit("{\"event\":\"plan\",\"replays\":" + plan.getEntries().size()
+                + ",\"actions\":{" + actions + "}"
+                + ",\"devices\":[" + devices + "]"
+                + ",\"seconds\":" + formatSeconds(plan.getEstimatedSeconds())
+                + ",\"dryRun\":" + dryRun + "}");
+    }
+
+    private static String formatSeconds(double seconds) {
+        return String.format(Locale.ROOT, "%.1f", seconds);
+    }
+
+    /**
+     * @param batchProgress progress of the whole batch for the ETA, null in watch mode
+     */
+    private ReplayBatchRunner.Listener createProgressListener(int total, BatchProgress batchProgress) {
+        return new ReplayBatchRunner.Listener() {
+            @Override
+            public void replayStarted(File replay) {
+                emit("{\"event\":\"started\",\"replay\":" + quote(replay.getAbsolutePath()) + "}");
+            }
+
+            @Override
+            public void replayProgress(ReplayProgress progress) {
+                if (batchProgress != null) {
+                    batchProgress.update(progress);
+                }
+                emit("{\"event\":\"progress\",\"replay\":" + quote(progress.getReplay().getAbsolutePath())
+                        + ",\"bytes\":" + progress.getBytesWritten()
+                        + ",\"expectedBytes\":" + progress.getExpectedBytes()
+                        + ",\"outTimeMicros\":" + progress.getOutTimeMicros()
+                        + ",\"speed\":" + (Double.isNaN(progress.getSpeed()) ? "null" : String.format(Locale.ROOT, "%.2f", progress.getSpeed()))
+                        + ",\"mbPerSecond\":" + String.format(Locale.ROOT, "%.1f", progress.getMegabytesPerSecond())
+                        + eta() + "}");
+            }
+
+            @Override
+            public void replayCompleted(File replay) {
+                finish(replay);
+                emit("{\"event\":\"completed\",\"replay\":" + quote(replay.getAbsolutePath()) + ",\"total\":" + total + eta() + "}");
+            }
+
+            @Override
+            public void replayFailed(File replay, Exception error) {
+                finish(replay);
+                emit("{\"event\":\"failed\",\"replay\":" + quote(replay.getAbsolutePath())
+                        + ",\"error\":" + quote(String.valueOf(error.getMessage())) + ",\"total\":" + total + eta() + "}");
+            }
+
+            @Override
+            public void replayCancelled(File replay) {
+                finish(replay);
+                emit("{\"event\":\"cancelled\",\"replay\":" + quote(replay.getAbsolutePath()) + "}");
+            }
+
+            private void finish(File replay) {
+                if (batchProgress != null) {
+                    batchProgress.finish(replay);
+                }
+            }
+
+            // Remaining time of the batch, corrected by the pace of the jobs that are done
+            private String eta() {
+                if (batchProgress == null) {
+                    return "";
+                }
+                long remainingMillis = batchProgress.getEstimatedRemainingMillis();
+                return ",\"etaSeconds\":" + (remainingMillis < 0 ? "null" : formatSeconds(remainingMillis / 1000.0));
+            }
+        };
+    }
+
+    /**
+     * Write the metrics snapshot of the run.
+     *
+     * @return the quoted path of the JSON snapshot or `null` if it could not be written
+     */
+    private static String exportMetrics(ProcessingMetrics metrics) {
+        try {
+            return quote(metrics.export().toString());
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to write processing metrics: " + e.getMessage());
+            return "null";
+        }
+    }
+
+    /**
+     * On Ctrl+C stop the batch gracefully and give running jobs time to clean up.
+     */
+    private static Thread registerShutdownHook(ReplayBatchRunner runner, CountDownLatch finished) {
+        Thread hook = new Thread(() -> {
+            runner.requestShutdown();
+            try {
+                finished.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "ReplayProcessingShutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    private static void removeShutdownHook(Thread hook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down and the hook is running
+        }
+    }
+
+    private void emit(String line) {
+        synchronized (progressLock) {
+            progress.println(line);
+            progress.flush();
+        }
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Parsed command line arguments.
+     */
+    private static final class Options {
+        private final List<File> inputs = new ArrayList<>();
+        private File output;
+        private File ffmpeg;
+        private boolean replace;
+        private boolean deleteMicrophoneTracks;
+        private boolean cleanOutput;
+        private boolean verify;
+        private boolean cleanupDryRun;
+        private int keepNewest = RetentionPolicy.UNLIMITED;
+        private int maxOutputSizeGb = RetentionPolicy.UNLIMITED;
+        private int maxAgeDays = RetentionPolicy.UNLIMITED;
+        private boolean linkDuplicates;
+        private boolean watch;
+        private boolean resume;
+        private boolean planOnly;
+        private boolean help;
+        private int concurrency = ProcessingConfig.DEFAULT_CONCURRENCY;
+        private int ffmpegBatchSize = ProcessingConfig.DEFAULT_FFMPEG_BATCH_SIZE;
+        private CopyStrategy copyStrategy = CopyStrategy.AUTO;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--input":
+                        options.inputs.add(new File(requireValue(args, ++i, arg)));
+                        break;
+                    case "--output":
+                        options.output = new File(requireValue(args, ++i, arg));
+                        break;
+                    case "--replace":
+                        options.replace = true;
+                        break;
+                    case "--delete-mic":
+                        options.deleteMicrophoneTracks = true;
+                        break;
+                    case "--clean-output":
+                        options.cleanOutput = true;
+                        break;
+                    case "--keep-newest":
+                        options.keepNewest = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                        break;
+                    case "--max-output-size":
+                        options.maxOutputSizeGb = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                        break;
+                    case "--max-age":
+                        options.maxAgeDays = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                        break;
+                    case "--cleanup-dry-run":
+                        options.cleanupDryRun = true;
+                        break;
+                    case "--verify":
+                        options.verify = true;
+                        break;
+                    case "--link-duplicates":
+                        options.linkDuplicates = true;
+                        break;
+                    case "--watch":
+                        options.watch = true;
+                        break;
+                    case "--resume":
+                        options.resume = true;
+                        break;
+                    case "--plan":
+                        options.planOnly = true;
+                        break;
+                    case "--concurrency":
+                        options.concurrency = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                        if (options.concurrency > ProcessingConfig.MAX_CONCURRENCY) {
+                            throw new IllegalArgumentException("Invalid value for " + arg + ": " + options.concurrency
+                                    + " (at most " + ProcessingConfig.MAX_CONCURRENCY + ")");
+                        }
+                        break;
+                    case "--ffmpeg":
+                        options.ffmpeg = new File(requireValue(args, ++i, arg));
+                        break;
+                    case "--ffmpeg-batch":
+                        options.ffmpegBatchSize = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                        break;
+                    case "--copy-strategy":
+                        options.copyStrategy = parseCopyStrategy(requireValue(args, ++i, arg), arg);
+                        break;
+                    case "--help":
+                    case "-h":
+                        options.help = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            if (!options.help && options.inputs.isEmpty()) {
+                throw new IllegalArgumentException("Missing required argument --input");
+            }
+            if (options.resume && options.watch) {
+                throw new IllegalArgumentException("--resume cannot be used together with --watch");
+            }
+            if (options.planOnly && options.watch) {
+                throw new IllegalArgumentException("--plan cannot be used together with --watch");
+            }
+            if (options.replace && options.isCleaning()) {
+                throw new IllegalArgumentException("Cleaning the output folder cannot be used together with --replace");
+            }
+            if (options.deleteMicrophoneTracks && !options.replace) {
+                throw new IllegalArgumentException("--delete-mic can only be used together with --replace");
+            }
+            return options;
+        }
+
+        boolean isCleaning() {
+            return cleanOutput || cleanupDryRun || !getRetentionPolicy().isDeleteAll();
+        }
+
+        // Any limit turns cleaning on, --clean-output without limits deletes everything
+        RetentionPolicy getRetentionPolicy() {
+            return new RetentionPolicy(keepNewest, maxOutputSizeGb * 1024L * 1024 * 1024, maxAgeDays);
+        }
+
+        private static String requireValue(String[] args, int index, String option) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            return args[index];
+        }
+
+        // e.g. "hard-link" for HARD_LINK
+        private static CopyStrategy parseCopyStrategy(String value, String option) {
+            try {
+                return CopyStrategy.valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+
+        private static int parsePositiveInt(String value, String option) {
+            try {
+                int parsed = Integer.parseInt(value);
+                if (parsed < 1) {
+                    throw new NumberFormatException();
+                }
+                return parsed;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+    }
+}
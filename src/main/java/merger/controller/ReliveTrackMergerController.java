@@ -1,19 +1,42 @@
 package merger.controller;
 
 import merger.ffmpeg.FfmpegInstaller;
+import merger.processing.BatchProgress;
+import merger.processing.ExecutionPlan;
 import merger.processing.ProcessingConfig;
+import merger.processing.ProcessingMetrics;
+import merger.processing.ReplayBatchRunner;
+import merger.processing.ReplayProgress;
 import merger.processing.ReplayProcessor;
+import merger.processing.ThroughputHistory;
 import merger.ui.ReliveTrackMergerUI;
+import merger.ui.ReplayState;
+import merger.util.IoThreads;
+import merger.util.JobJournal;
+import merger.util.OutputCleaner;
 import merger.util.OutputFolderResolver;
+import merger.util.ProcessedReplayLedger;
 import merger.util.ProcessingLogger;
-import merger.util.ReplayUtils;
+import merger.util.ReplayScanner;
+import merger.util.RetentionPolicy;
+import merger.watch.ReplayFolderWatcher;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -26,8 +49,8 @@ import java.util.stream.Collectors;
  * - Launch the processing task on a background thread and report progress back to the UI.
  * <p>
  * Notes on concurrency and threading:
- * - Long-running operations (actual file processing) are performed on a separate thread
- *   so the Swing UI thread remains responsive.
+ * - Long-running operations (actual file processing) are dispatched by a separate coordinator
+ *   thread to a bounded pool of worker threads so the Swing UI thread remains responsive.
  * - UI updates are dispatched with SwingUtilities.invokeLater(...) to ensure they run
  *   on the Event Dispatch Thread (EDT).
  * <p>
@@ -39,7 +62,9 @@ public class ReliveTrackMergerController {
     // Constant folder name used when we copy processed replays into a sibling directory.
     public static final String REPLAYS_MERGED = "replays_merged";
 
-    // Currently selected input folder (where original replays are found)
+    // Currently selected input folders (where original replays are found), e.g. one per drive.
+    // The first one is the primary input folder the default output folder is derived from.
+    private final List<File> inputFolders = new ArrayList<>();
     private File inputFolder;
 
     // The actual internal output folder used by processing. This is the "source of truth"
@@ -50,28 +75,56 @@ public class ReliveTrackMergerController {
     // Cached list of files to process (discovered under inputFolder)
     private List<File> filesToProcess;
 
-    // Flags used for graceful shutdown and cancellation
-    // AtomicBoolean is used to safely share these flags across the UI thread and the background processing thread.
+    // Copies of a replay found by the last scan, mapped to their original. Only accessed on the EDT.
+    private Map<File, File> duplicateReplays = Collections.emptyMap();
+
+    // Background scan of the input folder that is still running, if any. Only accessed on the EDT.
+    private ReplayScanner replayScanner;
+
+    // Duration of the last completed scan, recorded into the metrics of the next run. Only accessed on the EDT.
+    private long lastScanDurationNanos = -1;
+
+    // Flag used for graceful shutdown and cancellation
+    // AtomicBoolean is used to safely share this flag across the UI thread and the background processing thread.
     private final AtomicBoolean processingCancelled = new AtomicBoolean(false);
-    private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
 
-    // Background thread performing the sequential processing of files.
+    // Background coordinator thread that hands the files over to the worker pool.
     private Thread processingThread;
 
+    // Worker pool of the current batch run, kept so cancel can stop running jobs.
+    private volatile ReplayBatchRunner batchRunner;
+
+    // Watchers (one per input folder) and workers of watch mode; only set while watch mode is active. Accessed on the EDT.
+    private List<ReplayFolderWatcher> folderWatchers;
+    private ReplayBatchRunner watchRunner;
+
     // Short-lived processing configuration/state object used while processing runs.
     private ProcessingConfig processingConfig;
 
-    // Simple counters for reporting results in the final log output.
-    private int filesProcessedCount = 0;
-    private int filesFailedCount = 0;
+    /**
+     * Clean up or complete the replays a previous run was working on when it was killed, e.g.
+     * replace originals whose merged output was already written. Called once on startup,
+     * before any folder is scanned, so the scan sees the recovered state.
+     */
+    public void recoverInterruptedJobs() {
+        JobJournal journal = JobJournal.getDefault();
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.recover(ProcessedReplayLedger.getDefault());
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to recover interrupted jobs: " + e.getMessage());
+        }
+    }
 
     /**
-     * Called when the user selects (or changes) the input folder in the UI.
+     * Called when the user selects (or changes) the input folders in the UI.
      * <p>
      * Behavior:
-     * - If the user canceled the folder dialog (selectedInputFolder == null) we reset
+     * - If the user canceled the folder dialog (no folder selected) we reset
      *   controller state and clear UI elements.
-     * - Otherwise we set the inputFolder, update the UI text field and compute a
+     * - Otherwise we set the input folders, update the UI text field and compute a
      *   canonical outputFolder using the OutputFolderResolver. This ensures the UI
      *   displays the same internal path that the processing will actually use.
      * <p>
@@ -79,11 +132,19 @@ public class ReliveTrackMergerController {
      * (presence of replays, available disk space) so that the "Process" button will
      * only be enabled when processing can reasonably proceed.
      */
-    public void selectInputFolder(ReliveTrackMergerUI ui, File selectedInputFolder) {
+    public void selectInputFolders(ReliveTrackMergerUI ui, List<File> selectedInputFolders) {
         ui.cleanLogTextarea();
 
-        if (selectedInputFolder == null) {
+        // A scan or watch of a previously selected folder is no longer of interest
+        cancelReplayScan();
+        if (isWatchingInputFolder()) {
+            stopFolderWatcher();
+            ui.setWatchInputFolderSelected(false);
+        }
+
+        if (selectedInputFolders.isEmpty()) {
             // User canceled - reset everything (safe no-op if already null)
+            inputFolders.clear();
             inputFolder = null;
             outputFolder = null;
             filesToProcess = null;
@@ -92,10 +153,11 @@ public class ReliveTrackMergerController {
             ui.clearVideoList();
             ui.disableButtonProcess();
         } else {
-            // Persist the selected input folder and show it in the UI
-            inputFolder = selectedInputFolder;
-            String inputFolderPath = inputFolder.getAbsolutePath();
-            ui.setTextFieldInputFolderPath(inputFolderPath);
+            // Persist the selected input folders and show them in the UI
+            inputFolders.clear();
+            inputFolders.addAll(selectedInputFolders);
+            inputFolder = inputFolders.get(0);
+            ui.setTextFieldInputFolderPaths(inputFolders);
 
             // Compute the canonical output folder using the resolver helper.
             // This centralizes the rule: when replaceOriginals==true the output is
@@ -115,13 +177,44 @@ public class ReliveTrackMergerController {
             // Log the internal canonical output folder so the log matches what processing uses.
             ProcessingLogger.info("Output folder set to: " + outputFolder);
 
-            // Refresh the list of replays in the UI and validate the state (replays found, disk space)
+            // Refresh the list of replays in the UI; the state (replays found, disk space)
+            // is validated once the background scan has completed
             updateReplayListAndView(ui);
-            validateReplaysToProcessFound(ui);
-            validateEnoughStorageAvailableForProcessing(ui);
         }
     }
 
+    /**
+     * Called when the user adds input folders to the current selection, e.g. the replay
+     * folder of a second drive. The output folder stays as it is; the replays of all
+     * input folders are scanned again.
+     */
+    public void addInputFolders(ReliveTrackMergerUI ui, List<File> addedInputFolders) {
+        if (inputFolder == null) {
+            if (!addedInputFolders.isEmpty()) {
+                selectInputFolders(ui, addedInputFolders);
+            }
+            return;
+        }
+
+        List<File> newInputFolders = addedInputFolders.stream()
+                .filter(folder -> !inputFolders.contains(folder))
+                .collect(Collectors.toList());
+        if (newInputFolders.isEmpty()) {
+            return;
+        }
+
+        cancelReplayScan();
+        if (isWatchingInputFolder()) {
+            stopFolderWatcher();
+            ui.setWatchInputFolderSelected(false);
+        }
+
+        inputFolders.addAll(newInputFolders);
+        ui.setTextFieldInputFolderPaths(inputFolders);
+        newInputFolders.forEach(folder -> ProcessingLogger.info("Added input folder: " + folder.getAbsolutePath()));
+        updateReplayListAndView(ui);
+    }
+
     // Convenience helper reflecting the UI checkbox semantics.
     private static boolean dontReplaceOriginalReplays(ReliveTrackMergerUI ui) {
         return !ui.isReplaceOriginalReplaysSelected();
@@ -152,21 +245,97 @@ public class ReliveTrackMergerController {
     /**
      * Discover and present unprocessed replay files in the UI list. This method
      * keeps the UI listing in sync with the controller's `filesToProcess` cache.
+     * <p>
+     * The directory tree is scanned on a background thread so the UI does not freeze on
+     * large or network-backed folders. Found replays are shown as they are discovered; once
+     * the scan completes the list is sorted and the processing preconditions are validated.
      */
     private void updateReplayListAndView(ReliveTrackMergerUI ui) {
         ui.clearVideoList();
+        filesToProcess = null;
+        duplicateReplays = Collections.emptyMap();
+        ui.disableButtonProcess();
+
         if (inputFolder != null && inputFolder.isDirectory()) {
-            List<File> unprocessedReplays = ReplayUtils.getUnprocessedReplays(inputFolder);
-            filesToProcess = unprocessedReplays.stream()
-                    .sorted(Comparator.comparing(File::getName))
-                    .collect(Collectors.toList());
+            ProcessingLogger.info("Scanning for replays...");
+            Queue<File> discoveredReplays = new ConcurrentLinkedQueue<>();
+            AtomicBoolean updateScheduled = new AtomicBoolean(false);
+            AtomicReference<ReplayScanner> currentScan = new AtomicReference<>();
+
+            ReplayScanner scanner = new ReplayScanner(getExistingInputFolders(), ProcessedReplayLedger.getDefault(), createResultResolver(ui), replay -> {
+                // Coalesce UI updates: at most one pending EDT task adds all replays found in the meantime
+                discoveredReplays.add(replay);
+                if (updateScheduled.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(() -> {
+                        updateScheduled.set(false);
+                        if (currentScan.get() == replayScanner) {
+                            addDiscoveredReplaysToView(ui, discoveredReplays);
+                        }
+                    });
+                }
+            });
+            currentScan.set(scanner);
+            replayScanner = scanner;
+            long scanStartNanos = System.nanoTime();
+
+            scanner.start().whenComplete((unprocessedReplays, error) -> SwingUtilities.invokeLater(() -> {
+                // Ignore results of a scan that has been superseded by a newer selection
+                if (scanner != replayScanner || scanner.isCancelled()) {
+                    return;
+                }
+                replayScanner = null;
+                if (error != null) {
+                    ProcessingLogger.error("Failed to scan for replays: " + error.getMessage(), error);
+                    return;
+                }
 
-            for (File replay : filesToProcess) {
-                ui.addToVideoList(replay.getName());
-            }
+                discoveredReplays.clear();
+                lastScanDurationNanos = System.nanoTime() - scanStartNanos;
+                if (scanner.getSkippedCount() > 0) {
+                    ProcessingLogger.info("Skipped " + scanner.getSkippedCount() + " replay(s) that have already been merged");
+                }
+                duplicateReplays = scanner.getDuplicates();
+                logDuplicateReplays(ui);
+                filesToProcess = unprocessedReplays.stream()
+                        .sorted(Comparator.comparing(File::getName))
+                        .collect(Collectors.toList());
+
+                ui.setVideoList(filesToProcess);
+
+                // Force a repaint so the UI list immediately reflects the new contents
+                ui.repaintVideoList();
+
+                validateReplaysToProcessFound(ui);
+                validateEnoughStorageAvailableForProcessing(ui);
+                if (isWatchingInputFolder()) {
+                    ui.disableButtonProcess();
+                }
+            }));
+        }
+    }
+
+    private void logDuplicateReplays(ReliveTrackMergerUI ui) {
+        if (duplicateReplays.isEmpty()) {
+            return;
+        }
+        ProcessingLogger.info("Found " + duplicateReplays.size() + " replay(s) that are copies of another replay, they are merged only once"
+                + (ui.isLinkDuplicatesSelected() ? " and linked afterwards" : " and otherwise skipped"));
+    }
 
-            // Force a repaint so the UI list immediately reflects the new contents
-            ui.repaintVideoList();
+    private void addDiscoveredReplaysToView(ReliveTrackMergerUI ui, Queue<File> discoveredReplays) {
+        List<File> replays = new ArrayList<>();
+        File replay;
+        while ((replay = discoveredReplays.poll()) != null) {
+            replays.add(replay);
+        }
+        ui.addAllToVideoList(replays);
+    }
+
+    // Cancel a running background scan, if any. Must be called on the EDT.
+    private void cancelReplayScan() {
+        if (replayScanner != null) {
+            replayScanner.cancel();
+            replayScanner = null;
         }
     }
 
@@ -206,67 +375,277 @@ public class ReliveTrackMergerController {
      */
     public void executeReplayProcessing(ReliveTrackMergerUI ui) {
         processingCancelled.set(false);
-        shutdownRequested.set(false);
-        filesProcessedCount = 0;
-        filesFailedCount = 0;
 
         long startTime = System.currentTimeMillis();
         ui.cleanLogTextarea();
 
-        // Ensure FFmpeg is available before heavy work begins — it will throw
-        // an IllegalStateException if installation/check fails.
-        try {
-            FfmpegInstaller.checkOrInstallFfmpeg();
-        } catch (IllegalStateException e) {
-            ProcessingLogger.error("FFmpeg installation failed: " + e.getMessage(), e);
-            ui.setButtonProcessToInitialState();
+        // Ensure FFmpeg is available before heavy work begins. The probe started with the app
+        // is usually done by now; if not, processing starts when it is instead of blocking the UI.
+        FfmpegInstaller.checkOrInstallFfmpegAsync().thenAcceptAsync(ffmpegAvailable -> {
+            if (processingCancelled.get() || !ffmpegAvailable) {
+                resetProcessingControls(ui);
+                return;
+            }
+            startReplayProcessing(ui, startTime);
+        }, SwingUtilities::invokeLater);
+    }
+
+    private void startReplayProcessing(ReliveTrackMergerUI ui, long startTime) {
+        if (!prepareOutputFolder(ui)) {
+            resetProcessingControls(ui);
             return;
         }
+        ReplayProcessor processor = createReplayProcessor(ui);
+
+        // The list was scanned with the output folder and mode of that time, and the ledger only
+        // skips replays merged into the result this run writes, so the input folders are scanned
+        // again. Planning a cleanup first releases the replays whose outputs are about to be deleted.
+        RetentionPolicy policy = RetentionPolicy.deleteAll();
+        OutputCleaner cleaner = isCleanOutputFolderSelected(ui)
+                ? new OutputCleaner(outputFolder, policy, ProcessedReplayLedger.getDefault())
+                : null;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return cleaner != null ? cleaner.plan(false) : null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, runnable -> IoThreads.start("ProcessingPreparation", runnable)).thenCompose(cleanupPlan -> {
+            if (cleanupPlan != null) {
+                ProcessingLogger.info("Cleaning output folder (" + policy + "): " + cleanupPlan);
+            }
+            long scanStartNanos = System.nanoTime();
+            ReplayScanner scanner = new ReplayScanner(getExistingInputFolders(), ProcessedReplayLedger.getDefault(),
+                    processor::getResultFile, replay -> {});
+            return scanner.start()
+                    .thenAcceptAsync(replays -> {
+                        if (processingCancelled.get()) {
+                            // Nothing was started yet, the planned cleanup is dropped as well
+                            ProcessingLogger.info("Processing cancelled before it started");
+                            resetProcessingControls(ui);
+                            return;
+                        }
+                        lastScanDurationNanos = System.nanoTime() - scanStartNanos;
+                        duplicateReplays = scanner.getDuplicates();
+                        filesToProcess = replays.stream()
+                                .sorted(Comparator.comparing(File::getName))
+                                .collect(Collectors.toList());
+                        ui.setVideoList(filesToProcess);
+                        ui.repaintVideoList();
+                        dispatchReplayProcessing(ui, processor, startTime, cleaner, cleanupPlan);
+                    }, SwingUtilities::invokeLater);
+        }).whenComplete((ignored, error) -> {
+            if (error != null) {
+                SwingUtilities.invokeLater(() -> {
+                    ProcessingLogger.error("Failed to prepare processing: " + error.getMessage(), error);
+                    resetProcessingControls(ui);
+                });
+            }
+        });
+    }
+
+    /**
+     * Log a summary of the batch and start the processing thread.
+     *
+     * @param cleaner cleaner deleting the planned files of the output folder while the replays are processed, null if not cleaning
+     */
+    private void dispatchReplayProcessing(ReliveTrackMergerUI ui, ReplayProcessor processor, long startTime,
+                                          OutputCleaner cleaner, OutputCleaner.Plan cleanupPlan) {
+        recordLastScan(processingConfig.getMetrics());
+        Map<File, File> duplicates = duplicateReplays;
+        boolean linkDuplicates = ui.isLinkDuplicatesSelected();
+        ExecutionPlan plan = ExecutionPlan.create(processor, filesToProcess, duplicates, linkDuplicates, ThroughputHistory.getDefault());
+        printExecutionPlan(plan);
+        printOutputFolderPath();
+        printSeparator();
+
+        // The ETA starts at the planned duration and follows the actual pace as replays finish
+        BatchProgress batchProgress = new BatchProgress(plan);
+        if (cleaner != null) {
+            // Replays that are merged again keep their outputs, the new ones overwrite them
+            List<File> outputs = new ArrayList<>(filesToProcess.size());
+            for (File replay : filesToProcess) {
+                outputs.add(processor.getOutputFile(replay));
+            }
+            logCleanupResult(cleaner.deleteAsync(cleanupPlan, outputs));
+        }
+        ReplayBatchRunner runner = new ReplayBatchRunner(processor, processingConfig, createReplayStatusListener(ui, batchProgress));
+        batchRunner = runner;
 
-        // If the user selected the "do not replace originals" mode we will ensure
-        // the output folder points to a `replays_merged` folder. This block also
-        // performs optional cleaning of that folder if the user requested it.
+        // Dispatch the work from a dedicated background thread so the UI stays responsive
+        // and we can still respond to user-initiated cancel/pause requests.
+        processingThread = new Thread(() -> {
+            processReplaysConcurrently(runner, processor, linkDuplicates ? duplicates : Collections.emptyMap(), ui, startTime);
+        });
+        processingThread.setName("ReplayProcessingThread");
+        processingThread.start();
+    }
+
+    /**
+     * If the user selected the "do not replace originals" mode we will ensure
+     * the output folder points to a `replays_merged` folder.
+     *
+     * @return false if the output folder could not be created
+     */
+    private boolean prepareOutputFolder(ReliveTrackMergerUI ui) {
         if (dontReplaceOriginalReplays(ui) && outputFolder != null) {
             // Guard against accidental double-append by checking the last segment name
             if (!REPLAYS_MERGED.equalsIgnoreCase(outputFolder.getName())) {
                 outputFolder = new File(outputFolder, REPLAYS_MERGED);
             }
-            if (ui.isCleanOutputSelected() && outputFolder.exists()) {
-                ProcessingLogger.info("Cleaning output folder...");
-                ReplayUtils.deleteProcessedReplaysInDirectory(outputFolder);
-            }
             // Try to create the output folder if it doesn't exist. If we can't create it,
             // abort processing and inform the user.
             if (!outputFolder.exists() && !outputFolder.mkdirs()) {
                 ProcessingLogger.error("Failed to create output folder.");
-                ui.setButtonProcessToInitialState();
-                return;
+                return false;
             }
         }
+        return true;
+    }
 
-        // Log a summary and start the processing thread
-        printAmountOfFilesToProcess();
-        printOutputFolderPath();
-        printSeparator();
+    private boolean isCleanOutputFolderSelected(ReliveTrackMergerUI ui) {
+        return dontReplaceOriginalReplays(ui) && ui.isCleanOutputSelected() && outputFolder != null && outputFolder.exists();
+    }
+
+    /**
+     * Delete the previously merged replays from the output folder in the background if the user
+     * asked for it, when watching for new replays. Their replays are merged again by the next batch.
+     */
+    private void startOutputFolderCleanup(ReliveTrackMergerUI ui) {
+        if (isCleanOutputFolderSelected(ui)) {
+            logCleanupResult(new OutputCleaner(outputFolder, RetentionPolicy.deleteAll(), ProcessedReplayLedger.getDefault())
+                    .cleanAsync(Collections.emptyList()));
+        }
+    }
 
-        processingConfig = new ProcessingConfig();
+    private static void logCleanupResult(CompletableFuture<OutputCleaner.Result> cleanup) {
+        cleanup.whenComplete((result, error) -> {
+            if (error != null) {
+                ProcessingLogger.error("Failed to clean output folder: " + error.getMessage(), error);
+            } else {
+                ProcessingLogger.info("Cleaned output folder: " + result);
+            }
+        });
+    }
+
+    /**
+     * Create the processing configuration and processor for a run from the current UI settings.
+     */
+    private ReplayProcessor createReplayProcessor(ReliveTrackMergerUI ui) {
+        processingConfig = new ProcessingConfig(ui.getConcurrency());
+        processingConfig.setAppendInPlace(ui.isAppendInPlaceSelected());
+        processingConfig.setSampledVerification(ui.isVerifyOutputSelected());
 
         ReplayProcessor processor = new ReplayProcessor(
                 outputFolder,
-                inputFolder,
+                new ArrayList<>(inputFolders),
                 ui.isReplaceOriginalReplaysSelected(),
                 ui.isDeleteMicrophoneTracksSelected(),
-                processingConfig
+                processingConfig,
+                ProcessedReplayLedger.getDefault()
         );
 
-        // Run processing on a single dedicated background thread so we can keep
-        // the logic sequential (no parallelism for simplicity) and still be able
-        // to respond to user-initiated cancel/pause requests.
-        processingThread = new Thread(() -> {
-            processReplaysSequentially(processor, ui, startTime);
-        });
-        processingThread.setName("ReplayProcessingThread");
-        processingThread.start();
+        return processor;
+    }
+
+    // The scan ran before this run's metrics existed
+    private void recordLastScan(ProcessingMetrics metrics) {
+        if (lastScanDurationNanos >= 0 && filesToProcess != null) {
+            metrics.stage(ProcessingMetrics.Stage.SCAN).recordNanos(lastScanDurationNanos);
+            metrics.getReplaysScanned().add(filesToProcess.size());
+        }
+    }
+
+    /**
+     * The file a replay is merged into with the current settings, to look it up in the ledger.
+     */
+    private Function<File, File> createResultResolver(ReliveTrackMergerUI ui) {
+        ReplayProcessor processor = new ReplayProcessor(outputFolder, new ArrayList<>(inputFolders),
+                ui.isReplaceOriginalReplaysSelected(), false, new ProcessingConfig(), null);
+        return processor::getResultFile;
+    }
+
+    /**
+     * Start watch mode: new replays in the input folders are merged as soon as ReLive has
+     * finished writing them. Batch processing is disabled while watching, so a replay is
+     * never processed by both at the same time.
+     *
+     * @return false if watching could not be started
+     */
+    public boolean startWatchingInputFolder(ReliveTrackMergerUI ui) {
+        stopFolderWatcher();
+        if (inputFolder == null || !inputFolder.isDirectory()) {
+            ProcessingLogger.info("Please select an input folder before enabling watch mode.");
+            return false;
+        }
+        if (processingThread != null && processingThread.isAlive()) {
+            ProcessingLogger.info("Watch mode can only be enabled while no replays are being processed.");
+            return false;
+        }
+        if (!prepareOutputFolder(ui)) {
+            return false;
+        }
+
+        processingCancelled.set(false);
+        ReplayProcessor processor = createReplayProcessor(ui);
+        recordLastScan(processingConfig.getMetrics());
+        startOutputFolderCleanup(ui);
+        ReplayBatchRunner runner = new ReplayBatchRunner(processor, processingConfig, createReplayStatusListener(ui, null));
+
+        List<ReplayFolderWatcher> watchers = new ArrayList<>();
+        try {
+            for (File folder : getExistingInputFolders()) {
+                ReplayFolderWatcher watcher = new ReplayFolderWatcher(folder, ProcessedReplayLedger.getDefault(), processor::getResultFile, replay -> {
+                    SwingUtilities.invokeLater(() -> ui.addToVideoList(replay));
+                    // A processed replay may be reported again once it is recorded anew
+                    runner.submit(replay, done -> watchers.forEach(each -> each.processed(done)));
+                });
+                watchers.add(watcher);
+                watcher.start();
+            }
+        } catch (IOException e) {
+            ProcessingLogger.error("Failed to watch input folder: " + e.getMessage(), e);
+            watchers.forEach(ReplayFolderWatcher::close);
+            runner.close();
+            return false;
+        }
+
+        folderWatchers = watchers;
+        watchRunner = runner;
+        ui.disableButtonProcess();
+        return true;
+    }
+
+    /**
+     * Stop watch mode and allow batch processing again. Replays that are already being
+     * merged are completed.
+     */
+    public void stopWatchingInputFolder(ReliveTrackMergerUI ui) {
+        stopFolderWatcher();
+        if (filesToProcess != null && !filesToProcess.isEmpty()) {
+            validateStorageSpaceAtOutputDisk(ui);
+        }
+    }
+
+    private void stopFolderWatcher() {
+        if (folderWatchers == null) {
+            return;
+        }
+        folderWatchers.forEach(ReplayFolderWatcher::close);
+        folderWatchers = null;
+        watchRunner.close();
+        exportMetrics(watchRunner.getMetrics());
+        watchRunner = null;
+        ProcessingLogger.info("Stopped watching for new replays");
+    }
+
+    public boolean isWatchingInputFolder() {
+        return folderWatchers != null;
+    }
+
+    // Input folders that still exist; the primary folder is checked by the callers
+    private List<File> getExistingInputFolders() {
+        return inputFolders.stream().filter(File::isDirectory).collect(Collectors.toList());
     }
 
     /**
@@ -282,7 +661,7 @@ public class ReliveTrackMergerController {
                 ProcessingLogger.info("The total file size of the selected replays (" + String.format("%.1f", totalSizeOfReplays) + " GB) exceeds the available disk space (" + String.format("%.1f", availableDiskSpace) + " GB).");
                 ProcessingLogger.info("Please free up some space on the target disk or select a different output directory.");
                 ui.disableButtonProcess();
-            } else {
+            } else if (!isWatchingInputFolder()) {
                 ui.enableButtonProcess();
             }
         }
@@ -290,13 +669,20 @@ public class ReliveTrackMergerController {
 
     /**
      * Request a graceful stop of processing. We signal the processing thread to
-     * shutdown and wait briefly (30s) for it to finish.
+     * shutdown, terminate the running FFmpeg processes and wait briefly (30s)
+     * for all workers to finish.
      */
     public void cancelReplayProcessing() {
+        // Also stops a run that is still waiting for the FFmpeg check
+        processingCancelled.set(true);
         if (processingThread != null && processingThread.isAlive()) {
             ProcessingLogger.info("Requesting graceful shutdown of replay processing...");
             processingCancelled.set(true);
-            shutdownRequested.set(true);
+
+            ReplayBatchRunner runner = batchRunner;
+            if (runner != null) {
+                runner.requestShutdown();
+            }
 
             // Wait for thread to finish gracefully (max 30 seconds)
             try {
@@ -330,101 +716,135 @@ public class ReliveTrackMergerController {
     }
 
     /**
-     * The core sequential processing loop. Each replay is processed in-order, and
-     * the UI is updated with a small status emoji prefix to indicate progress.
-     * <p>
-     * Error handling in the loop catches InterruptedException (used for shutdown)
-     * separately so we can perform the correct UI update and bookkeeping.
+     * Run the batch on the processing thread; the worker pool itself lives in
+     * {@link ReplayBatchRunner}. Once all replays are done (or processing was cancelled)
+     * the totals are logged and the UI controls are reset on the EDT.
+     *
+     * @param duplicatesToLink copies of replays that get the result of their original after the batch
      */
-    private void processReplaysSequentially(ReplayProcessor processor, ReliveTrackMergerUI ui, long startTime) {
-        int totalFiles = filesToProcess.size();
-
+    private void processReplaysConcurrently(ReplayBatchRunner runner, ReplayProcessor processor, Map<File, File> duplicatesToLink,
+                                            ReliveTrackMergerUI ui, long startTime) {
         try {
-            for (int fileIndex = 0; fileIndex < filesToProcess.size(); fileIndex++) {
-                File replayFile = filesToProcess.get(fileIndex);
-
-                // Check for graceful shutdown request
-                if (shutdownRequested.get()) {
-                    processor.requestShutdown();
-                    processingCancelled.set(true);
-                    break;
-                }
-
-                // Check and wait if pause is requested
-                try {
-                    processingConfig.checkAndWaitIfPaused();
-                } catch (InterruptedException e) {
-                    if (shutdownRequested.get()) {
-                        break;
-                    }
-                    ProcessingLogger.error("Processing interrupted: " + e.getMessage());
-                    break;
-                }
+            runner.run(filesToProcess);
+            // The copies get the results of their originals once those are done
+            if (!runner.isShutdownRequested() && !duplicatesToLink.isEmpty()) {
+                int linked = processor.linkDuplicates(duplicatesToLink);
+                ProcessingLogger.info("Linked " + linked + " of " + duplicatesToLink.size() + " copies to the merged replay of their original");
+            }
+        } finally {
+            if (runner.isShutdownRequested()) {
+                processingCancelled.set(true);
+            }
+            batchRunner = null;
+            exportMetrics(runner.getMetrics());
 
-                try {
-                    // Update UI to show processing status; updates must run on the EDT
-                    SwingUtilities.invokeLater(() -> {
-                        ui.updateReplayStatusInList("🔁 " + replayFile.getName());
-                    });
+            // Finalize processing on the UI thread: write totals and reset UI controls
+            SwingUtilities.invokeLater(() -> {
+                logFinalProcessingResult(this, runner, startTime);
+                resetProcessingControls(ui);
 
-                    // Process the replay file once (no retries) and update counters
-                    processor.process(replayFile);
+                if (!processingCancelled.get() && ui.isOpenOutputFolderSelected()) {
+                    openOutputDirectory();
+                }
+            });
+        }
+    }
 
-                    filesProcessedCount++;
-                    SwingUtilities.invokeLater(() -> {
-                        ui.updateReplayStatusInList("✅ " + replayFile.getName());
-                    });
+    /**
+     * Reset the window title and the process controls once a run is over, whether its batch
+     * finished or it was cancelled or failed before the batch started. Runs on the EDT.
+     */
+    private static void resetProcessingControls(ReliveTrackMergerUI ui) {
+        ui.setOverallProgress(null);
+        ui.setButtonProcessToInitialState();
+    }
 
-                } catch (InterruptedException e) {
-                    // InterruptedException commonly signifies a requested shutdown — handle specially
-                    ProcessingLogger.error("Processing interrupted: " + replayFile.getName());
-                    if (shutdownRequested.get()) {
-                        SwingUtilities.invokeLater(() -> {
-                            ui.updateReplayStatusInList("⏹️ " + replayFile.getName());
-                        });
-                        break;
-                    }
-                    filesFailedCount++;
-                    SwingUtilities.invokeLater(() -> {
-                        ui.updateReplayStatusInList("❌ " + replayFile.getName());
-                    });
+    /**
+     * Show the progress of each replay in the UI list with a small status emoji prefix and
+     * live throughput details, and the overall progress of the batch in the window title.
+     *
+     * @param batchProgress progress of the whole batch, null in watch mode
+     */
+    private static ReplayBatchRunner.Listener createReplayStatusListener(ReliveTrackMergerUI ui, BatchProgress batchProgress) {
+        return new ReplayBatchRunner.Listener() {
+            @Override
+            public void replayStarted(File replay) {
+                ui.updateReplayStatusInList(replay, ReplayState.PROCESSING);
+            }
 
-                } catch (Exception e) {
-                    // Generic exception for a single file should not abort the whole run; we record it
-                    ProcessingLogger.error("Error processing: " + replayFile.getName() + " - " + e.getMessage(), e);
-                    filesFailedCount++;
-                    SwingUtilities.invokeLater(() -> {
-                        ui.updateReplayStatusInList("❌ " + replayFile.getName());
-                    });
+            @Override
+            public void replayProgress(ReplayProgress progress) {
+                ui.updateReplayStatusInList(progress.getReplay(), ReplayState.PROCESSING, formatReplayProgress(progress));
+                if (batchProgress != null) {
+                    batchProgress.update(progress);
+                    ui.setOverallProgress(formatBatchProgress(batchProgress));
                 }
+            }
 
+            @Override
+            public void replayCompleted(File replay) {
+                ui.updateReplayStatusInList(replay, ReplayState.COMPLETED);
+                finish(replay);
             }
-        } finally {
-            // Ensure a graceful shutdown of processor resources
-            processor.requestShutdown();
 
-            // Finalize processing on the UI thread: write totals and reset UI controls
-            SwingUtilities.invokeLater(() -> {
-                logFinalProcessingResult(this, startTime);
-                ui.setButtonProcessToInitialState();
+            @Override
+            public void replayFailed(File replay, Exception error) {
+                ui.updateReplayStatusInList(replay, ReplayState.FAILED);
+                finish(replay);
+            }
 
-                if (!processingCancelled.get() && ui.isOpenOutputFolderSelected()) {
-                    openOutputDirectory();
+            @Override
+            public void replayCancelled(File replay) {
+                ui.updateReplayStatusInList(replay, ReplayState.CANCELLED);
+                finish(replay);
+            }
+
+            private void finish(File replay) {
+                if (batchProgress != null) {
+                    batchProgress.finish(replay);
+                    ui.setOverallProgress(formatBatchProgress(batchProgress));
                 }
-            });
+            }
+        };
+    }
+
+    // e.g. "42% · 85.3 MB/s · 12.5x", the speed is only known for FFmpeg jobs
+    private static String formatReplayProgress(ReplayProgress progress) {
+        String details = String.format("%.0f%% · %.1f MB/s", progress.getFraction() * 100, progress.getMegabytesPerSecond());
+        if (!Double.isNaN(progress.getSpeed())) {
+            details += String.format(" · %.1fx", progress.getSpeed());
+        }
+        return details;
+    }
+
+    // e.g. "37% · ETA 3:12"
+    private static String formatBatchProgress(BatchProgress batchProgress) {
+        String summary = String.format("%.0f%%", batchProgress.getFraction() * 100);
+        long remainingSeconds = batchProgress.getEstimatedRemainingMillis() / 1000;
+        if (remainingSeconds >= 0) {
+            summary += String.format(" · ETA %d:%02d", remainingSeconds / 60, remainingSeconds % 60);
         }
+        return summary;
     }
 
+    // Keep the counters and stage timings of the run for comparing throughput between runs
+    private static void exportMetrics(ProcessingMetrics metrics) {
+        try {
+            ProcessingLogger.debug("Processing metrics written to " + metrics.export());
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to write processing metrics: " + e.getMessage());
+        }
+    }
 
     // Helper that logs a short summary on completion or cancellation.
-    private static void logFinalProcessingResult(ReliveTrackMergerController controller, long startTime) {
+    private static void logFinalProcessingResult(ReliveTrackMergerController controller, ReplayBatchRunner runner, long startTime) {
         if (controller.isProcessingCancelled()) {
             ProcessingLogger.info("Replay processing stopped by user");
         } else {
             ProcessingLogger.info("");
             ProcessingLogger.info("Done!");
-            ProcessingLogger.info("Files processed: " + controller.filesProcessedCount);
-            ProcessingLogger.info("Files failed: " + controller.filesFailedCount);
+            ProcessingLogger.info("Files processed: " + runner.getProcessedCount());
+            ProcessingLogger.info("Files failed: " + runner.getFailedCount());
             ProcessingLogger.info("Processing took a total of " + String.format("%.1f", (System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
         }
     }
@@ -441,8 +861,12 @@ public class ReliveTrackMergerController {
         }
     }
 
-    private void printAmountOfFilesToProcess() {
-        ProcessingLogger.info("Processing " + filesToProcess.size() + " file(s)");
+    private void printExecutionPlan(ExecutionPlan plan) {
+        ProcessingLogger.info("Processing " + filesToProcess.size() + " file(s): " + plan);
+        for (ExecutionPlan.DeviceLoad device : plan.getDevices().values()) {
+            ProcessingLogger.info("  " + device.getName() + ": read " + String.format("%.1f", device.getBytesRead() / (1024.0 * 1024.0 * 1024.0))
+                    + " GB, write " + String.format("%.1f", device.getBytesWritten() / (1024.0 * 1024.0 * 1024.0)) + " GB");
+        }
     }
 
     private void printOutputFolderPath() {
@@ -0,0 +1,60 @@
+package merger.ffmpeg;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * What an FFmpeg binary reported about itself: its version, the formats it can write and the
+ * command line options it knows. Probed once per binary and cached by {@link FfmpegLocator}.
+ */
+public class FfmpegCapabilities {
+
+    private final File executable;
+    private final String version;
+    private final Set<String> muxers;
+    private final Set<String> options;
+
+    FfmpegCapabilities(File executable, String version, Set<String> muxers, Set<String> options) {
+        this.executable = executable;
+        this.version = version;
+        this.muxers = Collections.unmodifiableSet(muxers);
+        this.options = Collections.unmodifiableSet(options);
+    }
+
+    public File getExecutable() {
+        return executable;
+    }
+
+    /**
+     * First line of `ffmpeg -version`, e.g. "ffmpeg version 6.1 Copyright (c) 2000-2023 ...".
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @param muxer short format name, e.g. "mp4"
+     */
+    public boolean supportsMuxer(String muxer) {
+        return muxers.contains(muxer);
+    }
+
+    /**
+     * Whether the binary lists the option in its help. Binaries whose help could not be read are
+     * assumed to support every option, so a failed probe never disables a feature.
+     *
+     * @param option option name without the leading dash, e.g. "progress"
+     */
+    public boolean supportsOption(String option) {
+        return options.isEmpty() || options.contains(option);
+    }
+
+    Set<String> getMuxers() {
+        return muxers;
+    }
+
+    Set<String> getOptions() {
+        return options;
+    }
+}
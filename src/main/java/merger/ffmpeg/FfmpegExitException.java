@@ -0,0 +1,21 @@
+package merger.ffmpeg;
+
+import java.io.IOException;
+
+/**
+ * Thrown when FFmpeg exits with a non-zero exit code. The message contains the last lines
+ * FFmpeg wrote to its error output.
+ */
+public class FfmpegExitException extends IOException {
+
+    private final int exitCode;
+
+    public FfmpegExitException(int exitCode, String errorOutput) {
+        super("FFmpeg exited with code " + exitCode + (errorOutput.isEmpty() ? "" : ": " + errorOutput));
+        this.exitCode = exitCode;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+}
@@ -1,43 +1,25 @@
 package merger.ffmpeg;
 
+import merger.util.IoThreads;
 import merger.util.ProcessingLogger;
 
 import javax.swing.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
 
 public class FfmpegInstaller {
 
     public static boolean isFfmpegInstalled() {
-        return getFfmpegVersion() != null;
+        return FfmpegLocator.getDefault().getCapabilities() != null;
     }
 
+    /**
+     * Version line of the FFmpeg binary, or null if FFmpeg could not be found. The binary is
+     * probed once in the background and its answer cached, so this does not start FFmpeg again.
+     */
     public static String getFfmpegVersion() {
-        try {
-            Process process = new ProcessBuilder("ffmpeg", "-version")
-                    .redirectErrorStream(true)
-                    .start();
-
-            // Only get the first line of the output
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String firstLine = reader.readLine();
-            reader.close();
-
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                // if the process failed, the ffmpeg command could probably not be found
-                ProcessingLogger.warn("Failed to get ffmpeg version. Version check returned first line: ");
-                ProcessingLogger.warn(firstLine);
-                return null;
-            }
-
-            // if the process succeeded, the first line contains the version information of ffmpeg
-            return firstLine;
-        } catch (Exception e) {
-            ProcessingLogger.error("Failed to get ffmpeg version due to exception: " + e.getMessage());
-            return null;
-        }
+        FfmpegCapabilities capabilities = FfmpegLocator.getDefault().getCapabilities();
+        return capabilities != null ? capabilities.getVersion() : null;
     }
 
     public static void installFfmpegUsingWinget() {
@@ -70,17 +52,27 @@ public class FfmpegInstaller {
         System.exit(0);
     }
 
-    public static void checkOrInstallFfmpeg() {
-        if (!isFfmpegInstalled()) {
+    /**
+     * Check FFmpeg once the background probe is done, without blocking the caller. If FFmpeg is
+     * missing the user is offered to install it; the dialogs are shown on the event dispatch thread.
+     *
+     * @return future completed on the event dispatch thread, with true if FFmpeg can be used
+     */
+    public static CompletableFuture<Boolean> checkOrInstallFfmpegAsync() {
+        return FfmpegLocator.getDefault().probeAsync().thenApplyAsync(capabilities -> {
+            if (capabilities != null) {
+                ProcessingLogger.info("Using " + capabilities.getVersion());
+                return true;
+            }
             int choice = showFfmpegInstallationPromptDialog();
             if (choice == JOptionPane.YES_OPTION) {
-                installFfmpegUsingWinget();
+                // Waits for winget and exits, so it must not hold up the event dispatch thread
+                IoThreads.start("FfmpegInstall", FfmpegInstaller::installFfmpegUsingWinget);
             } else {
                 showFfmpegInstallRejectedDialog();
             }
-        } else {
-            ProcessingLogger.info("Using " + getFfmpegVersion());
-        }
+            return false;
+        }, SwingUtilities::invokeLater);
     }
 
     private static void showFFmpegInstallationInitFailedDialog() {
@@ -129,6 +121,6 @@ public class FfmpegInstaller {
                 "FFmpeg Required",
                 JOptionPane.WARNING_MESSAGE
         );
-        throw new IllegalStateException("FFmpeg is not installed.");
+        ProcessingLogger.error("FFmpeg is not installed.");
     }
 }
\ No newline at end of file
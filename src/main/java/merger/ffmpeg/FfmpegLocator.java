@@ -0,0 +1,293 @@
+package merger.ffmpeg;
+
+import merger.util.AppDataDirectory;
+import merger.util.IoThreads;
+import merger.util.ProcessingLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Finds the FFmpeg binary and probes what it supports, once per application run.
+ * <p>
+ * The binary is either given explicitly (the `merger.ffmpeg` system property or
+ * {@link #useExecutable(File)}) or looked up on the PATH. Version, muxers and options are read
+ * by starting the binary on a background thread when the application starts; the result is
+ * cached in the application data directory together with the path, size and modification
+ * time of the binary, so later starts do not spawn FFmpeg at all until the binary changes.
+ * Starting a run only reads the result that is already there.
+ */
+public class FfmpegLocator {
+
+    public static final String EXECUTABLE_PROPERTY = "merger.ffmpeg";
+
+    static final String CACHE_FILE_NAME = "ffmpeg-capabilities.properties";
+
+    private static FfmpegLocator defaultLocator;
+
+    private final File explicitExecutable;
+    private File executable;
+    private CompletableFuture<FfmpegCapabilities> capabilities;
+
+    FfmpegLocator(File explicitExecutable) {
+        this.explicitExecutable = explicitExecutable;
+    }
+
+    /**
+     * The locator used by the application, honouring the `merger.ffmpeg` system property.
+     */
+    public static synchronized FfmpegLocator getDefault() {
+        if (defaultLocator == null) {
+            String configured = System.getProperty(EXECUTABLE_PROPERTY);
+            defaultLocator = new FfmpegLocator(configured != null && !configured.isEmpty() ? new File(configured) : null);
+        }
+        return defaultLocator;
+    }
+
+    /**
+     * Use the given binary instead of looking up `ffmpeg` on the PATH.
+     */
+    public static synchronized void useExecutable(File executable) {
+        defaultLocator = new FfmpegLocator(executable);
+    }
+
+    /**
+     * Path used to start FFmpeg. Resolving it only looks at the file system.
+     * Falls back to plain `ffmpeg` if no binary was found, so the error is reported on start.
+     */
+    public String getExecutable() {
+        File resolved = resolveExecutable();
+        return resolved != null ? resolved.getPath() : "ffmpeg";
+    }
+
+    private synchronized File resolveExecutable() {
+        if (executable == null) {
+            executable = explicitExecutable != null ? explicitExecutable.getAbsoluteFile() : findOnPath();
+        }
+        return executable;
+    }
+
+    /**
+     * Start probing the binary in the background unless it is already running or done.
+     *
+     * @return future completed with the capabilities, or with null if no working FFmpeg was found
+     */
+    public synchronized CompletableFuture<FfmpegCapabilities> probeAsync() {
+        if (capabilities == null) {
+            capabilities = CompletableFuture.supplyAsync(this::loadOrProbe, runnable -> IoThreads.start("FfmpegProbe", runnable));
+        }
+        return capabilities;
+    }
+
+    /**
+     * Wait for the probe started by {@link #probeAsync()} (starting it if needed).
+     *
+     * @return the capabilities, or null if no working FFmpeg was found
+     */
+    public FfmpegCapabilities getCapabilities() {
+        return probeAsync().join();
+    }
+
+    /**
+     * The capabilities if probing has already finished, otherwise null. Never blocks.
+     */
+    public synchronized FfmpegCapabilities getCapabilitiesIfReady() {
+        return capabilities != null ? capabilities.getNow(null) : null;
+    }
+
+    private FfmpegCapabilities loadOrProbe() {
+        File executable = resolveExecutable();
+        if (executable == null) {
+            ProcessingLogger.warn("FFmpeg was not found on the PATH");
+            return null;
+        }
+        if (!executable.isFile()) {
+            ProcessingLogger.warn("FFmpeg binary does not exist: " + executable);
+            return null;
+        }
+
+        String key = cacheKey(executable);
+        FfmpegCapabilities cached = readCache(key);
+        if (cached != null) {
+            ProcessingLogger.debug("Using cached capabilities of " + executable);
+            return cached;
+        }
+
+        FfmpegCapabilities probed = probe(executable);
+        if (probed != null) {
+            writeCache(key, probed);
+        }
+        return probed;
+    }
+
+    private static FfmpegCapabilities probe(File executable) {
+        try {
+            List<String> versionOutput = run(executable, "-version");
+            if (versionOutput == null || versionOutput.isEmpty()) {
+                ProcessingLogger.warn("Failed to get ffmpeg version from " + executable);
+                return null;
+            }
+            // Muxers and options only refine the decisions, a binary without them still works
+            List<String> muxersOutput = run(executable, "-hide_banner", "-muxers");
+            List<String> helpOutput = run(executable, "-hide_banner", "-h", "long");
+            return new FfmpegCapabilities(executable, versionOutput.get(0),
+                    parseMuxers(muxersOutput != null ? muxersOutput : Collections.emptyList()),
+                    parseOptions(helpOutput != null ? helpOutput : Collections.emptyList()));
+        } catch (IOException e) {
+            ProcessingLogger.error("Failed to get ffmpeg version due to exception: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Run the binary and return its output lines, or null if it failed.
+     */
+    private static List<String> run(File executable, String... arguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(arguments.length + 1);
+        command.add(executable.getPath());
+        command.addAll(Arrays.asList(arguments));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            ProcessingLogger.debug("ffmpeg " + String.join(" ", arguments) + " exited with code " + exitCode
+                    + (lines.isEmpty() ? "" : ": " + lines.get(0)));
+            return null;
+        }
+        return lines;
+    }
+
+    /**
+     * Parse the list printed by `ffmpeg -muxers`: a header, a `--` line and then one line per
+     * format with its flags, comma separated names and a description, e.g. "  E mp4   MP4 (MPEG-4 Part 14)".
+     */
+    static Set<String> parseMuxers(List<String> lines) {
+        Set<String> muxers = new LinkedHashSet<>();
+        boolean inList = false;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (!inList) {
+                inList = trimmed.equals("--");
+                continue;
+            }
+            String[] columns = trimmed.split("\\s+", 3);
+            if (columns.length >= 2 && columns[0].contains("E")) {
+                muxers.addAll(Arrays.asList(columns[1].split(",")));
+            }
+        }
+        return muxers;
+    }
+
+    /**
+     * Collect the option names from `ffmpeg -h long`, where every option line starts with the dash.
+     */
+    static Set<String> parseOptions(List<String> lines) {
+        Set<String> options = new LinkedHashSet<>();
+        for (String line : lines) {
+            if (line.startsWith("-") && line.length() > 1) {
+                int end = 1;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+                options.add(line.substring(1, end));
+            }
+        }
+        return options;
+    }
+
+    private static File findOnPath() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+        String[] names = windows ? new String[]{"ffmpeg.exe", "ffmpeg.bat", "ffmpeg.cmd"} : new String[]{"ffmpeg"};
+        for (String directory : path.split(File.pathSeparator)) {
+            if (directory.isEmpty()) {
+                continue;
+            }
+            for (String name : names) {
+                File candidate = new File(directory.replace("\"", ""), name);
+                if (candidate.isFile() && candidate.canExecute()) {
+                    return candidate.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    // A binary is probed again whenever it is replaced, e.g. by an update
+    private static String cacheKey(File executable) {
+        return executable.getAbsolutePath() + "|" + executable.length() + "|" + executable.lastModified();
+    }
+
+    private static FfmpegCapabilities readCache(String key) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(AppDataDirectory.resolve(CACHE_FILE_NAME))) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to read the FFmpeg capability cache: " + e.getMessage());
+            return null;
+        }
+        if (!key.equals(properties.getProperty("key")) || properties.getProperty("version") == null) {
+            return null;
+        }
+        return new FfmpegCapabilities(new File(properties.getProperty("executable")), properties.getProperty("version"),
+                splitList(properties.getProperty("muxers")), splitList(properties.getProperty("options")));
+    }
+
+    private static void writeCache(String key, FfmpegCapabilities capabilities) {
+        Properties properties = new Properties();
+        properties.setProperty("key", key);
+        properties.setProperty("executable", capabilities.getExecutable().getPath());
+        properties.setProperty("version", capabilities.getVersion());
+        properties.setProperty("muxers", String.join(",", capabilities.getMuxers()));
+        properties.setProperty("options", String.join(",", capabilities.getOptions()));
+        try {
+            Path cacheFile = AppDataDirectory.resolve(CACHE_FILE_NAME);
+            try (OutputStream out = Files.newOutputStream(cacheFile)) {
+                properties.store(out, "Capabilities of the FFmpeg binary, probed again when the binary changes");
+            }
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to write the FFmpeg capability cache: " + e.getMessage());
+        }
+    }
+
+    private static Set<String> splitList(String value) {
+        Set<String> values = new LinkedHashSet<>();
+        if (value != null && !value.isEmpty()) {
+            values.addAll(Arrays.asList(value.split(",")));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,188 @@
+package merger.ffmpeg;
+
+import merger.util.IoThreads;
+import merger.util.PauseGate;
+import merger.util.ProcessingLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running FFmpeg invocation whose progress is parsed while it runs.
+ * <p>
+ * `-progress pipe:1 -nostats` is added to the command, so standard output only carries the
+ * machine readable progress blocks; they are parsed on a background reader thread. The error
+ * output is drained on a second thread, forwarded to the debug log and its last lines are kept
+ * for the error message if FFmpeg fails. Neither pipe can fill up and block FFmpeg.
+ * <p>
+ * While processing is paused the process is suspended with SIGSTOP and continued with SIGCONT.
+ * Windows has no such signal, there the running FFmpeg job completes and the pause applies afterwards.
+ */
+public class FfmpegProcess {
+
+    // Number of error output lines included in the exception of a failed run
+    private static final int ERROR_OUTPUT_LINES = 5;
+
+    // How long to wait for the reader threads after FFmpeg exited
+    private static final long READER_JOIN_TIMEOUT_MS = 2000;
+
+    // How often a running process is checked for a pause request
+    private static final long PAUSE_CHECK_INTERVAL_MS = 100;
+
+    private static final boolean SIGNALS_SUPPORTED = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private final Process process;
+    private final Thread progressReader;
+    private final Thread errorReader;
+    private final Deque<String> lastErrorLines = new ArrayDeque<>();
+
+    private FfmpegProcess(Process process, String name, FfmpegProgressParser.Listener listener) {
+        this.process = process;
+        FfmpegProgressParser parser = new FfmpegProgressParser(listener);
+
+        this.progressReader = IoThreads.start("FfmpegProgressReader-" + name, () -> {
+            try {
+                parser.readFrom(process.getInputStream());
+            } catch (IOException e) {
+                // The stream is closed when the process is destroyed
+            }
+        });
+        this.errorReader = IoThreads.start("FfmpegErrorReader-" + name, this::readErrorOutput);
+    }
+
+    /**
+     * Start the FFmpeg binary found by {@link FfmpegLocator} with the given arguments plus the progress options.
+     *
+     * @param name     short name used for the reader threads, e.g. the replay name
+     * @param listener receives progress updates on the reader thread
+     */
+    public static FfmpegProcess start(List<String> arguments, String name, FfmpegProgressParser.Listener listener) throws IOException {
+        FfmpegLocator locator = FfmpegLocator.getDefault();
+        List<String> command = new ArrayList<>(arguments.size() + 6);
+        command.add(locator.getExecutable());
+        command.add("-hide_banner");
+        // Very old builds without -progress still merge, only without progress updates
+        FfmpegCapabilities capabilities = locator.getCapabilitiesIfReady();
+        if (capabilities == null || capabilities.supportsOption("progress")) {
+            command.add("-nostats");
+            command.add("-progress");
+            command.add("pipe:1");
+        }
+        command.addAll(arguments);
+
+        Process process = new ProcessBuilder(command).start();
+        process.getOutputStream().close(); // FFmpeg is started with -nostdin, nothing is ever written
+        return new FfmpegProcess(process, name, listener);
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    /**
+     * Wait until FFmpeg exits and all output has been read.
+     *
+     * @throws FfmpegExitException if FFmpeg exited with a non-zero exit code
+     */
+    public void waitForSuccess() throws InterruptedException, FfmpegExitException {
+        int exitCode = process.waitFor();
+        progressReader.join(READER_JOIN_TIMEOUT_MS);
+        errorReader.join(READER_JOIN_TIMEOUT_MS);
+
+        if (exitCode != 0) {
+            throw new FfmpegExitException(exitCode, getLastErrorOutput());
+        }
+    }
+
+    /**
+     * Wait until FFmpeg exits like {@link #waitForSuccess()}, suspending the process while the gate is paused.
+     */
+    public void waitForSuccess(PauseGate pauseGate) throws InterruptedException, FfmpegExitException {
+        while (!process.waitFor(PAUSE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            if (pauseGate.isPauseRequested() && signal("STOP")) {
+                try {
+                    pauseGate.awaitResume();
+                } finally {
+                    // Also on cancel: a stopped process would not react to the termination signal
+                    signal("CONT");
+                }
+            }
+        }
+        waitForSuccess();
+    }
+
+    public void destroy() {
+        process.destroy();
+    }
+
+    /**
+     * Send a signal with `kill`, e.g. STOP or CONT.
+     * @return false if the process could not be signalled, e.g. on Windows
+     */
+    private boolean signal(String signal) {
+        long pid = getPid();
+        if (!SIGNALS_SUPPORTED || pid < 0 || !process.isAlive()) {
+            return false;
+        }
+        try {
+            Process kill = new ProcessBuilder("kill", "-" + signal, Long.toString(pid)).start();
+            kill.getOutputStream().close();
+            return kill.waitFor(PAUSE_CHECK_INTERVAL_MS * 10, TimeUnit.MILLISECONDS) && kill.exitValue() == 0;
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to send SIG" + signal + " to FFmpeg: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Process id via Process.pid() on Java 9+ and the private field of the Unix process class on Java 8.
+     */
+    private long getPid() {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Field pid = process.getClass().getDeclaredField("pid");
+                pid.setAccessible(true);
+                return pid.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException fieldError) {
+                return -1;
+            }
+        }
+    }
+
+    private void readErrorOutput() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ProcessingLogger.debug("[ffmpeg] " + line);
+                synchronized (lastErrorLines) {
+                    if (lastErrorLines.size() == ERROR_OUTPUT_LINES) {
+                        lastErrorLines.removeFirst();
+                    }
+                    lastErrorLines.addLast(line);
+                }
+            }
+        } catch (IOException e) {
+            // The stream is closed when the process is destroyed
+        }
+    }
+
+    private String getLastErrorOutput() {
+        synchronized (lastErrorLines) {
+            return String.join(" | ", lastErrorLines);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package merger.ffmpeg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the output of `ffmpeg -progress pipe:1`.
+ * <p>
+ * FFmpeg writes blocks of `key=value` lines, each block terminated by `progress=continue`
+ * or, for the last one, `progress=end`. Only the values needed for progress reporting are
+ * kept; the listener is called once per completed block.
+ */
+public class FfmpegProgressParser {
+
+    /**
+     * Receives one update per progress block.
+     */
+    public interface Listener {
+
+        /**
+         * @param totalSize     bytes written to the output so far
+         * @param outTimeMicros media time written so far, -1 if unknown
+         * @param speed         speed relative to real time, NaN if unknown
+         * @param ended         true for the final block
+         */
+        void progressUpdated(long totalSize, long outTimeMicros, double speed, boolean ended);
+    }
+
+    private final Listener listener;
+
+    private long totalSize = 0;
+    private long outTimeMicros = -1;
+    private double speed = Double.NaN;
+    private boolean ended = false;
+
+    public FfmpegProgressParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Parse until the stream is closed, i.e. until FFmpeg exits.
+     */
+    public void readFrom(InputStream progressOutput) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(progressOutput, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parseLine(line);
+            }
+        }
+    }
+
+    public void parseLine(String line) {
+        int separator = line.indexOf('=');
+        if (separator <= 0) {
+            return;
+        }
+        String key = line.substring(0, separator).trim();
+        String value = line.substring(separator + 1).trim();
+
+        switch (key) {
+            case "total_size":
+                totalSize = parseLong(value, totalSize);
+                break;
+            case "out_time_us":
+            case "out_time_ms": // Despite the name, also in microseconds
+                outTimeMicros = parseLong(value, outTimeMicros);
+                break;
+            case "speed":
+                speed = parseSpeed(value);
+                break;
+            case "progress":
+                ended = "end".equals(value);
+                listener.progressUpdated(totalSize, outTimeMicros, speed, ended);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // FFmpeg writes N/A until the first value is known
+            return fallback;
+        }
+    }
+
+    private static double parseSpeed(String value) {
+        String number = value.endsWith("x") ? value.substring(0, value.length() - 1) : value;
+        try {
+            return Double.parseDouble(number.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
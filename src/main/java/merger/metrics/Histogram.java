@@ -0,0 +1,111 @@
+package merger.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets.
+ * <p>
+ * The bucket bounds cover everything from a metadata operation (milliseconds) to merging a
+ * multi-gigabyte replay over a slow network share (minutes). Values are recorded in
+ * nanoseconds and exported in seconds.
+ */
+public final class Histogram {
+
+    // Upper bounds of the buckets in seconds; a final +Inf bucket is implicit
+    static final double[] BUCKET_BOUNDS_SECONDS = {
+            0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800
+    };
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final String name;
+    private final String labelName;
+    private final String labelValue;
+    private final String help;
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_SECONDS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Histogram(String name, String labelName, String labelValue, String help) {
+        this.name = name;
+        this.labelName = labelName;
+        this.labelValue = labelValue;
+        this.help = help;
+    }
+
+    public void recordNanos(long nanos) {
+        long value = Math.max(0, nanos);
+        bucketCounts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sumNanos.add(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Record the time elapsed since `startNanos`, a value of System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    public double getMaxSeconds() {
+        return maxNanos.get() / 1e9;
+    }
+
+    /**
+     * Number of values per bucket (not cumulative), the last element is the +Inf bucket.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[bucketCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+        return counts;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Name of the single label distinguishing histograms with the same name, null if none.
+     */
+    public String getLabelName() {
+        return labelName;
+    }
+
+    public String getLabelValue() {
+        return labelValue;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    private static int bucketIndex(long nanos) {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            if (nanos <= BUCKET_BOUNDS_NANOS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_NANOS.length;
+    }
+}
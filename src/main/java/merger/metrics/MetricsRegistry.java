@@ -0,0 +1,162 @@
+package merger.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Set of counters and histograms that can be exported as a JSON snapshot or in the
+ * Prometheus text exposition format.
+ * <p>
+ * Metrics are created on first use and are safe to update from any thread without locking.
+ * Exports are sorted by name so snapshots of different runs can be diffed line by line.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, key -> new Counter(name, help));
+    }
+
+    /**
+     * Histogram `name` with a single label, e.g. `stage="copy"`.
+     */
+    public Histogram histogram(String name, String labelName, String labelValue, String help) {
+        return histograms.computeIfAbsent(name + '{' + labelValue + '}', key -> new Histogram(name, labelName, labelValue, help));
+    }
+
+    /**
+     * JSON object with `info` (free-form string values describing the run), all counters and all histograms.
+     */
+    public String toJson(Map<String, String> info) {
+        StringBuilder json = new StringBuilder(4096).append("{\n  \"info\": {");
+        String separator = "";
+        for (Map.Entry<String, String> entry : info.entrySet()) {
+            json.append(separator).append("\n    ").append(quote(entry.getKey())).append(": ").append(quote(entry.getValue()));
+            separator = ",";
+        }
+        json.append("\n  },\n  \"counters\": {");
+
+        separator = "";
+        for (Counter counter : counters.values()) {
+            json.append(separator).append("\n    ").append(quote(counter.getName())).append(": ").append(counter.get());
+            separator = ",";
+        }
+        json.append("\n  },\n  \"histograms\": [");
+
+        separator = "";
+        for (Histogram histogram : histograms.values()) {
+            json.append(separator).append("\n    {\"name\": ").append(quote(histogram.getName()));
+            if (histogram.getLabelName() != null) {
+                json.append(", ").append(quote(histogram.getLabelName())).append(": ").append(quote(histogram.getLabelValue()));
+            }
+            json.append(", \"count\": ").append(histogram.getCount())
+                    .append(", \"sumSeconds\": ").append(formatSeconds(histogram.getSumSeconds()))
+                    .append(", \"maxSeconds\": ").append(formatSeconds(histogram.getMaxSeconds()))
+                    .append(", \"buckets\": {");
+            long[] bucketCounts = histogram.getBucketCounts();
+            for (int i = 0; i < bucketCounts.length; i++) {
+                json.append(i == 0 ? "" : ", ").append(quote(bucketBound(i))).append(": ").append(bucketCounts[i]);
+            }
+            json.append("}}");
+            separator = ",";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Prometheus text exposition format, e.g. for the node_exporter textfile collector.
+     * Histogram buckets are cumulative as Prometheus expects.
+     *
+     * @param constantLabels labels added to every sample, e.g. host and version
+     */
+    public String toPrometheusText(Map<String, String> constantLabels) {
+        StringBuilder text = new StringBuilder(4096);
+        String labels = formatLabels(constantLabels, null, null);
+
+        for (Counter counter : counters.values()) {
+            text.append("# HELP ").append(counter.getName()).append(' ').append(counter.getHelp()).append('\n');
+            text.append("# TYPE ").append(counter.getName()).append(" counter\n");
+            text.append(counter.getName()).append(labels).append(' ').append(counter.get()).append('\n');
+        }
+
+        String previousName = null;
+        for (Histogram histogram : histograms.values()) {
+            String name = histogram.getName();
+            if (!name.equals(previousName)) {
+                text.append("# HELP ").append(name).append(' ').append(histogram.getHelp()).append('\n');
+                text.append("# TYPE ").append(name).append(" histogram\n");
+                previousName = name;
+            }
+
+            long cumulativeCount = 0;
+            long[] bucketCounts = histogram.getBucketCounts();
+            for (int i = 0; i < bucketCounts.length; i++) {
+                cumulativeCount += bucketCounts[i];
+                Map<String, String> bucketLabels = new LinkedHashMap<>(constantLabels);
+                if (histogram.getLabelName() != null) {
+                    bucketLabels.put(histogram.getLabelName(), histogram.getLabelValue());
+                }
+                text.append(name).append("_bucket").append(formatLabels(bucketLabels, "le", bucketBound(i)))
+                        .append(' ').append(cumulativeCount).append('\n');
+            }
+            String histogramLabels = formatLabels(constantLabels, histogram.getLabelName(), histogram.getLabelValue());
+            text.append(name).append("_sum").append(histogramLabels).append(' ').append(formatSeconds(histogram.getSumSeconds())).append('\n');
+            text.append(name).append("_count").append(histogramLabels).append(' ').append(histogram.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String bucketBound(int index) {
+        return index < Histogram.BUCKET_BOUNDS_SECONDS.length
+                ? formatSeconds(Histogram.BUCKET_BOUNDS_SECONDS[index])
+                : "+Inf";
+    }
+
+    private static String formatSeconds(double seconds) {
+        String formatted = String.format(Locale.ROOT, "%.6f", seconds);
+        // Strip trailing zeros so bucket bounds read "0.5" instead of "0.500000"
+        formatted = formatted.replaceAll("0+$", "");
+        return formatted.endsWith(".") ? formatted.substring(0, formatted.length() - 1) : formatted;
+    }
+
+    private static String formatLabels(Map<String, String> labels, String extraName, String extraValue) {
+        if (labels.isEmpty() && extraName == null) {
+            return "";
+        }
+        StringBuilder formatted = new StringBuilder("{");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            appendLabel(formatted, label.getKey(), label.getValue());
+        }
+        if (extraName != null) {
+            appendLabel(formatted, extraName, extraValue);
+        }
+        formatted.setLength(formatted.length() - 1);
+        return formatted.append('}').toString();
+    }
+
+    private static void appendLabel(StringBuilder formatted, String name, String value) {
+        formatted.append(name).append("=\"")
+                .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append("\",");
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
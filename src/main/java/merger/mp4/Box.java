@@ -0,0 +1,196 @@
+package merger.mp4;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory representation of an ISO-BMFF box.
+ * <p>
+ * Only the container boxes on the path to the sample tables are parsed into children;
+ * every other box keeps its raw payload so it is written back byte-for-byte.
+ * This is meant for the (small) `moov` box; media data is never loaded into memory.
+ */
+public final class Box {
+
+    // Boxes whose payload consists solely of child boxes and that we need to descend into
+    private static final Set<String> CONTAINER_TYPES = new HashSet<>(Arrays.asList(
+            "moov", "trak", "mdia", "minf", "stbl", "edts"
+    ));
+
+    private static final long MAX_32_BIT_SIZE = 0xFFFFFFFFL;
+
+    private final String type;
+    private byte[] payload;
+    private final List<Box> children;
+
+    private Box(String type, byte[] payload, List<Box> children) {
+        this.type = type;
+        this.payload = payload;
+        this.children = children;
+    }
+
+    public static Box leaf(String type, byte[] payload) {
+        return new Box(type, payload, null);
+    }
+
+    public static Box container(String type) {
+        return new Box(type, null, new ArrayList<>());
+    }
+
+    static boolean isContainerType(String type) {
+        return CONTAINER_TYPES.contains(type);
+    }
+
+    /**
+     * Parse a box payload (without its header) into a box of the given type.
+     */
+    static Box parse(String type, ByteBuffer payload) throws Mp4FormatException {
+        if (!isContainerType(type)) {
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+            return leaf(type, data);
+        }
+
+        Box box = container(type);
+        while (payload.hasRemaining()) {
+            if (payload.remaining() < 8) {
+                throw new Mp4FormatException("Truncated box header inside '" + type + "'");
+            }
+            int start = payload.position();
+            long size = payload.getInt() & MAX_32_BIT_SIZE;
+            String childType = readType(payload);
+            if (size == 1) {
+                size = payload.getLong();
+            } else if (size == 0) {
+                size = payload.limit() - start;
+            }
+            int headerSize = payload.position() - start;
+            if (size < headerSize || size > payload.limit() - start) {
+                throw new Mp4FormatException("Invalid size of box '" + childType + "' inside '" + type + "'");
+            }
+
+            // Casts to Buffer keep the class file compatible with the Java 8 runtime
+            ByteBuffer childPayload = payload.slice();
+            ((Buffer) childPayload).limit((int) size - headerSize);
+            box.children.add(parse(childType, childPayload));
+            ((Buffer) payload).position(start + (int) size);
+        }
+        return box;
+    }
+
+    static String readType(ByteBuffer buffer) {
+        byte[] type = new byte[4];
+        buffer.get(type);
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isContainer() {
+        return children != null;
+    }
+
+    public List<Box> getChildren() {
+        return children == null ? Collections.<Box>emptyList() : children;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public void setPayload(byte[] payload) {
+        if (isContainer()) {
+            throw new IllegalStateException("Container box '" + type + "' has no raw payload");
+        }
+        this.payload = payload;
+    }
+
+    public Box findChild(String childType) {
+        for (Box child : getChildren()) {
+            if (child.type.equals(childType)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public List<Box> findChildren(String childType) {
+        List<Box> found = new ArrayList<>();
+        for (Box child : getChildren()) {
+            if (child.type.equals(childType)) {
+                found.add(child);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Follow a path of child box types, e.g. findPath("mdia", "minf", "stbl").
+     */
+    public Box findPath(String... path) {
+        Box current = this;
+        for (String childType : path) {
+            current = current.findChild(childType);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    public long getSize() {
+        long contentSize = 0;
+        if (isContainer()) {
+            for (Box child : children) {
+                contentSize += child.getSize();
+            }
+        } else {
+            contentSize = payload.length;
+        }
+        return contentSize + 8 > MAX_32_BIT_SIZE ? contentSize + 16 : contentSize + 8;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        long size = getSize();
+        if (size > MAX_32_BIT_SIZE) {
+            buffer.putInt(1);
+            buffer.put(type.getBytes(StandardCharsets.ISO_8859_1));
+            buffer.putLong(size);
+        } else {
+            buffer.putInt((int) size);
+            buffer.put(type.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        if (isContainer()) {
+            for (Box child : children) {
+                child.writeTo(buffer);
+            }
+        } else {
+            buffer.put(payload);
+        }
+    }
+
+    public byte[] toBytes() {
+        long size = getSize();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Box '" + type + "' is too large to be held in memory");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + getSize() + "]";
+    }
+}
@@ -0,0 +1,188 @@
+package merger.mp4;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Accessors for the few full-box fields the remuxer needs to read or rewrite.
+ * Offsets follow ISO/IEC 14496-12 for version 0 and version 1 boxes.
+ */
+final class BoxFields {
+
+    private BoxFields() {}
+
+    static int version(Box box) {
+        return box.getPayload()[0] & 0xFF;
+    }
+
+    // --- mvhd ---
+
+    static long movieTimescale(Box mvhd) {
+        return readUInt32(mvhd.getPayload(), version(mvhd) == 1 ? 20 : 12);
+    }
+
+    static long movieDuration(Box mvhd) {
+        return version(mvhd) == 1 ? readInt64(mvhd.getPayload(), 24) : readUInt32(mvhd.getPayload(), 16);
+    }
+
+    static void setMovieDuration(Box mvhd, long duration) throws Mp4FormatException {
+        if (version(mvhd) == 1) {
+            writeInt64(mvhd.getPayload(), 24, duration);
+        } else {
+            writeUInt32(mvhd.getPayload(), 16, duration, "mvhd duration");
+        }
+    }
+
+    static long nextTrackId(Box mvhd) {
+        byte[] payload = mvhd.getPayload();
+        return readUInt32(payload, payload.length - 4);
+    }
+
+    static void setNextTrackId(Box mvhd, long nextTrackId) throws Mp4FormatException {
+        byte[] payload = mvhd.getPayload();
+        writeUInt32(payload, payload.length - 4, nextTrackId, "mvhd next_track_ID");
+    }
+
+    // --- tkhd ---
+
+    static long trackId(Box tkhd) {
+        return readUInt32(tkhd.getPayload(), version(tkhd) == 1 ? 20 : 12);
+    }
+
+    static void setTrackId(Box tkhd, long trackId) throws Mp4FormatException {
+        writeUInt32(tkhd.getPayload(), version(tkhd) == 1 ? 20 : 12, trackId, "tkhd track_ID");
+    }
+
+    static long trackDuration(Box tkhd) {
+        return version(tkhd) == 1 ? readInt64(tkhd.getPayload(), 28) : readUInt32(tkhd.getPayload(), 20);
+    }
+
+    static void setTrackDuration(Box tkhd, long duration) throws Mp4FormatException {
+        if (version(tkhd) == 1) {
+            writeInt64(tkhd.getPayload(), 28, duration);
+        } else {
+            writeUInt32(tkhd.getPayload(), 20, duration, "tkhd duration");
+        }
+    }
+
+    // --- mdhd ---
+
+    static long mediaTimescale(Box mdhd) {
+        return readUInt32(mdhd.getPayload(), version(mdhd) == 1 ? 20 : 12);
+    }
+
+    static long mediaDuration(Box mdhd) {
+        return version(mdhd) == 1 ? readInt64(mdhd.getPayload(), 24) : readUInt32(mdhd.getPayload(), 16);
+    }
+
+    // --- hdlr ---
+
+    static String handlerType(Box hdlr) {
+        byte[] payload = hdlr.getPayload();
+        return new String(payload, 8, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    // --- elst ---
+
+    /**
+     * Rescale the segment durations of an edit list, which are expressed in the movie timescale.
+     */
+    static void rescaleEditListDurations(Box elst, long fromTimescale, long toTimescale) throws Mp4FormatException {
+        byte[] payload = elst.getPayload();
+        boolean version1 = version(elst) == 1;
+        long entryCount = readUInt32(payload, 4);
+        int entrySize = version1 ? 20 : 12;
+        if (8 + entryCount * entrySize > payload.length) {
+            throw new Mp4FormatException("Truncated edit list");
+        }
+        for (int entry = 0; entry < entryCount; entry++) {
+            int offset = 8 + entry * entrySize;
+            if (version1) {
+                writeInt64(payload, offset, rescale(readInt64(payload, offset), fromTimescale, toTimescale));
+            } else {
+                writeUInt32(payload, offset, rescale(readUInt32(payload, offset), fromTimescale, toTimescale), "elst segment_duration");
+            }
+        }
+    }
+
+    // --- stco / co64 ---
+
+    static long[] chunkOffsets(Box chunkOffsetBox) throws Mp4FormatException {
+        byte[] payload = chunkOffsetBox.getPayload();
+        boolean co64 = "co64".equals(chunkOffsetBox.getType());
+        long entryCount = readUInt32(payload, 4);
+        int entrySize = co64 ? 8 : 4;
+        if (8 + entryCount * entrySize > payload.length) {
+            throw new Mp4FormatException("Truncated chunk offset table");
+        }
+        long[] offsets = new long[(int) entryCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            int offset = 8 + entry * entrySize;
+            offsets[entry] = co64 ? readInt64(payload, offset) : readUInt32(payload, offset);
+        }
+        return offsets;
+    }
+
+    /**
+     * Create a new chunk offset box. A 32-bit `stco` is used whenever all offsets fit,
+     * otherwise a 64-bit `co64`.
+     */
+    static Box chunkOffsetBox(long[] offsets) {
+        boolean co64 = false;
+        for (long offset : offsets) {
+            if (offset > 0xFFFFFFFFL) {
+                co64 = true;
+                break;
+            }
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(8 + offsets.length * (co64 ? 8 : 4));
+        payload.putInt(0); // version and flags
+        payload.putInt(offsets.length);
+        for (long offset : offsets) {
+            if (co64) {
+                payload.putLong(offset);
+            } else {
+                payload.putInt((int) offset);
+            }
+        }
+        return Box.leaf(co64 ? "co64" : "stco", payload.array());
+    }
+
+    // --- helpers ---
+
+    static long rescale(long value, long fromTimescale, long toTimescale) {
+        if (fromTimescale == toTimescale || fromTimescale == 0) {
+            return value;
+        }
+        // Split the multiplication to avoid overflowing for long durations
+        return value / fromTimescale * toTimescale + value % fromTimescale * toTimescale / fromTimescale;
+    }
+
+    static long readUInt32(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24)
+                | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8)
+                | (data[offset + 3] & 0xFFL);
+    }
+
+    static long readInt64(byte[] data, int offset) {
+        return (readUInt32(data, offset) << 32) | readUInt32(data, offset + 4);
+    }
+
+    static void writeUInt32(byte[] data, int offset, long value, String field) throws Mp4FormatException {
+        if (value < 0 || value > 0xFFFFFFFFL) {
+            throw new Mp4FormatException("Value " + value + " does not fit into 32-bit field " + field);
+        }
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    static void writeInt64(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package merger.mp4;
+
+/**
+ * Position and size of a single ISO-BMFF box inside a file.
+ */
+public final class BoxHeader {
+
+    private final String type;
+    private final long offset;
+    private final long size;
+    private final int headerSize;
+    private final boolean extendsToEndOfFile;
+
+    BoxHeader(String type, long offset, long size, int headerSize, boolean extendsToEndOfFile) {
+        this.type = type;
+        this.offset = offset;
+        this.size = size;
+        this.headerSize = headerSize;
+        this.extendsToEndOfFile = extendsToEndOfFile;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    public long getPayloadOffset() {
+        return offset + headerSize;
+    }
+
+    public long getPayloadSize() {
+        return size - headerSize;
+    }
+
+    public long getEnd() {
+        return offset + size;
+    }
+
+    /**
+     * True if the box was written with a size of zero, i.e. it implicitly ends at the end of the file.
+     */
+    public boolean extendsToEndOfFile() {
+        return extendsToEndOfFile;
+    }
+
+    @Override
+    public String toString() {
+        return type + "@" + offset + "+" + size;
+    }
+}
@@ -0,0 +1,49 @@
+package merger.mp4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps file offsets inside the `mdat` payloads of a source file to their new position
+ * in the output file. Used to rewrite chunk offset tables after the media data moved.
+ */
+final class MediaDataMapping {
+
+    private final List<long[]> ranges = new ArrayList<>(); // {sourceStart, length, targetStart}
+
+    void add(long sourceStart, long length, long targetStart) {
+        ranges.add(new long[]{sourceStart, length, targetStart});
+    }
+
+    long map(long sourceOffset) throws Mp4FormatException {
+        for (long[] range : ranges) {
+            if (sourceOffset >= range[0] && sourceOffset < range[0] + range[1]) {
+                return range[2] + (sourceOffset - range[0]);
+            }
+        }
+        throw new Mp4FormatException("Chunk offset " + sourceOffset + " does not point into any media data box");
+    }
+
+    /**
+     * Rewrite the chunk offset table of every track in the given list.
+     */
+    void remapChunkOffsets(List<Box> tracks) throws Mp4FormatException {
+        for (Box trak : tracks) {
+            Box stbl = trak.findPath("mdia", "minf", "stbl");
+            if (stbl == null) {
+                throw new Mp4FormatException("Track without sample table");
+            }
+            List<Box> stblChildren = stbl.getChildren();
+            for (int i = 0; i < stblChildren.size(); i++) {
+                Box child = stblChildren.get(i);
+                if ("stco".equals(child.getType()) || "co64".equals(child.getType())) {
+                    long[] offsets = BoxFields.chunkOffsets(child);
+                    for (int chunk = 0; chunk < offsets.length; chunk++) {
+                        offsets[chunk] = map(offsets[chunk]);
+                    }
+                    stblChildren.set(i, BoxFields.chunkOffsetBox(offsets));
+                }
+            }
+        }
+    }
+}
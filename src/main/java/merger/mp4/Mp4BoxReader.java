@@ -0,0 +1,120 @@
+package merger.mp4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads ISO-BMFF box headers and boxes from a file using positional FileChannel reads.
+ * Nothing but the requested headers and box payloads is read from disk.
+ */
+public final class Mp4BoxReader {
+
+    // Refuse to load header boxes (moov) larger than this into memory
+    private static final long MAX_IN_MEMORY_BOX_SIZE = 256L * 1024 * 1024;
+
+    private Mp4BoxReader() {}
+
+    /**
+     * List all top-level boxes of the file.
+     */
+    public static List<BoxHeader> readTopLevelBoxes(FileChannel channel) throws IOException {
+        List<BoxHeader> boxes = new ArrayList<>();
+        long fileSize = channel.size();
+        long offset = 0;
+        while (offset < fileSize) {
+            BoxHeader header = readHeader(channel, offset, fileSize);
+            boxes.add(header);
+            offset = header.getEnd();
+        }
+        return boxes;
+    }
+
+    /**
+     * List the headers of the boxes directly inside a container box without loading its payload.
+     */
+    public static List<BoxHeader> readChildHeaders(FileChannel channel, BoxHeader parent) throws IOException {
+        List<BoxHeader> children = new ArrayList<>();
+        long offset = parent.getPayloadOffset();
+        while (offset < parent.getEnd()) {
+            BoxHeader header = readHeader(channel, offset, parent.getEnd());
+            children.add(header);
+            offset = header.getEnd();
+        }
+        return children;
+    }
+
+    /**
+     * Read a single box header at the given offset. A box may not extend past `limit`.
+     */
+    public static BoxHeader readHeader(FileChannel channel, long offset, long limit) throws IOException {
+        if (limit - offset < 8) {
+            throw new Mp4FormatException("Truncated box header at offset " + offset);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ((Buffer) buffer).limit((int) Math.min(16, limit - offset));
+        readFully(channel, buffer, offset);
+        ((Buffer) buffer).flip();
+
+        long size = buffer.getInt() & 0xFFFFFFFFL;
+        String type = Box.readType(buffer);
+        int headerSize = 8;
+        boolean extendsToEndOfFile = false;
+        if (size == 1) {
+            if (buffer.remaining() < 8) {
+                throw new Mp4FormatException("Truncated 64-bit size of box '" + type + "' at offset " + offset);
+            }
+            size = buffer.getLong();
+            headerSize = 16;
+        } else if (size == 0) {
+            // A size of zero means the box extends to the end of the file
+            size = limit - offset;
+            extendsToEndOfFile = true;
+        }
+
+        if (size < headerSize || offset + size > limit) {
+            throw new Mp4FormatException("Invalid size " + size + " of box '" + type + "' at offset " + offset);
+        }
+        return new BoxHeader(type, offset, size, headerSize, extendsToEndOfFile);
+    }
+
+    /**
+     * Load a box and its relevant children into memory.
+     */
+    public static Box readBox(FileChannel channel, BoxHeader header) throws IOException {
+        if (header.getPayloadSize() > MAX_IN_MEMORY_BOX_SIZE) {
+            throw new Mp4FormatException("Box '" + header.getType() + "' is too large to be loaded: " + header.getSize() + " bytes");
+        }
+        ByteBuffer payload = ByteBuffer.allocate((int) header.getPayloadSize());
+        readFully(channel, payload, header.getPayloadOffset());
+        ((Buffer) payload).flip();
+        return Box.parse(header.getType(), payload);
+    }
+
+    /**
+     * Return the first top-level box of the given type, or null if there is none.
+     */
+    public static BoxHeader findFirst(List<BoxHeader> boxes, String type) {
+        for (BoxHeader box : boxes) {
+            if (box.getType().equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at offset " + readPosition);
+            }
+            readPosition += read;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package merger.mp4;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an MP4/M4A file is malformed or uses a structure the in-process remuxer
+ * does not support (e.g. fragmented files). Callers can fall back to FFmpeg in that case.
+ */
+public class Mp4FormatException extends IOException {
+
+    public Mp4FormatException(String message) {
+        super(message);
+    }
+}
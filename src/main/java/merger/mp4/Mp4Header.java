@@ -0,0 +1,151 @@
+package merger.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Track layout and duration of an MP4 file, read from its headers only.
+ * <p>
+ * {@link #probe(File)} walks the top-level boxes and the `trak` boxes inside `moov` with a few
+ * positional reads and loads nothing but the small `mvhd`, `mdhd` and `hdlr` boxes; the sample
+ * tables and the media data are never touched. This makes it cheap enough to check every
+ * replay before a merge writes gigabytes.
+ */
+public final class Mp4Header {
+
+    public static final long UNKNOWN_DURATION = -1;
+
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private final int videoTrackCount;
+    private final int audioTrackCount;
+    private final long durationMicros;
+    private final long videoDurationMicros;
+
+    private Mp4Header(int videoTrackCount, int audioTrackCount, long durationMicros, long videoDurationMicros) {
+        this.videoTrackCount = videoTrackCount;
+        this.audioTrackCount = audioTrackCount;
+        this.durationMicros = durationMicros;
+        this.videoDurationMicros = videoDurationMicros;
+    }
+
+    /**
+     * Read the headers of a file.
+     *
+     * @throws Mp4FormatException if the file is truncated or has no `moov` box, e.g. because it is still being written
+     */
+    public static Mp4Header probe(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<BoxHeader> boxes;
+            try {
+                boxes = Mp4BoxReader.readTopLevelBoxes(channel);
+            } catch (Mp4FormatException e) {
+                // Typically the last box claims more bytes than the file has
+                throw new Mp4FormatException(file.getName() + " is truncated or damaged: " + e.getMessage());
+            }
+            BoxHeader moov = Mp4BoxReader.findFirst(boxes, "moov");
+            if (moov == null) {
+                throw new Mp4FormatException("No 'moov' box found in " + file.getName() + ", the file is incomplete");
+            }
+            return read(channel, moov);
+        }
+    }
+
+    /**
+     * Read the headers below the given `moov` box, e.g. a `moov` that was just appended after
+     * the original one.
+     */
+    public static Mp4Header read(FileChannel channel, BoxHeader moov) throws IOException {
+        int videoTracks = 0;
+        int audioTracks = 0;
+        long movieDuration = UNKNOWN_DURATION;
+        long longestTrack = UNKNOWN_DURATION;
+        long longestVideoTrack = UNKNOWN_DURATION;
+        for (BoxHeader child : Mp4BoxReader.readChildHeaders(channel, moov)) {
+            if (child.getType().equals("mvhd")) {
+                Box mvhd = Mp4BoxReader.readBox(channel, child);
+                movieDuration = toMicros(BoxFields.movieDuration(mvhd), BoxFields.movieTimescale(mvhd));
+            } else if (child.getType().equals("trak")) {
+                Track track = readTrack(channel, child);
+                if ("vide".equals(track.handlerType)) {
+                    videoTracks++;
+                    longestVideoTrack = Math.max(longestVideoTrack, track.durationMicros);
+                } else if ("soun".equals(track.handlerType)) {
+                    audioTracks++;
+                }
+                longestTrack = Math.max(longestTrack, track.durationMicros);
+            }
+        }
+        // Fragmented files may leave the movie duration at zero
+        long duration = movieDuration > 0 ? movieDuration : longestTrack;
+        return new Mp4Header(videoTracks, audioTracks, duration > 0 ? duration : UNKNOWN_DURATION,
+                longestVideoTrack > 0 ? longestVideoTrack : UNKNOWN_DURATION);
+    }
+
+    private static Track readTrack(FileChannel channel, BoxHeader trak) throws IOException {
+        BoxHeader mdia = findChild(channel, trak, "mdia");
+        if (mdia == null) {
+            return new Track(null, UNKNOWN_DURATION);
+        }
+        String handlerType = null;
+        long durationMicros = UNKNOWN_DURATION;
+        for (BoxHeader child : Mp4BoxReader.readChildHeaders(channel, mdia)) {
+            if (child.getType().equals("hdlr")) {
+                handlerType = BoxFields.handlerType(Mp4BoxReader.readBox(channel, child));
+            } else if (child.getType().equals("mdhd")) {
+                Box mdhd = Mp4BoxReader.readBox(channel, child);
+                durationMicros = toMicros(BoxFields.mediaDuration(mdhd), BoxFields.mediaTimescale(mdhd));
+            }
+        }
+        return new Track(handlerType, durationMicros);
+    }
+
+    private static BoxHeader findChild(FileChannel channel, BoxHeader parent, String type) throws IOException {
+        return Mp4BoxReader.findFirst(Mp4BoxReader.readChildHeaders(channel, parent), type);
+    }
+
+    private static long toMicros(long duration, long timescale) {
+        if (timescale == 0 || duration < 0 || duration == 0xFFFFFFFFL) {
+            // A duration of all ones means unknown in version 0 boxes
+            return UNKNOWN_DURATION;
+        }
+        return BoxFields.rescale(duration, timescale, MICROS_PER_SECOND);
+    }
+
+    public int getVideoTrackCount() {
+        return videoTrackCount;
+    }
+
+    public int getAudioTrackCount() {
+        return audioTrackCount;
+    }
+
+    /**
+     * Duration of the movie in microseconds, {@link #UNKNOWN_DURATION} if the headers do not tell.
+     */
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    /**
+     * Duration of the longest video track in microseconds, {@link #UNKNOWN_DURATION} if there is
+     * none or the headers do not tell. Unlike the movie duration it does not grow when a longer
+     * audio track is added.
+     */
+    public long getVideoDurationMicros() {
+        return videoDurationMicros;
+    }
+
+    private static final class Track {
+        private final String handlerType;
+        private final long durationMicros;
+
+        private Track(String handlerType, long durationMicros) {
+            this.handlerType = handlerType;
+            this.durationMicros = durationMicros;
+        }
+    }
+}
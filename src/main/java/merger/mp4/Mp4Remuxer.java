@@ -0,0 +1,579 @@
+package merger.mp4;
+
+import merger.util.PauseGate;
+import merger.util.ProcessingLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * In-process replacement for `ffmpeg -i video -i audio -map 0 -map 1 -c copy output`.
+ * <p>
+ * The `moov` boxes of the replay and the microphone track are parsed into memory and
+ * combined into a single `moov` that carries all tracks of both files. The media data
+ * of both inputs is moved into one `mdat` box with FileChannel.transferTo, so samples are
+ * copied without passing through the Java heap and without spawning an external process.
+ * <p>
+ * Output layout: `ftyp` (of the replay), one `mdat` with a 64-bit size header and the
+ * combined `moov` at the end (like FFmpeg's default), so chunk offsets do not depend on
+ * the size of the new `moov`.
+ * <p>
+ * For replacing originals, {@link #appendAudioTracksInPlace(File, File)} avoids rewriting the
+ * video at all: only the audio samples and a new `moov` are appended to the existing file.
+ * <p>
+ * Copying stops between two chunks while the {@link PauseGate} is paused. An output that is
+ * cancelled halfway is kept together with a {@link RemuxCheckpoint}, and the next remux of the
+ * same inputs continues after the bytes that were already written.
+ * <p>
+ * Fragmented files and other unsupported structures are rejected with an
+ * {@link Mp4FormatException} before anything is written.
+ */
+public class Mp4Remuxer {
+
+    // Amount of bytes transferred between two cancellation and pause checks
+    private static final long TRANSFER_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    // Windows of every output that are read back and compared with the inputs
+    static final int VERIFY_WINDOW_COUNT = 16;
+    static final int VERIFY_WINDOW_SIZE = 64 * 1024;
+
+    private static final int MDAT_HEADER_SIZE = 16;
+
+    private final BooleanSupplier cancellationRequested;
+    // Receives the total amount of media data copied by the current operation
+    private final LongConsumer progressListener;
+    private final PauseGate pauseGate;
+    private long bytesTransferred;
+    // Checkpoint of the output that is being written, null if the operation cannot be resumed
+    private RemuxCheckpoint checkpoint;
+
+    public Mp4Remuxer(BooleanSupplier cancellationRequested) {
+        this(cancellationRequested, bytes -> {});
+    }
+
+    public Mp4Remuxer(BooleanSupplier cancellationRequested, LongConsumer progressListener) {
+        this(cancellationRequested, progressListener, PauseGate.NONE);
+    }
+
+    public Mp4Remuxer(BooleanSupplier cancellationRequested, LongConsumer progressListener, PauseGate pauseGate) {
+        this.cancellationRequested = cancellationRequested;
+        this.progressListener = progressListener;
+        this.pauseGate = pauseGate;
+    }
+
+    /**
+     * Whether a cancelled remux left a checkpoint next to the output, so the partial output
+     * is continued by the next {@link #addAudioTracks(File, File, File)} instead of rewritten.
+     */
+    public static boolean isResumable(File outputFile) {
+        return new File(outputFile.getPath() + RemuxCheckpoint.FILE_SUFFIX).isFile();
+    }
+
+    /**
+     * Write `outputFile` containing all tracks of `videoFile` followed by all tracks of `audioFile`.
+     * A partially written output file is deleted if remuxing fails; if it was cancelled, the
+     * output is kept with a checkpoint and a later call continues where it stopped.
+     * <p>
+     * The written output is checked before this returns: it must have exactly the planned size
+     * and its top-level boxes must cover the file, and a few fixed windows are read back and their
+     * checksums compared with the bytes taken from the inputs. This costs about one megabyte of
+     * reads per file, whatever its size.
+     */
+    public void addAudioTracks(File videoFile, File audioFile, File outputFile) throws IOException {
+        try (FileChannel video = FileChannel.open(videoFile.toPath(), StandardOpenOption.READ);
+             FileChannel audio = FileChannel.open(audioFile.toPath(), StandardOpenOption.READ)) {
+
+            SourceFile videoSource = SourceFile.read(video, videoFile.getName());
+            SourceFile audioSource = SourceFile.read(audio, audioFile.getName());
+            bytesTransferred = 0;
+
+            BoxHeader ftyp = Mp4BoxReader.findFirst(videoSource.boxes, "ftyp");
+            long mdatOffset = ftyp == null ? 0 : ftyp.getSize();
+            long position = mdatOffset + MDAT_HEADER_SIZE;
+
+            MediaDataMapping videoMapping = new MediaDataMapping();
+            position = mapMediaData(videoSource, videoMapping, position);
+            MediaDataMapping audioMapping = new MediaDataMapping();
+            position = mapMediaData(audioSource, audioMapping, position);
+
+            Box moov = combineMovies(videoSource.moov, videoMapping, audioSource.moov, audioMapping);
+
+            // The output as a sequence of byte ranges, so writing can start at any offset
+            List<Segment> segments = new ArrayList<>();
+            if (ftyp != null) {
+                segments.add(new Segment(video, ftyp.getOffset(), ftyp.getSize()));
+            }
+            segments.add(new Segment(mediaDataHeader(position - mdatOffset)));
+            addMediaDataSegments(videoSource, segments);
+            addMediaDataSegments(audioSource, segments);
+            segments.add(new Segment(ByteBuffer.wrap(moov.toBytes())));
+
+            long outputSize = 0;
+            for (Segment segment : segments) {
+                outputSize += segment.length;
+            }
+            checkpoint = new RemuxCheckpoint(videoFile, audioFile, outputFile, outputSize);
+            long resumeOffset = outputFile.exists() ? checkpoint.load() : 0;
+            if (resumeOffset > 0) {
+                ProcessingLogger.info(String.format("Resuming %s at %.1f of %.1f MB", outputFile.getName(),
+                        resumeOffset / (1024.0 * 1024), outputSize / (1024.0 * 1024)));
+            }
+            bytesTransferred = resumeOffset;
+
+            boolean completed = false;
+            boolean cancelled = false;
+            try (FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                output.truncate(resumeOffset);
+                output.position(resumeOffset);
+                writeSegments(segments, resumeOffset, output);
+                validateOutput(output, outputSize, outputFile.getName());
+                verifySamples(output, segments, 0, outputSize, outputFile.getName());
+                completed = true;
+            } catch (InterruptedIOException | ClosedByInterruptException e) {
+                cancelled = true;
+                throw e;
+            } finally {
+                if (completed) {
+                    checkpoint.delete();
+                } else if (cancelled) {
+                    checkpoint.saveAfterInterrupt();
+                } else {
+                    checkpoint.delete();
+                    Files.deleteIfExists(outputFile.toPath());
+                }
+                checkpoint = null;
+            }
+        }
+    }
+
+    /**
+     * Add all tracks of `audioFile` to `videoFile` by appending to the video instead of rewriting it.
+     * <p>
+     * The audio samples are appended in a new `mdat`, followed by the combined `moov`. Until the
+     * last step the file still starts with its original `moov`, so players and a crash leave the
+     * original replay intact. The last step turns the old `moov` into a `free` box by patching its
+     * four type bytes, which makes the appended `moov` the only one in the file.
+     * If anything fails before that patch the file is truncated back to its original size; after a
+     * crash, {@link #truncateUncommittedAppend(File, long)} does the same.
+     */
+    public void appendAudioTracksInPlace(File videoFile, File audioFile) throws IOException {
+        appendAudioTracksInPlace(videoFile, audioFile, merged -> {});
+    }
+
+    /**
+     * {@link #appendAudioTracksInPlace(File, File) Append} and let `beforeCommit` check the headers
+     * of the appended `moov` while the original one is still in effect. Like the output of
+     * {@link #addAudioTracks(File, File, File)}, sampled windows of the appended bytes are compared
+     * with the inputs first. If a check throws, the file is truncated back to its original size.
+     */
+    public void appendAudioTracksInPlace(File videoFile, File audioFile, CommitCheck beforeCommit) throws IOException {
+        try (FileChannel video = FileChannel.open(videoFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel audio = FileChannel.open(audioFile.toPath(), StandardOpenOption.READ)) {
+
+            long originalSize = video.size();
+            SourceFile videoSource = SourceFile.read(video, videoFile.getName());
+            SourceFile audioSource = SourceFile.read(audio, audioFile.getName());
+            bytesTransferred = 0;
+            BoxHeader lastBox = videoSource.boxes.get(videoSource.boxes.size() - 1);
+            if (lastBox.extendsToEndOfFile()) {
+                throw new Mp4FormatException("Cannot append to a file whose last box has no explicit size: " + videoFile.getName());
+            }
+            BoxHeader oldMoov = Mp4BoxReader.findFirst(videoSource.boxes, "moov");
+
+            // The video samples stay where they are, only the audio samples get a new position
+            MediaDataMapping videoMapping = new MediaDataMapping();
+            mapMediaDataInPlace(videoSource, videoMapping);
+            MediaDataMapping audioMapping = new MediaDataMapping();
+            long moovOffset = mapMediaData(audioSource, audioMapping, originalSize + MDAT_HEADER_SIZE);
+
+            Box moov = combineMovies(videoSource.moov, videoMapping, audioSource.moov, audioMapping);
+
+            // The appended bytes, to compare them with the inputs before the commit
+            List<Segment> segments = new ArrayList<>();
+            segments.add(new Segment(mediaDataHeader(moovOffset - originalSize)));
+            addMediaDataSegments(audioSource, segments);
+            segments.add(new Segment(ByteBuffer.wrap(moov.toBytes())));
+
+            boolean committed = false;
+            try {
+                video.position(originalSize);
+                writeSegments(segments, 0, video);
+                video.force(true);
+                verifySamples(video, segments, originalSize, video.size() - originalSize, videoFile.getName());
+                beforeCommit.check(Mp4Header.read(video, Mp4BoxReader.readHeader(video, moovOffset, video.size())));
+
+                // Commit point: replace the type of the old moov with "free"
+                writeFully(video, ByteBuffer.wrap("free".getBytes(StandardCharsets.ISO_8859_1)), oldMoov.getOffset() + 4);
+                video.force(true);
+                committed = true;
+            } finally {
+                if (!committed) {
+                    restoreOriginalSize(videoFile, originalSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check of the headers an append in place is about to commit.
+     */
+    public interface CommitCheck {
+        void check(Mp4Header merged) throws IOException;
+    }
+
+    /**
+     * Undo an {@link #appendAudioTracksInPlace(File, File) append} that was interrupted before its
+     * commit point, e.g. by a crash, by truncating the file to its original size. An append whose
+     * old `moov` has already become `free` is committed and left alone.
+     *
+     * @return false if the append was committed
+     */
+    public static boolean truncateUncommittedAppend(File videoFile, long originalSize) throws IOException {
+        try (FileChannel video = FileChannel.open(videoFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (video.size() <= originalSize) {
+                return true;
+            }
+            // Until the commit the original boxes, including the old moov, end exactly at the original size
+            boolean committed = true;
+            long offset = 0;
+            while (offset < originalSize) {
+                BoxHeader header = Mp4BoxReader.readHeader(video, offset, originalSize);
+                if ("moov".equals(header.getType())) {
+                    committed = false;
+                    break;
+                }
+                offset = header.getEnd();
+            }
+            if (committed) {
+                return false;
+            }
+            video.truncate(originalSize);
+            video.force(true);
+            return true;
+        }
+    }
+
+    /**
+     * Truncate the appended data. Uses a new channel because an interrupt closes the old one,
+     * and clears the interrupt status meanwhile so the new channel is not closed right away.
+     */
+    private static void restoreOriginalSize(File videoFile, long originalSize) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try (FileChannel video = FileChannel.open(videoFile.toPath(), StandardOpenOption.WRITE)) {
+            if (video.size() > originalSize) {
+                video.truncate(originalSize);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void mapMediaDataInPlace(SourceFile source, MediaDataMapping mapping) {
+        for (BoxHeader mdat : source.boxes) {
+            if ("mdat".equals(mdat.getType())) {
+                mapping.add(mdat.getPayloadOffset(), mdat.getPayloadSize(), mdat.getPayloadOffset());
+            }
+        }
+    }
+
+    private static long mapMediaData(SourceFile source, MediaDataMapping mapping, long position) {
+        long targetPosition = position;
+        for (BoxHeader mdat : source.boxes) {
+            if ("mdat".equals(mdat.getType())) {
+                mapping.add(mdat.getPayloadOffset(), mdat.getPayloadSize(), targetPosition);
+                targetPosition += mdat.getPayloadSize();
+            }
+        }
+        return targetPosition;
+    }
+
+    /**
+     * Append the tracks of `audioMoov` to `videoMoov`. Track IDs of the added tracks are
+     * renumbered and their movie-timescale durations are converted to the video's timescale.
+     */
+    static Box combineMovies(Box videoMoov, MediaDataMapping videoMapping, Box audioMoov, MediaDataMapping audioMapping) throws Mp4FormatException {
+        Box videoMvhd = requireChild(videoMoov, "mvhd");
+        Box audioMvhd = requireChild(audioMoov, "mvhd");
+        long videoTimescale = BoxFields.movieTimescale(videoMvhd);
+        long audioTimescale = BoxFields.movieTimescale(audioMvhd);
+
+        List<Box> videoTracks = videoMoov.findChildren("trak");
+        List<Box> audioTracks = audioMoov.findChildren("trak");
+        if (videoTracks.isEmpty() || audioTracks.isEmpty()) {
+            throw new Mp4FormatException("Both inputs must contain at least one track");
+        }
+
+        videoMapping.remapChunkOffsets(videoTracks);
+        audioMapping.remapChunkOffsets(audioTracks);
+
+        long nextTrackId = BoxFields.nextTrackId(videoMvhd);
+        for (Box track : videoTracks) {
+            nextTrackId = Math.max(nextTrackId, BoxFields.trackId(requireChild(track, "tkhd")) + 1);
+        }
+
+        long movieDuration = BoxFields.movieDuration(videoMvhd);
+        List<Box> moovChildren = videoMoov.getChildren();
+        int insertIndex = moovChildren.indexOf(videoTracks.get(videoTracks.size() - 1)) + 1;
+        for (Box track : audioTracks) {
+            Box tkhd = requireChild(track, "tkhd");
+            BoxFields.setTrackId(tkhd, nextTrackId++);
+
+            long duration = BoxFields.rescale(BoxFields.trackDuration(tkhd), audioTimescale, videoTimescale);
+            BoxFields.setTrackDuration(tkhd, duration);
+            movieDuration = Math.max(movieDuration, duration);
+
+            Box elst = track.findPath("edts", "elst");
+            if (elst != null) {
+                BoxFields.rescaleEditListDurations(elst, audioTimescale, videoTimescale);
+            }
+            moovChildren.add(insertIndex++, track);
+        }
+
+        BoxFields.setNextTrackId(videoMvhd, nextTrackId);
+        BoxFields.setMovieDuration(videoMvhd, movieDuration);
+        return videoMoov;
+    }
+
+    private static Box requireChild(Box parent, String type) throws Mp4FormatException {
+        Box child = parent.findChild(type);
+        if (child == null) {
+            throw new Mp4FormatException("Missing '" + type + "' box inside '" + parent.getType() + "'");
+        }
+        return child;
+    }
+
+    private static ByteBuffer mediaDataHeader(long size) {
+        ByteBuffer header = ByteBuffer.allocate(MDAT_HEADER_SIZE);
+        header.putInt(1); // 64-bit size follows the type
+        header.put("mdat".getBytes(StandardCharsets.ISO_8859_1));
+        header.putLong(size);
+        ((Buffer) header).flip();
+        return header;
+    }
+
+    private static void addMediaDataSegments(SourceFile source, List<Segment> segments) {
+        for (BoxHeader mdat : source.boxes) {
+            if ("mdat".equals(mdat.getType())) {
+                segments.add(new Segment(source.channel, mdat.getPayloadOffset(), mdat.getPayloadSize()));
+            }
+        }
+    }
+
+    /**
+     * Write the segments to the output, skipping the first `offset` bytes that are already there.
+     */
+    private void writeSegments(List<Segment> segments, long offset, FileChannel output) throws IOException {
+        long skip = offset;
+        for (Segment segment : segments) {
+            if (skip >= segment.length) {
+                skip -= segment.length;
+                continue;
+            }
+            if (segment.data != null) {
+                ByteBuffer data = segment.data.duplicate();
+                ((Buffer) data).position((int) skip);
+                writeFully(output, data);
+                if (checkpoint != null) {
+                    checkpoint.written(output, output.position());
+                }
+            } else {
+                transferFully(segment.source, segment.offset + skip, segment.length - skip, output);
+            }
+            skip = 0;
+        }
+    }
+
+    private static void validateOutput(FileChannel output, long expectedSize, String name) throws IOException {
+        if (output.size() != expectedSize) {
+            throw new IOException("Output " + name + " has " + output.size() + " bytes instead of " + expectedSize);
+        }
+        List<BoxHeader> boxes;
+        try {
+            boxes = Mp4BoxReader.readTopLevelBoxes(output);
+        } catch (Mp4FormatException e) {
+            // Not reported as a format problem of the inputs, which would start the FFmpeg fallback
+            throw new IOException("Output " + name + " is damaged: " + e.getMessage());
+        }
+        if (Mp4BoxReader.findFirst(boxes, "moov") == null || Mp4BoxReader.findFirst(boxes, "mdat") == null) {
+            throw new IOException("Output " + name + " is missing its 'moov' or 'mdat' box");
+        }
+    }
+
+    /**
+     * Compare the CRC32 of evenly spaced windows of the `size` bytes the segments put at `start` of
+     * the output with the CRC32 of the segment bytes. Reads are served from the page cache when the
+     * data is still there, so this catches data that was written to the wrong place or not at all,
+     * not failing disk sectors.
+     */
+    private static void verifySamples(FileChannel output, List<Segment> segments, long start, long size, String name) throws IOException {
+        int windowSize = (int) Math.min(VERIFY_WINDOW_SIZE, size);
+        ByteBuffer expected = ByteBuffer.allocate(windowSize);
+        ByteBuffer actual = ByteBuffer.allocate(windowSize);
+        CRC32 checksum = new CRC32();
+        for (int i = 0; i < VERIFY_WINDOW_COUNT; i++) {
+            long offset = (size - windowSize) / (VERIFY_WINDOW_COUNT - 1) * i;
+            if (i == VERIFY_WINDOW_COUNT - 1) {
+                offset = size - windowSize;
+            }
+
+            ((Buffer) expected).clear();
+            readSegments(segments, offset, expected);
+            ((Buffer) expected).flip();
+            checksum.reset();
+            checksum.update(expected);
+            long expectedChecksum = checksum.getValue();
+
+            ((Buffer) actual).clear();
+            Mp4BoxReader.readFully(output, actual, start + offset);
+            ((Buffer) actual).flip();
+            checksum.reset();
+            checksum.update(actual);
+            if (checksum.getValue() != expectedChecksum) {
+                throw new IOException("Verification of " + name + " failed, the bytes at offset " + (start + offset) + " differ from the inputs");
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer with the bytes the segments place at `offset` of the output.
+     */
+    private static void readSegments(List<Segment> segments, long offset, ByteBuffer target) throws IOException {
+        long segmentStart = 0;
+        for (Segment segment : segments) {
+            long segmentEnd = segmentStart + segment.length;
+            long position = offset + target.position();
+            if (target.hasRemaining() && position < segmentEnd) {
+                long skip = position - segmentStart;
+                int length = (int) Math.min(target.remaining(), segment.length - skip);
+                ByteBuffer part = target.duplicate();
+                ((Buffer) part).limit(part.position() + length);
+                if (segment.data != null) {
+                    ByteBuffer data = segment.data.duplicate();
+                    ((Buffer) data).position(data.position() + (int) skip);
+                    ((Buffer) data).limit(data.position() + length);
+                    part.put(data);
+                } else {
+                    Mp4BoxReader.readFully(segment.source, part, segment.offset + skip);
+                }
+                ((Buffer) target).position(target.position() + length);
+            }
+            segmentStart = segmentEnd;
+        }
+    }
+
+    private void transferFully(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            awaitResume();
+            if (cancellationRequested.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Remuxing was cancelled");
+            }
+            long chunk = Math.min(TRANSFER_CHUNK_SIZE, count - transferred);
+            long written = source.transferTo(position + transferred, chunk, target);
+            if (written <= 0) {
+                throw new IOException("Unexpected end of file while copying media data");
+            }
+            transferred += written;
+            bytesTransferred += written;
+            progressListener.accept(bytesTransferred);
+            if (checkpoint != null) {
+                checkpoint.written(target, target.position());
+            }
+        }
+    }
+
+    // Stop between two chunks while processing is paused
+    private void awaitResume() throws InterruptedIOException {
+        if (!pauseGate.isPauseRequested()) {
+            return;
+        }
+        try {
+            pauseGate.awaitResume();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Remuxing was cancelled while paused");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    /**
+     * A range of an input file or a buffer that is written to the output as is.
+     */
+    private static final class Segment {
+        private final FileChannel source;
+        private final long offset;
+        private final long length;
+        private final ByteBuffer data;
+
+        private Segment(FileChannel source, long offset, long length) {
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+            this.data = null;
+        }
+
+        private Segment(ByteBuffer data) {
+            this.source = null;
+            this.offset = 0;
+            this.length = data.remaining();
+            this.data = data;
+        }
+    }
+
+    /**
+     * Top-level structure of an input file.
+     */
+    private static final class SourceFile {
+        private final FileChannel channel;
+        private final List<BoxHeader> boxes;
+        private final Box moov;
+
+        private SourceFile(FileChannel channel, List<BoxHeader> boxes, Box moov) {
+            this.channel = channel;
+            this.boxes = boxes;
+            this.moov = moov;
+        }
+
+        static SourceFile read(FileChannel channel, String name) throws IOException {
+            List<BoxHeader> boxes = Mp4BoxReader.readTopLevelBoxes(channel);
+            if (Mp4BoxReader.findFirst(boxes, "moof") != null) {
+                throw new Mp4FormatException("Fragmented MP4 files are not supported: " + name);
+            }
+            BoxHeader moov = Mp4BoxReader.findFirst(boxes, "moov");
+            if (moov == null) {
+                throw new Mp4FormatException("No 'moov' box found in " + name);
+            }
+            if (Mp4BoxReader.findFirst(boxes, "mdat") == null) {
+                throw new Mp4FormatException("No 'mdat' box found in " + name);
+            }
+            return new SourceFile(channel, boxes, Mp4BoxReader.readBox(channel, moov));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package merger.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Sampled integrity check of a merge written by another muxer, e.g. FFmpeg.
+ * <p>
+ * Such an output puts the media data at positions of its own choosing, so it cannot be compared
+ * byte by byte with the inputs like {@link Mp4Remuxer} does. Streams that are copied keep their
+ * samples though: the output must hold the tracks of the video followed by the tracks of the audio
+ * file with the same number of samples, and a few evenly spaced samples of every track are read
+ * from both files and their CRC32 compared. Like the check of the remuxer this reads about one
+ * megabyte per file, whatever its size.
+ */
+public final class Mp4SampleCheck {
+
+    // Samples compared per track, including the first and the last one
+    private static final int SAMPLES_PER_TRACK = 8;
+
+    private Mp4SampleCheck() {}
+
+    /**
+     * @throws IOException if the output does not hold the samples of both inputs
+     */
+    public static void verify(File videoFile, File audioFile, File outputFile) throws IOException {
+        try (FileChannel video = FileChannel.open(videoFile.toPath(), StandardOpenOption.READ);
+             FileChannel audio = FileChannel.open(audioFile.toPath(), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ)) {
+
+            List<SampleTable> inputTracks = new ArrayList<>();
+            inputTracks.addAll(readTracks(video, videoFile.getName()));
+            inputTracks.addAll(readTracks(audio, audioFile.getName()));
+            List<SampleTable> outputTracks = readTracks(output, outputFile.getName());
+            if (outputTracks.size() != inputTracks.size()) {
+                throw new IOException("Verification of " + outputFile.getName() + " failed, it has "
+                        + outputTracks.size() + " tracks instead of " + inputTracks.size());
+            }
+
+            for (int track = 0; track < inputTracks.size(); track++) {
+                SampleTable input = inputTracks.get(track);
+                SampleTable merged = outputTracks.get(track);
+                if (input == null || merged == null) {
+                    // Compact sample sizes, the track count is all we can check
+                    continue;
+                }
+                if (merged.sampleCount != input.sampleCount) {
+                    throw new IOException("Verification of " + outputFile.getName() + " failed, track " + (track + 1)
+                            + " has " + merged.sampleCount + " samples instead of " + input.sampleCount);
+                }
+                compareSamples(input, merged, outputFile.getName(), track + 1);
+            }
+        }
+    }
+
+    private static void compareSamples(SampleTable input, SampleTable merged, String name, int track) throws IOException {
+        if (input.sampleCount == 0) {
+            return;
+        }
+        long[] samples = new long[(int) Math.min(SAMPLES_PER_TRACK, input.sampleCount)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = samples.length == 1 ? 0 : (input.sampleCount - 1) * i / (samples.length - 1);
+        }
+        long[] inputOffsets = input.offsetsOf(samples);
+        long[] mergedOffsets = merged.offsetsOf(samples);
+
+        ByteBuffer expected = ByteBuffer.allocate(Mp4Remuxer.VERIFY_WINDOW_SIZE);
+        ByteBuffer actual = ByteBuffer.allocate(Mp4Remuxer.VERIFY_WINDOW_SIZE);
+        for (int i = 0; i < samples.length; i++) {
+            long size = input.sizeOf(samples[i]);
+            if (merged.sizeOf(samples[i]) != size) {
+                throw new IOException("Verification of " + name + " failed, sample " + samples[i] + " of track " + track
+                        + " has " + merged.sizeOf(samples[i]) + " bytes instead of " + size);
+            }
+            // Large samples are only compared up to the window size
+            int length = (int) Math.min(size, Mp4Remuxer.VERIFY_WINDOW_SIZE);
+            if (checksum(input.channel, inputOffsets[i], length, expected) != checksum(merged.channel, mergedOffsets[i], length, actual)) {
+                throw new IOException("Verification of " + name + " failed, sample " + samples[i] + " of track " + track
+                        + " differs from the inputs");
+            }
+        }
+    }
+
+    private static long checksum(FileChannel channel, long offset, int length, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+        Mp4BoxReader.readFully(channel, buffer, offset);
+        ((Buffer) buffer).flip();
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer);
+        return checksum.getValue();
+    }
+
+    /**
+     * The sample tables of all tracks in file order, null for tracks whose sample sizes are stored
+     * in a compact `stz2` box.
+     */
+    private static List<SampleTable> readTracks(FileChannel channel, String name) throws IOException {
+        List<BoxHeader> boxes = Mp4BoxReader.readTopLevelBoxes(channel);
+        if (Mp4BoxReader.findFirst(boxes, "moof") != null) {
+            throw new Mp4FormatException("Fragmented MP4 files are not supported: " + name);
+        }
+        BoxHeader moovHeader = Mp4BoxReader.findFirst(boxes, "moov");
+        if (moovHeader == null) {
+            throw new Mp4FormatException("No 'moov' box found in " + name);
+        }
+        List<SampleTable> tracks = new ArrayList<>();
+        for (Box trak : Mp4BoxReader.readBox(channel, moovHeader).findChildren("trak")) {
+            Box stbl = trak.findPath("mdia", "minf", "stbl");
+            if (stbl == null) {
+                throw new Mp4FormatException("Track without sample table in " + name);
+            }
+            Box stsz = stbl.findChild("stsz");
+            Box stsc = stbl.findChild("stsc");
+            Box chunkOffsets = stbl.findChild("stco") != null ? stbl.findChild("stco") : stbl.findChild("co64");
+            if (stsz == null && stbl.findChild("stz2") != null) {
+                tracks.add(null);
+            } else if (stsz == null || stsc == null || chunkOffsets == null) {
+                throw new Mp4FormatException("Incomplete sample table in " + name);
+            } else {
+                tracks.add(new SampleTable(channel, stsz, stsc, BoxFields.chunkOffsets(chunkOffsets), name));
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * Where the samples of one track are stored, from its `stsz`, `stsc` and chunk offset boxes.
+     */
+    private static final class SampleTable {
+        private final FileChannel channel;
+        private final byte[] sizes;
+        private final long constantSize;
+        private final long sampleCount;
+        private final byte[] chunkRuns;
+        private final long runCount;
+        private final long[] chunkOffsets;
+
+        private SampleTable(FileChannel channel, Box stsz, Box stsc, long[] chunkOffsets, String name) throws Mp4FormatException {
+            this.channel = channel;
+            this.sizes = stsz.getPayload();
+            this.constantSize = BoxFields.readUInt32(sizes, 4);
+            this.sampleCount = BoxFields.readUInt32(sizes, 8);
+            this.chunkRuns = stsc.getPayload();
+            this.runCount = BoxFields.readUInt32(chunkRuns, 4);
+            this.chunkOffsets = chunkOffsets;
+            if ((constantSize == 0 && 12 + sampleCount * 4 > sizes.length) || 8 + runCount * 12 > chunkRuns.length) {
+                throw new Mp4FormatException("Truncated sample table in " + name);
+            }
+        }
+
+        long sizeOf(long sample) {
+            return constantSize != 0 ? constantSize : BoxFields.readUInt32(sizes, (int) (12 + sample * 4));
+        }
+
+        /**
+         * File offsets of the given samples, which must be in ascending order.
+         */
+        long[] offsetsOf(long[] samples) throws Mp4FormatException {
+            long[] offsets = new long[samples.length];
+            int next = 0;
+            long firstSampleOfChunk = 0;
+            for (int run = 0; run < runCount && next < samples.length; run++) {
+                long firstChunk = BoxFields.readUInt32(chunkRuns, 8 + run * 12) - 1;
+                long samplesPerChunk = BoxFields.readUInt32(chunkRuns, 12 + run * 12);
+                long endChunk = run + 1 < runCount ? BoxFields.readUInt32(chunkRuns, 20 + run * 12) - 1 : chunkOffsets.length;
+                for (long chunk = firstChunk; chunk < endChunk && chunk < chunkOffsets.length && next < samples.length; chunk++) {
+                    long offset = chunkOffsets[(int) chunk];
+                    long sample = firstSampleOfChunk;
+                    while (next < samples.length && samples[next] < firstSampleOfChunk + samplesPerChunk) {
+                        for (; sample < samples[next]; sample++) {
+                            offset += sizeOf(sample);
+                        }
+                        offsets[next++] = offset;
+                    }
+                    firstSampleOfChunk += samplesPerChunk;
+                }
+            }
+            if (next < samples.length) {
+                throw new Mp4FormatException("Sample " + samples[next] + " is not in any chunk");
+            }
+            return offsets;
+        }
+    }
+}
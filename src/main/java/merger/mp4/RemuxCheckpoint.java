@@ -0,0 +1,122 @@
+package merger.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Records how much of a remuxed output has safely been written, so an interrupted remux can
+ * continue where it stopped instead of starting over.
+ * <p>
+ * The output of {@link Mp4Remuxer#addAudioTracks(File, File, File)} only depends on its inputs,
+ * so a prefix written by an earlier attempt stays valid as long as the inputs are unchanged.
+ * The checkpoint is a small properties file next to the output (`<output>.resume`) with the
+ * identity of both inputs (path, size, modification time) and the number of bytes written.
+ * The output is flushed to disk before a checkpoint is saved.
+ */
+class RemuxCheckpoint {
+
+    static final String FILE_SUFFIX = ".resume";
+
+    // A checkpoint is saved after at least this many bytes were written since the last one
+    static final long SAVE_INTERVAL_BYTES = 1024L * 1024 * 1024;
+
+    private final File outputFile;
+    private final Path checkpointFile;
+    private final String key;
+    private long savedOffset;
+    private long writtenOffset;
+
+    RemuxCheckpoint(File videoFile, File audioFile, File outputFile, long outputSize) {
+        this.outputFile = outputFile;
+        this.checkpointFile = new File(outputFile.getPath() + FILE_SUFFIX).toPath();
+        this.key = identity(videoFile) + "|" + identity(audioFile) + "|" + outputSize;
+    }
+
+    /**
+     * Offset at which writing can continue, 0 if there is no usable checkpoint. A checkpoint of
+     * other inputs or for an output that has been shortened since is discarded.
+     */
+    long load() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+
+        long offset = 0;
+        if (key.equals(properties.getProperty("key"))) {
+            try {
+                offset = Long.parseLong(properties.getProperty("offset", "0"));
+            } catch (NumberFormatException e) {
+                offset = 0;
+            }
+        }
+        if (offset <= 0 || offset > outputFile.length()) {
+            delete();
+            return 0;
+        }
+        savedOffset = offset;
+        writtenOffset = offset;
+        return offset;
+    }
+
+    /**
+     * Remember how far the output has been written and save a checkpoint every {@link #SAVE_INTERVAL_BYTES}.
+     */
+    void written(FileChannel output, long offset) throws IOException {
+        writtenOffset = offset;
+        if (offset - savedOffset >= SAVE_INTERVAL_BYTES) {
+            output.force(false);
+            save(offset);
+        }
+    }
+
+    /**
+     * Save the offset reached so far after the remux was interrupted. The interrupt status of
+     * the thread is cleared while the files are written, otherwise every channel would be closed
+     * right away; it is restored afterwards.
+     */
+    void saveAfterInterrupt() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            try (FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+                output.force(false);
+                save(Math.min(writtenOffset, output.size()));
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    private void save(long offset) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("key", key);
+        properties.setProperty("offset", Long.toString(offset));
+        Path temporaryFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+            properties.store(out, "Remux progress of " + outputFile.getName());
+        }
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        savedOffset = offset;
+    }
+
+    private static String identity(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+}
@@ -0,0 +1,132 @@
+package merger.processing;
+
+import merger.util.ReplayUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Combines the progress of all jobs of a batch into an overall fraction and ETA.
+ * <p>
+ * Each replay is weighted by the size of the replay plus its microphone track, or, if the batch
+ * has an {@link ExecutionPlan}, by its estimated duration. Finished jobs (successful or not)
+ * count with their full weight, running jobs with their completed fraction.
+ * <p>
+ * Without a plan the ETA assumes the remaining work proceeds at the average rate observed so far.
+ * With a plan the ETA starts at the planned duration of the remaining work, which is known
+ * before the first byte is written, and is corrected by how fast the planned work has actually
+ * been done so far; the correction takes over as more of the batch is done.
+ */
+public class BatchProgress {
+
+    // Weight of the plan against the measured pace, in seconds of planned work
+    private static final double PLAN_CONFIDENCE_SECONDS = 10;
+
+    private final Map<File, Double> weights = new ConcurrentHashMap<>();
+    private final Map<File, Double> runningFractions = new ConcurrentHashMap<>();
+    // Device every replay writes to; empty without a plan
+    private final Map<File, String> devices = new HashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+    private final double totalWeight;
+    private final double plannedSeconds;
+    private volatile double finishedWeight = 0;
+
+    public BatchProgress(List<File> replays) {
+        double total = 0;
+        for (File replay : replays) {
+            double weight = replay.length() + ReplayUtils.getMicrophoneTrack(replay).length();
+            weights.put(replay, weight);
+            total += weight;
+        }
+        this.totalWeight = total;
+        this.plannedSeconds = -1;
+    }
+
+    /**
+     * Track a batch by the estimates of its plan. Duplicates the plan lists are not part of the batch.
+     */
+    public BatchProgress(ExecutionPlan plan) {
+        double total = 0;
+        for (ExecutionPlan.Entry entry : plan.getEntries()) {
+            if (entry.getDuplicateOf() != null) {
+                continue;
+            }
+            weights.put(entry.getReplay(), entry.getEstimatedSeconds());
+            devices.put(entry.getReplay(), entry.getWriteDevice());
+            total += entry.getEstimatedSeconds();
+        }
+        this.totalWeight = total;
+        this.plannedSeconds = getPlannedRemainingSeconds();
+    }
+
+    public void update(ReplayProgress progress) {
+        runningFractions.put(progress.getReplay(), progress.getFraction());
+    }
+
+    /**
+     * Mark a replay as done, regardless of whether it succeeded.
+     */
+    public synchronized void finish(File replay) {
+        runningFractions.remove(replay);
+        Double weight = weights.remove(replay);
+        if (weight != null) {
+            finishedWeight += weight;
+        }
+    }
+
+    /**
+     * Overall completed fraction between 0 and 1.
+     */
+    public double getFraction() {
+        if (totalWeight <= 0) {
+            return 0;
+        }
+        double completed = finishedWeight;
+        for (Map.Entry<File, Double> running : runningFractions.entrySet()) {
+            Double weight = weights.get(running.getKey());
+            if (weight != null) {
+                completed += weight * running.getValue();
+            }
+        }
+        return Math.min(1.0, completed / totalWeight);
+    }
+
+    /**
+     * Estimated time until the batch is done, or -1 while there is no progress to extrapolate from.
+     */
+    public long getEstimatedRemainingMillis() {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        if (plannedSeconds >= 0) {
+            double remaining = getPlannedRemainingSeconds();
+            double done = Math.max(0, plannedSeconds - remaining);
+            // Starts at the plan and moves to the measured pace as planned work gets done
+            double prior = Math.min(plannedSeconds, PLAN_CONFIDENCE_SECONDS);
+            double pace = prior + done > 0 ? (prior + elapsed / 1000.0) / (prior + done) : 1;
+            return (long) (remaining * pace * 1000);
+        }
+
+        double fraction = getFraction();
+        if (fraction <= 0 || elapsed <= 0) {
+            return -1;
+        }
+        return (long) (elapsed * (1 - fraction) / fraction);
+    }
+
+    // Devices work side by side, the busiest one decides
+    private double getPlannedRemainingSeconds() {
+        Map<String, Double> remainingByDevice = new HashMap<>();
+        for (Map.Entry<File, Double> job : weights.entrySet()) {
+            Double fraction = runningFractions.get(job.getKey());
+            double remaining = job.getValue() * (1 - (fraction != null ? fraction : 0));
+            remainingByDevice.merge(devices.get(job.getKey()), remaining, Double::sum);
+        }
+        double remaining = 0;
+        for (double seconds : remainingByDevice.values()) {
+            remaining = Math.max(remaining, seconds);
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,211 @@
+package merger.processing;
+
+import merger.util.ProcessingLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Hands out the replays of a batch grouped by the device (file store) they are stored on.
+ * <p>
+ * Every device has its own limit of replays processed at the same time. It starts at one and
+ * adapts to the throughput measured on that device: the limit is raised as long as running one
+ * more replay in parallel makes the device noticeably faster and lowered again when it does not.
+ * A spinning disk therefore keeps working on one replay at a time instead of seeking between two,
+ * while an SSD climbs up to the global concurrency. Devices are served round-robin, so a slow
+ * drive never holds back replays that are waiting on a fast one.
+ * <p>
+ * Replays of the same device are handed out in the order of the batch. Thread-safe.
+ */
+class DeviceScheduler {
+
+    // Throughput has to change by more than this before the limit of a device is moved
+    private static final double THROUGHPUT_TOLERANCE = 0.10;
+
+    private final int maxConcurrency;
+    // Devices in order of their first replay in the batch
+    private final List<Device> devices = new ArrayList<>();
+    private int nextDevice = 0;
+    private int queuedReplays = 0;
+
+    DeviceScheduler(List<File> replays, int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+
+        Map<Object, Device> devicesByStore = new LinkedHashMap<>();
+        Map<File, Object> storesByFolder = new HashMap<>();
+        for (File replay : replays) {
+            Object store = storesByFolder.computeIfAbsent(replay.getAbsoluteFile().getParentFile(), DeviceScheduler::fileStoreOf);
+            devicesByStore.computeIfAbsent(store, key -> new Device(String.valueOf(key))).queue.add(replay);
+            queuedReplays++;
+        }
+        devices.addAll(devicesByStore.values());
+
+        if (devices.size() > 1) {
+            ProcessingLogger.info("Replays are stored on " + devices.size() + " devices, each is processed at its own pace");
+        }
+    }
+
+    /**
+     * Wait until a device with queued replays has room for one more and take its next replay.
+     *
+     * @return the replay to process, or null once every replay has been handed out
+     */
+    synchronized Job takeNext() throws InterruptedException {
+        while (queuedReplays > 0) {
+            for (int i = 0; i < devices.size(); i++) {
+                Device device = devices.get((nextDevice + i) % devices.size());
+                if (!device.queue.isEmpty() && device.running < device.limit) {
+                    nextDevice = (nextDevice + i + 1) % devices.size();
+                    queuedReplays--;
+                    return device.start(device.queue.poll());
+                }
+            }
+            wait();
+        }
+        return null;
+    }
+
+    /**
+     * Give the slot of a replay back to its device.
+     *
+     * @param succeeded only replays that have been merged count towards the measured throughput
+     */
+    synchronized void finished(Job job, boolean succeeded) {
+        job.device.finish(job, succeeded);
+        notifyAll();
+    }
+
+    /**
+     * Name of the device a folder is on, e.g. for the throughput history. A folder that does not
+     * exist yet, like the game folder of a first output, is on the device of its nearest existing parent.
+     */
+    static String deviceName(File folder) {
+        File existing = folder.getAbsoluteFile();
+        while (existing.getParentFile() != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        return String.valueOf(fileStoreOf(existing));
+    }
+
+    // Replays on a store that cannot be determined are grouped by their file system root
+    private static Object fileStoreOf(File folder) {
+        Path path = folder.toPath();
+        try {
+            return Files.getFileStore(path);
+        } catch (IOException | SecurityException e) {
+            Path root = path.toAbsolutePath().getRoot();
+            return root != null ? root : path;
+        }
+    }
+
+    /**
+     * A replay that has been handed out and has to be passed to {@link #finished(Job, boolean)}.
+     */
+    static final class Job {
+
+        private final File replay;
+        private final Device device;
+        private final long bytes;
+
+        private Job(File replay, Device device) {
+            this.replay = replay;
+            this.device = device;
+            this.bytes = replay.length();
+        }
+
+        File getReplay() {
+            return replay;
+        }
+    }
+
+    /**
+     * Queue, running replays and adaptive limit of one device. Guarded by the scheduler.
+     */
+    private final class Device {
+
+        private final String name;
+        private final Queue<File> queue = new ArrayDeque<>();
+        private int limit = 1;
+        private int running = 0;
+
+        // Measurement of the current limit: merged bytes over the time the device was busy
+        private long busySinceNanos = 0;
+        private long epochBusyNanos = 0;
+        private long epochBytes = 0;
+        private int epochCompletions = 0;
+
+        // Throughput of the best limit found so far and whether a higher limit is still worth a try
+        private double baselineBytesPerSecond = 0;
+        private boolean probing = true;
+        private boolean justRaised = false;
+
+        private Device(String name) {
+            this.name = name;
+        }
+
+        private Job start(File replay) {
+            if (running == 0) {
+                busySinceNanos = System.nanoTime();
+            }
+            running++;
+            return new Job(replay, this);
+        }
+
+        private void finish(Job job, boolean succeeded) {
+            long now = System.nanoTime();
+            epochBusyNanos += now - busySinceNanos;
+            busySinceNanos = now;
+            running--;
+            if (!succeeded) {
+                return;
+            }
+            epochBytes += job.bytes;
+            epochCompletions++;
+
+            // Measure a limit over a few replays so one short replay does not decide it
+            if (epochCompletions < limit + 1) {
+                return;
+            }
+            adapt(epochBytes * 1_000_000_000.0 / Math.max(1, epochBusyNanos));
+            epochBusyNanos = 0;
+            epochBytes = 0;
+            epochCompletions = 0;
+        }
+
+        private void adapt(double bytesPerSecond) {
+            int previousLimit = limit;
+            if (baselineBytesPerSecond == 0 || bytesPerSecond > baselineBytesPerSecond * (1 + THROUGHPUT_TOLERANCE)) {
+                // First measurement, or the extra replay paid off: try one more
+                baselineBytesPerSecond = bytesPerSecond;
+                justRaised = probing && limit < maxConcurrency;
+                if (justRaised) {
+                    limit++;
+                }
+            } else if (justRaised) {
+                // No gain: the device is saturated, go back to the previous limit and stay there
+                justRaised = false;
+                probing = false;
+                limit--;
+            } else if (bytesPerSecond < baselineBytesPerSecond * (1 - THROUGHPUT_TOLERANCE) && limit > 1) {
+                // The device got slower under the settled limit, e.g. because something else uses it
+                baselineBytesPerSecond = bytesPerSecond;
+                limit--;
+            }
+
+            if (limit != previousLimit) {
+                ProcessingLogger.info(String.format(Locale.ROOT, "%s: processing up to %d replay(s) in parallel (%.1f MB/s with %d)",
+                        name, limit, bytesPerSecond / (1024 * 1024), previousLimit));
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package merger.processing;
+
+import merger.util.ProcessingLogger;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the disk space that running jobs are still going to write, per file store.
+ * <p>
+ * Free space reported by the file system only shrinks while a job writes, so checking it once
+ * per job lets several jobs start that together do not fit. Instead each job reserves its
+ * expected output size before it starts and releases it when it is done; a job is admitted only
+ * if the free space minus all reservations on the same file store covers it. When space is
+ * short the job waits until other jobs release their reservations (or space is freed otherwise)
+ * instead of failing late. A job that does not fit even with nothing else in flight fails
+ * immediately.
+ * <p>
+ * The free space already shrinks by what a job has written, so a reservation shrinks by the
+ * bytes its job reports as written instead of counting them twice.
+ */
+public class DiskSpaceReservations {
+
+    // How often a waiting job re-checks the free space, in case it was freed outside of the app
+    private static final long RECHECK_INTERVAL_MS = 1000;
+
+    private static DiskSpaceReservations defaultReservations;
+
+    private final Map<FileStore, Long> reservedBytes = new HashMap<>();
+    private final Object lock = new Object();
+
+    /**
+     * Reservations shared by all runs of this process.
+     */
+    public static synchronized DiskSpaceReservations getDefault() {
+        if (defaultReservations == null) {
+            defaultReservations = new DiskSpaceReservations();
+        }
+        return defaultReservations;
+    }
+
+    /**
+     * Reserve `bytes` on the file store of `location`, waiting while other jobs hold the space.
+     *
+     * @param location file or folder on the target file store; it does not have to exist yet
+     * @throws IOException          if the space is not available even without other reservations
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Reservation reserve(Path location, long bytes) throws IOException, InterruptedException {
+        FileStore store = Files.getFileStore(nearestExistingPath(location));
+        Reservation reservation = new Reservation(store);
+        reservation.extendTo(bytes);
+        return reservation;
+    }
+
+    public long getReservedBytes(FileStore store) {
+        synchronized (lock) {
+            return reservedBytes.getOrDefault(store, 0L);
+        }
+    }
+
+    /**
+     * @param heldBytes bytes the same job already holds on the store, they do not count as other jobs in flight
+     */
+    private void acquire(FileStore store, long bytes, long heldBytes) throws IOException, InterruptedException {
+        boolean waitingLogged = false;
+        while (true) {
+            // The file system is asked outside of the lock, other jobs may reserve or release meanwhile
+            long usable = store.getUsableSpace();
+            synchronized (lock) {
+                long reserved = reservedBytes.getOrDefault(store, 0L);
+                if (bytes <= usable - reserved) {
+                    reservedBytes.put(store, reserved + bytes);
+                    warnIfLowOnSpace(store, usable - reserved - bytes);
+                    return;
+                }
+                if (reserved - heldBytes <= 0) {
+                    throw new IOException("Insufficient disk space on " + store + ". Required: " + formatMegabytes(bytes)
+                            + " MB, Available: " + formatMegabytes(usable) + " MB");
+                }
+                if (!waitingLogged) {
+                    ProcessingLogger.info("Waiting for " + formatMegabytes(bytes) + " MB of free space on " + store
+                            + " until running jobs are done");
+                    waitingLogged = true;
+                }
+                lock.wait(RECHECK_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * Add to or, with a negative amount, take from the reserved bytes of a store without waiting.
+     */
+    private void adjust(FileStore store, long bytes) {
+        synchronized (lock) {
+            long remaining = reservedBytes.getOrDefault(store, 0L) + bytes;
+            if (remaining <= 0) {
+                reservedBytes.remove(store);
+            } else {
+                reservedBytes.put(store, remaining);
+            }
+            if (bytes < 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private static void warnIfLowOnSpace(FileStore store, long remainingBytes) {
+        if (remainingBytes < ProcessingConfig.MIN_FREE_SPACE_MB * 1024 * 1024) {
+            ProcessingLogger.warn("Low disk space on " + store + ": " + formatMegabytes(remainingBytes) + " MB remaining after running jobs");
+        }
+    }
+
+    private static Path nearestExistingPath(Path location) {
+        Path path = location.toAbsolutePath();
+        while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+        }
+        return path != null ? path : location.toAbsolutePath().getRoot();
+    }
+
+    private static String formatMegabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Space held by a single job. Closing it releases the space; closing twice has no effect.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final FileStore store;
+        private long bytes = 0;
+        private long writtenBytes = 0;
+        private boolean released = false;
+
+        private Reservation(FileStore store) {
+            this.store = store;
+        }
+
+        /**
+         * Grow the reservation to `totalBytes`, e.g. when a job falls back to a strategy that
+         * writes more. Waits like {@link #reserve(Path, long)}.
+         */
+        public synchronized void extendTo(long totalBytes) throws IOException, InterruptedException {
+            if (released) {
+                throw new IllegalStateException("Reservation has already been released");
+            }
+            if (totalBytes > bytes) {
+                long heldBytes = getHeldBytes();
+                long additionalBytes = Math.max(0, totalBytes - writtenBytes) - heldBytes;
+                if (additionalBytes > 0) {
+                    acquire(store, additionalBytes, heldBytes);
+                }
+                bytes = totalBytes;
+            }
+        }
+
+        /**
+         * Tell how much of the reserved output the job has written so far; only the rest stays
+         * reserved. The amount may go down again, e.g. when a partial output is deleted.
+         */
+        public synchronized void setWrittenBytes(long writtenBytes) {
+            if (released) {
+                return;
+            }
+            long heldBytes = getHeldBytes();
+            this.writtenBytes = Math.max(0, writtenBytes);
+            adjust(store, getHeldBytes() - heldBytes);
+        }
+
+        /**
+         * The reserved output size, including the bytes that have already been written.
+         */
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        private long getHeldBytes() {
+            return Math.max(0, bytes - writtenBytes);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                adjust(store, -getHeldBytes());
+            }
+        }
+    }
+}
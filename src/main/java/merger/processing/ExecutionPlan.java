@@ -0,0 +1,298 @@
+package merger.processing;
+
+import merger.util.CopyStrategy;
+import merger.util.FileLinker;
+import merger.util.ReplayUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a batch is going to do with every replay, how many bytes that reads and writes on each
+ * device and how long it is expected to take.
+ * <p>
+ * The plan only looks at file names, sizes and the file stores of the folders, so it can be
+ * shown before anything is written. The action of a replay follows the rules of the
+ * {@link ReplayProcessor}: replays without a microphone track are linked or copied to the output
+ * folder (or left alone when replacing originals), all others are merged or appended to in place.
+ * A replay that turns out to contain its microphone track already is only found when it is
+ * processed. Durations come from the {@link ThroughputHistory}. Devices work side by side, so
+ * the batch takes as long as its busiest device.
+ */
+public class ExecutionPlan {
+
+    private final List<Entry> entries;
+    private final Map<String, DeviceLoad> devices;
+
+    private ExecutionPlan(List<Entry> entries, Map<String, DeviceLoad> devices) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.devices = Collections.unmodifiableMap(devices);
+    }
+
+    /**
+     * @param replays    the replays of the batch
+     * @param duplicates copies of a replay left out of the batch, mapped to their original
+     * @param linkDuplicates whether the duplicates get the result of their original, otherwise they are skipped
+     */
+    public static ExecutionPlan create(ReplayProcessor processor, List<File> replays, Map<File, File> duplicates,
+                                       boolean linkDuplicates, ThroughputHistory history) {
+        Planner planner = new Planner(processor, history);
+        for (File replay : replays) {
+            planner.planReplay(replay);
+        }
+        for (Map.Entry<File, File> duplicate : duplicates.entrySet()) {
+            planner.planDuplicate(duplicate.getKey(), duplicate.getValue(), linkDuplicates);
+        }
+        return new ExecutionPlan(planner.entries, planner.devices);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Load of every device a replay is read from or written to, in the order they were first used.
+     */
+    public Map<String, DeviceLoad> getDevices() {
+        return devices;
+    }
+
+    public Map<JobAction, Integer> getActionCounts() {
+        Map<JobAction, Integer> counts = new EnumMap<>(JobAction.class);
+        for (Entry entry : entries) {
+            counts.merge(entry.action, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Expected duration of the batch: the time of the device with the most work.
+     */
+    public double getEstimatedSeconds() {
+        double seconds = 0;
+        for (DeviceLoad device : devices.values()) {
+            seconds = Math.max(seconds, device.estimatedSeconds);
+        }
+        return seconds;
+    }
+
+    // e.g. "3 merge, 1 link, about 2:05"
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<JobAction, Integer> count : getActionCounts().entrySet()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(count.getValue()).append(' ').append(count.getKey().getName());
+        }
+        return summary.append(", about ").append(formatDuration(getEstimatedSeconds())).toString();
+    }
+
+    // e.g. "2:05" or "1:02:05"
+    static String formatDuration(double seconds) {
+        long total = Math.round(seconds);
+        if (total >= 3600) {
+            return String.format("%d:%02d:%02d", total / 3600, total / 60 % 60, total % 60);
+        }
+        return String.format("%d:%02d", total / 60, total % 60);
+    }
+
+    /**
+     * Works out the entries and keeps the device of every folder, which costs a file store lookup.
+     */
+    private static final class Planner {
+
+        private final ReplayProcessor processor;
+        private final ProcessingConfig processingConfig;
+        private final ThroughputHistory history;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<String, DeviceLoad> devices = new LinkedHashMap<>();
+        private final Map<File, String> devicesByFolder = new HashMap<>();
+
+        private Planner(ReplayProcessor processor, ThroughputHistory history) {
+            this.processor = processor;
+            this.processingConfig = processor.getProcessingConfig();
+            this.history = history;
+        }
+
+        private void planReplay(File replay) {
+            File microphoneTrack = ReplayUtils.getMicrophoneTrack(replay);
+            File output = processor.getOutputFile(replay);
+            String replayDevice = deviceOf(replay);
+            if (!microphoneTrack.exists()) {
+                if (processor.isReplaceSourceReplaysSelected()) {
+                    add(new Entry(replay, null, JobAction.SKIP, replayDevice, replayDevice, 0, 0));
+                } else {
+                    planPlacement(replay, null, replay, output);
+                }
+            } else if (processor.isReplaceSourceReplaysSelected() && processingConfig.isAppendInPlace()) {
+                add(new Entry(replay, null, JobAction.APPEND, replayDevice, replayDevice, microphoneTrack.length(), microphoneTrack.length()));
+            } else {
+                long bytes = replay.length() + microphoneTrack.length();
+                add(new Entry(replay, null, JobAction.MERGE, replayDevice, deviceOf(output), bytes, bytes));
+            }
+        }
+
+        private void planDuplicate(File duplicate, File original, boolean link) {
+            if (!link) {
+                String device = deviceOf(duplicate);
+                add(new Entry(duplicate, original, JobAction.SKIP, device, device, 0, 0));
+                return;
+            }
+            // The duplicate gets the result of the original, see ReplayProcessor.linkDuplicate
+            File result = processor.getResultFile(original);
+            File microphoneTrack = ReplayUtils.getMicrophoneTrack(original);
+            long resultSize = original.length() + (microphoneTrack.exists() ? microphoneTrack.length() : 0);
+            planPlacement(duplicate, original, result, processor.getOutputFile(duplicate), resultSize);
+        }
+
+        private void planPlacement(File replay, File original, File source, File target) {
+            planPlacement(replay, original, source, target, source.length());
+        }
+
+        // Mirrors FileLinker: links and reflinks need source and target on the same device, symbolic links do not
+        private void planPlacement(File replay, File original, File source, File target, long size) {
+            String sourceDevice = deviceOf(source);
+            String targetDevice = deviceOf(target);
+            CopyStrategy strategy = processingConfig.getCopyStrategy();
+            boolean sameDevice = sourceDevice.equals(targetDevice);
+            boolean linked;
+            switch (strategy) {
+                case SYMBOLIC_LINK:
+                    linked = true;
+                    break;
+                case HARD_LINK:
+                    linked = sameDevice;
+                    break;
+                case AUTO:
+                    // Hard links are the fallback when originals are not replaced
+                    linked = sameDevice && (FileLinker.isReflinkAvailable() || !processor.isReplaceSourceReplaysSelected());
+                    break;
+                case REFLINK:
+                    linked = sameDevice && FileLinker.isReflinkAvailable();
+                    break;
+                default:
+                    linked = false;
+                    break;
+            }
+            if (linked) {
+                add(new Entry(replay, original, JobAction.LINK, sourceDevice, targetDevice, 0, 0));
+            } else {
+                add(new Entry(replay, original, JobAction.COPY, sourceDevice, targetDevice, size, size));
+            }
+        }
+
+        private void add(Entry entry) {
+            // Skipped duplicates are not even looked at
+            boolean untouched = entry.duplicateOf != null && entry.action == JobAction.SKIP;
+            entry.estimatedSeconds = untouched ? 0 : history.estimateSeconds(entry.action, entry.writeDevice, entry.bytesWritten);
+            entries.add(entry);
+            device(entry.readDevice).bytesRead += entry.bytesRead;
+            DeviceLoad writeDevice = device(entry.writeDevice);
+            writeDevice.bytesWritten += entry.bytesWritten;
+            writeDevice.estimatedSeconds += entry.estimatedSeconds;
+        }
+
+        private DeviceLoad device(String name) {
+            return devices.computeIfAbsent(name, DeviceLoad::new);
+        }
+
+        private String deviceOf(File file) {
+            return devicesByFolder.computeIfAbsent(file.getAbsoluteFile().getParentFile(), DeviceScheduler::deviceName);
+        }
+    }
+
+    /**
+     * The planned action of one replay.
+     */
+    public static final class Entry {
+
+        private final File replay;
+        private final File duplicateOf;
+        private final JobAction action;
+        private final String readDevice;
+        private final String writeDevice;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private double estimatedSeconds;
+
+        private Entry(File replay, File duplicateOf, JobAction action, String readDevice, String writeDevice, long bytesRead, long bytesWritten) {
+            this.replay = replay;
+            this.duplicateOf = duplicateOf;
+            this.action = action;
+            this.readDevice = readDevice;
+            this.writeDevice = writeDevice;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+        }
+
+        public File getReplay() {
+            return replay;
+        }
+
+        /**
+         * The replay this one is a copy of, null if it is processed itself.
+         */
+        public File getDuplicateOf() {
+            return duplicateOf;
+        }
+
+        public JobAction getAction() {
+            return action;
+        }
+
+        public String getWriteDevice() {
+            return writeDevice;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public double getEstimatedSeconds() {
+            return estimatedSeconds;
+        }
+    }
+
+    /**
+     * Bytes read from and written to a device and the time the writes are expected to take.
+     */
+    public static final class DeviceLoad {
+
+        private final String name;
+        private long bytesRead;
+        private long bytesWritten;
+        private double estimatedSeconds;
+
+        private DeviceLoad(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public double getEstimatedSeconds() {
+            return estimatedSeconds;
+        }
+    }
+}
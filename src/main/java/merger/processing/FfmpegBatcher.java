@@ -0,0 +1,235 @@
+package merger.processing;
+
+import merger.ffmpeg.FfmpegExitException;
+import merger.ffmpeg.FfmpegProcess;
+import merger.util.ProcessingLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Merges the replays of several worker threads with a single FFmpeg run.
+ * <p>
+ * Starting FFmpeg costs more than stream copying a short instant replay. A worker that needs
+ * FFmpeg opens a batch and waits up to {@link #LINGER_MS} for other workers to join it, then
+ * starts one FFmpeg process with one output per replay while the others wait for its result.
+ * <p>
+ * FFmpeg stops all outputs when one input cannot be read, so a failed run cannot be attributed
+ * to a single replay. Each worker is then told to merge its replay on its own; the outputs of
+ * the failed run are deleted first. This way a broken replay only fails itself.
+ */
+class FfmpegBatcher {
+
+    // How long the first replay of a batch waits for more replays to join
+    static final long LINGER_MS = 250;
+
+    private final ProcessingConfig processingConfig;
+    private final Set<Process> runningProcesses;
+    private final BooleanSupplier shutdownRequested;
+
+    // Batch that is still accepting replays, guarded by this
+    private Batch openBatch;
+
+    /**
+     * @param runningProcesses started FFmpeg processes are registered here so a shutdown can terminate them
+     */
+    FfmpegBatcher(ProcessingConfig processingConfig, Set<Process> runningProcesses, BooleanSupplier shutdownRequested) {
+        this.processingConfig = processingConfig;
+        this.runningProcesses = runningProcesses;
+        this.shutdownRequested = shutdownRequested;
+    }
+
+    /**
+     * Merge the replay together with the replays of other workers.
+     *
+     * @param progress tracker of the replay, its expected size must already be set
+     * @return true if the output has been written, false if the caller has to merge the replay on its own
+     */
+    boolean merge(File replayFile, File microphoneTrack, File outputFile, ReplayProgressTracker progress) throws InterruptedException {
+        int maxBatchSize = Math.min(processingConfig.getFfmpegBatchSize(), processingConfig.getConcurrency());
+        if (maxBatchSize < 2) {
+            return false;
+        }
+
+        Entry entry = new Entry(replayFile, microphoneTrack, outputFile, progress);
+        Batch batch;
+        boolean leader;
+        synchronized (this) {
+            leader = openBatch == null;
+            if (leader) {
+                openBatch = new Batch();
+            }
+            batch = openBatch;
+            batch.entries.add(entry);
+            if (batch.entries.size() >= maxBatchSize) {
+                openBatch = null;
+                notifyAll();
+            }
+        }
+
+        if (leader) {
+            List<Entry> entries;
+            try {
+                entries = awaitBatch(batch);
+            } catch (InterruptedException e) {
+                // Release the workers that already joined, they fall back to merging on their own
+                completeAll(batch.entries, false);
+                throw e;
+            }
+            if (entries.size() > 1) {
+                run(entries);
+            } else {
+                entry.complete(false);
+            }
+        }
+        entry.done.await();
+        return entry.merged;
+    }
+
+    /**
+     * Wait for other replays to join the batch and close it.
+     */
+    private synchronized List<Entry> awaitBatch(Batch batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LINGER_MS;
+        try {
+            long remaining;
+            while (openBatch == batch && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } finally {
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+        }
+        return batch.entries;
+    }
+
+    private void run(List<Entry> entries) throws InterruptedException {
+        long batchExpectedBytes = 0;
+        for (Entry entry : entries) {
+            batchExpectedBytes += entry.expectedBytes;
+        }
+        long expectedBytes = Math.max(1, batchExpectedBytes);
+
+        ProcessingLogger.info("Merging " + entries.size() + " replays with one FFmpeg run");
+        FfmpegProcess ffmpeg;
+        try {
+            // FFmpeg reports the size of all outputs together, it is split up by the expected sizes
+            ffmpeg = FfmpegProcess.start(createArguments(entries), "batch-" + entries.get(0).replayFile.getName(),
+                    (totalSize, outTimeMicros, speed, ended) -> {
+                        for (Entry entry : entries) {
+                            entry.progress.update((long) ((double) totalSize * entry.expectedBytes / expectedBytes), outTimeMicros, speed, false);
+                        }
+                    });
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to start FFmpeg for " + entries.size() + " replays (" + e.getMessage() + "), merging them separately");
+            completeAll(entries, false);
+            return;
+        }
+        runningProcesses.add(ffmpeg.getProcess());
+
+        try {
+            // A shutdown may have been requested between starting the process and registering it
+            if (shutdownRequested.getAsBoolean()) {
+                ffmpeg.destroy();
+            }
+            ffmpeg.waitForSuccess(processingConfig);
+            processingConfig.getMetrics().getFfmpegBatches().increment();
+            for (Entry entry : entries) {
+                // Every output should exist after a successful run; a missing one is merged again on its own
+                boolean written = entry.outputFile.length() > 0;
+                if (written) {
+                    entry.progress.update(entry.outputFile.length(), ReplayProgress.UNKNOWN_OUT_TIME, Double.NaN, true);
+                }
+                entry.complete(written);
+            }
+        } catch (FfmpegExitException e) {
+            if (!shutdownRequested.getAsBoolean()) {
+                ProcessingLogger.warn("FFmpeg failed to merge " + entries.size() + " replays at once (" + e.getMessage() + "), merging them separately");
+            }
+            deleteOutputs(entries);
+            completeAll(entries, false);
+        } catch (InterruptedException e) {
+            // Do not leave an orphaned FFmpeg process behind when the worker is interrupted
+            ffmpeg.destroy();
+            deleteOutputs(entries);
+            completeAll(entries, false);
+            throw e;
+        } finally {
+            runningProcesses.remove(ffmpeg.getProcess());
+        }
+    }
+
+    private static List<String> createArguments(List<Entry> entries) {
+        List<String> arguments = new ArrayList<>(Arrays.asList("-nostdin", "-y"));
+        for (Entry entry : entries) {
+            arguments.add("-i");
+            arguments.add(entry.replayFile.getAbsolutePath());
+            arguments.add("-i");
+            arguments.add(entry.microphoneTrack.getAbsolutePath());
+        }
+        // Output options apply to the output that follows them: the replay and microphone track of entry i
+        for (int i = 0; i < entries.size(); i++) {
+            arguments.addAll(Arrays.asList(
+                    "-map", String.valueOf(2 * i),
+                    "-map", String.valueOf(2 * i + 1),
+                    "-c", "copy",
+                    entries.get(i).outputFile.getAbsolutePath()));
+        }
+        return arguments;
+    }
+
+    private static void deleteOutputs(List<Entry> entries) {
+        for (Entry entry : entries) {
+            try {
+                Files.deleteIfExists(entry.outputFile.toPath());
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to delete incomplete output " + entry.outputFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void completeAll(List<Entry> entries, boolean merged) {
+        for (Entry entry : entries) {
+            entry.complete(merged);
+        }
+    }
+
+    private static final class Batch {
+        private final List<Entry> entries = new ArrayList<>();
+    }
+
+    /**
+     * One replay of a batch and the result its worker is waiting for.
+     */
+    private static final class Entry {
+
+        private final File replayFile;
+        private final File microphoneTrack;
+        private final File outputFile;
+        private final ReplayProgressTracker progress;
+        private final long expectedBytes;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean merged;
+
+        private Entry(File replayFile, File microphoneTrack, File outputFile, ReplayProgressTracker progress) {
+            this.replayFile = replayFile;
+            this.microphoneTrack = microphoneTrack;
+            this.outputFile = outputFile;
+            this.progress = progress;
+            this.expectedBytes = replayFile.length() + microphoneTrack.length();
+        }
+
+        private void complete(boolean merged) {
+            this.merged = merged;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package merger.processing;
+
+import java.util.Locale;
+
+/**
+ * What processing a replay amounts to, as planned by {@link ExecutionPlan} and measured by {@link ThroughputHistory}.
+ */
+public enum JobAction {
+
+    /**
+     * The microphone track is stream copied into a new file together with the replay.
+     */
+    MERGE,
+
+    /**
+     * The microphone track is appended to the original replay in place.
+     */
+    APPEND,
+
+    /**
+     * The replay is copied to the output folder unchanged.
+     */
+    COPY,
+
+    /**
+     * The replay is linked into the output folder, only metadata is written.
+     */
+    LINK,
+
+    /**
+     * Nothing is written.
+     */
+    SKIP;
+
+    /**
+     * Whether the duration depends on the amount of data; links and skips take about the same time for any replay.
+     */
+    public boolean movesData() {
+        return this == MERGE || this == APPEND || this == COPY;
+    }
+
+    /**
+     * Lower case name used in the history file and in the JSON events.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The action with the given {@link #getName() name}.
+     */
+    static JobAction forName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
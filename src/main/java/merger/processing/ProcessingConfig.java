@@ -1,10 +1,14 @@
 package merger.processing;
 
+import merger.util.CopyStrategy;
+import merger.util.PauseGate;
+
 /**
  * Configuration class for replay processing parameters.
- * Simple pause/resume logic for local single-threaded processing.
+ * Simple pause/resume logic shared by all processing worker threads; it is also passed to the
+ * copy loops and FFmpeg as a {@link PauseGate}, so a pause applies within a running replay.
  */
-public class ProcessingConfig {
+public class ProcessingConfig implements PauseGate {
 
     // Minimum free disk space required before processing (in MB)
     public static final long MIN_FREE_SPACE_MB = 500;
@@ -12,9 +16,89 @@ public class ProcessingConfig {
     // Pause/resume check interval in milliseconds
     public static final long PAUSE_CHECK_INTERVAL_MS = 100;
 
+    // Upper bound for the number of replays processed at the same time
+    public static final int MAX_CONCURRENCY = 16;
+
+    // Stream copying is I/O bound, so only a few parallel jobs are needed to keep the disks busy
+    public static final int DEFAULT_CONCURRENCY = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    // Upper bound for the number of replays FFmpeg merges in one run, 1 starts FFmpeg for every replay
+    public static final int DEFAULT_FFMPEG_BATCH_SIZE = 8;
+
+    private final int concurrency;
+
+    // How replays without a microphone track are placed into the output folder
+    private CopyStrategy copyStrategy = CopyStrategy.AUTO;
+
+    // When replacing originals, append the microphone track to the replay instead of rewriting it
+    private boolean appendInPlace = true;
+
+    // Replays that need FFmpeg at the same time are merged by one FFmpeg run of up to this many replays
+    private int ffmpegBatchSize = DEFAULT_FFMPEG_BATCH_SIZE;
+
+    // Read sampled blocks of copied replays back and compare them with the originals; merged outputs are always checked
+    private boolean sampledVerification = false;
+
     private boolean pauseRequested = false;
     private final Object pauseLock = new Object();
 
+    // Counters and timings of the run using this configuration
+    private final ProcessingMetrics metrics = new ProcessingMetrics();
+
+    public ProcessingConfig() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param concurrency number of replays that may be processed in parallel, clamped to [1, MAX_CONCURRENCY]
+     */
+    public ProcessingConfig(int concurrency) {
+        this.concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, concurrency));
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public CopyStrategy getCopyStrategy() {
+        return copyStrategy;
+    }
+
+    public void setCopyStrategy(CopyStrategy copyStrategy) {
+        this.copyStrategy = copyStrategy;
+    }
+
+    public boolean isAppendInPlace() {
+        return appendInPlace;
+    }
+
+    public void setAppendInPlace(boolean appendInPlace) {
+        this.appendInPlace = appendInPlace;
+    }
+
+    public boolean isSampledVerification() {
+        return sampledVerification;
+    }
+
+    public void setSampledVerification(boolean sampledVerification) {
+        this.sampledVerification = sampledVerification;
+    }
+
+    public int getFfmpegBatchSize() {
+        return ffmpegBatchSize;
+    }
+
+    /**
+     * @param ffmpegBatchSize maximum number of replays per FFmpeg run, 1 disables batching
+     */
+    public void setFfmpegBatchSize(int ffmpegBatchSize) {
+        this.ffmpegBatchSize = Math.max(1, ffmpegBatchSize);
+    }
+
+    public ProcessingMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Request pause of processing. Processing will pause at the next safe point.
      */
@@ -34,6 +118,13 @@ public class ProcessingConfig {
         }
     }
 
+    @Override
+    public boolean isPauseRequested() {
+        synchronized (pauseLock) {
+            return pauseRequested;
+        }
+    }
+
     /**
      * Check if pause is requested and wait if needed.
      * @throws InterruptedException if the thread is interrupted while waiting
@@ -45,5 +136,9 @@ public class ProcessingConfig {
             }
         }
     }
-}
 
+    @Override
+    public void awaitResume() throws InterruptedException {
+        checkAndWaitIfPaused();
+    }
+}
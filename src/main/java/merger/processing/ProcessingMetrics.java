@@ -0,0 +1,188 @@
+package merger.processing;
+
+import merger.metrics.Counter;
+import merger.metrics.Histogram;
+import merger.metrics.MetricsRegistry;
+import merger.util.AppDataDirectory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counters and per-stage timings of one processing run.
+ * <p>
+ * At the end of a run the metrics are written to the `metrics` folder of the app data directory
+ * as `run-<timestamp>.json` and `run-<timestamp>.prom` (Prometheus text format). Both carry the
+ * host name and app version so runs on different machines and versions can be compared.
+ */
+public class ProcessingMetrics {
+
+    public static final String METRICS_DIRECTORY = "metrics";
+
+    private static final String PREFIX = "relive_merger_";
+
+    /**
+     * Stages of processing a replay that are timed separately.
+     */
+    public enum Stage {
+        // Searching the input folder for replays
+        SCAN("scan"),
+        // Time a replay waited for a free worker
+        QUEUE_WAIT("queue_wait"),
+        // Reading the MP4 headers of a replay and its microphone track
+        PROBE("probe"),
+        // Reserving disk space, including the time a replay was held back because the disk was full
+        DISK_CHECK("disk_check"),
+        // Remuxing, appending in place or running FFmpeg
+        MUX("mux"),
+        // Linking or copying replays without a microphone track
+        COPY("copy"),
+        // Checking the merged or copied output
+        VERIFY("verify"),
+        // Replacing the original replay with the merged one
+        REPLACE("replace"),
+        // Deleting microphone tracks
+        DELETE("delete"),
+        // Whole processing of a single replay
+        TOTAL("total");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final Map<Stage, Histogram> stageDurations = new LinkedHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+
+    private final Counter replaysProcessed = registry.counter(PREFIX + "replays_processed_total", "Replays processed successfully.");
+    private final Counter replaysFailed = registry.counter(PREFIX + "replays_failed_total", "Replays that could not be processed.");
+    private final Counter replaysCancelled = registry.counter(PREFIX + "replays_cancelled_total", "Replays whose processing was cancelled.");
+    private final Counter replaysScanned = registry.counter(PREFIX + "replays_scanned_total", "Unprocessed replays found by the scan.");
+    private final Counter replaysAlreadyMerged = registry.counter(PREFIX + "replays_already_merged_total", "Replays left alone because they already contain their microphone track.");
+    private final Counter replaysDuplicate = registry.counter(PREFIX + "replays_duplicate_total", "Replays left out by the scan because they are copies of another replay.");
+    private final Counter ffmpegFallbacks = registry.counter(PREFIX + "ffmpeg_fallbacks_total", "Replays the in-process remuxer could not handle.");
+    private final Counter ffmpegBatches = registry.counter(PREFIX + "ffmpeg_batches_total", "FFmpeg runs that merged several replays at once.");
+    private final Counter bytesRead = registry.counter(PREFIX + "bytes_read_total", "Bytes of replays and microphone tracks read.");
+    private final Counter bytesWritten = registry.counter(PREFIX + "bytes_written_total", "Bytes written to merged or copied replays.");
+
+    public ProcessingMetrics() {
+        for (Stage stage : Stage.values()) {
+            stageDurations.put(stage, registry.histogram(PREFIX + "stage_duration_seconds", "stage", stage.label,
+                    "Duration of the processing stages per replay."));
+        }
+    }
+
+    public Histogram stage(Stage stage) {
+        return stageDurations.get(stage);
+    }
+
+    /**
+     * Record the time spent in `stage` since `startNanos`, a value of System.nanoTime().
+     */
+    public void recordStage(Stage stage, long startNanos) {
+        stageDurations.get(stage).recordSince(startNanos);
+    }
+
+    public Counter getReplaysProcessed() {
+        return replaysProcessed;
+    }
+
+    public Counter getReplaysFailed() {
+        return replaysFailed;
+    }
+
+    public Counter getReplaysCancelled() {
+        return replaysCancelled;
+    }
+
+    public Counter getReplaysScanned() {
+        return replaysScanned;
+    }
+
+    public Counter getReplaysAlreadyMerged() {
+        return replaysAlreadyMerged;
+    }
+
+    public Counter getReplaysDuplicate() {
+        return replaysDuplicate;
+    }
+
+    public Counter getFfmpegFallbacks() {
+        return ffmpegFallbacks;
+    }
+
+    public Counter getFfmpegBatches() {
+        return ffmpegBatches;
+    }
+
+    public Counter getBytesRead() {
+        return bytesRead;
+    }
+
+    public Counter getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String toJson() {
+        return registry.toJson(describeRun());
+    }
+
+    public String toPrometheusText() {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("host", getHostName());
+        labels.put("version", getVersion());
+        return registry.toPrometheusText(labels);
+    }
+
+    /**
+     * Write the JSON and Prometheus snapshots of this run to the metrics folder.
+     *
+     * @return the path of the JSON snapshot
+     */
+    public Path export() throws IOException {
+        Path directory = AppDataDirectory.resolve(METRICS_DIRECTORY);
+        Files.createDirectories(directory);
+        String baseName = "run-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date(startMillis));
+
+        Path json = directory.resolve(baseName + ".json");
+        Files.write(json, toJson().getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(baseName + ".prom"), toPrometheusText().getBytes(StandardCharsets.UTF_8));
+        return json;
+    }
+
+    private Map<String, String> describeRun() {
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put("host", getHostName());
+        info.put("version", getVersion());
+        info.put("java", System.getProperty("java.version"));
+        info.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        info.put("startedAt", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ROOT).format(new Date(startMillis)));
+        info.put("durationSeconds", String.format(Locale.ROOT, "%.1f", (System.currentTimeMillis() - startMillis) / 1000.0));
+        return info;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            String hostName = System.getenv("COMPUTERNAME");
+            return hostName != null ? hostName : "unknown";
+        }
+    }
+
+    private static String getVersion() {
+        String version = ProcessingMetrics.class.getPackage().getImplementationVersion();
+        return version != null ? version : "unknown";
+    }
+}
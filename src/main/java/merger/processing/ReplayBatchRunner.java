@@ -0,0 +1,295 @@
+package merger.processing;
+
+import merger.processing.DeviceScheduler.Job;
+import merger.processing.ProcessingMetrics.Stage;
+import merger.util.IoThreads;
+import merger.util.ProcessingLogger;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@link ReplayProcessor} for many replays on a bounded pool of worker threads.
+ * <p>
+ * This is the processing pipeline shared by the UI and the headless entry point; it knows
+ * nothing about how progress is presented and reports every state change to a {@link Listener}.
+ * At most {@link ProcessingConfig#getConcurrency()} replays are processed at the same time.
+ * Within that limit a batch is spread over the devices the replays are stored on by a
+ * {@link DeviceScheduler}, which finds out how many parallel jobs each device can take.
+ * The workers are {@link IoThreads}, virtual threads on Java 21 and newer.
+ * <p>
+ * Pause is applied before a replay is dispatched and again by the processor before it starts
+ * its work. The worker reserves the disk space of its replay before it starts; while the disk is
+ * short on space the worker waits until running jobs have finished, in the slot of its device,
+ * so replays of other devices keep being dispatched. On shutdown no
+ * further replays are dispatched, running FFmpeg processes are terminated and the worker
+ * threads are interrupted.
+ * <p>
+ * The whole batch is recorded as planned in the job journal before the first replay starts.
+ * The throughput the jobs reached is stored in the {@link ThroughputHistory} when the batch ends.
+ */
+public class ReplayBatchRunner {
+
+    /**
+     * Receives progress events. Methods are called from worker threads.
+     */
+    public interface Listener {
+
+        default void replayStarted(File replay) {
+        }
+
+        /**
+         * Called repeatedly while a replay is written, at most a few times per second.
+         */
+        default void replayProgress(ReplayProgress progress) {
+        }
+
+        default void replayCompleted(File replay) {
+        }
+
+        default void replayFailed(File replay, Exception error) {
+        }
+
+        default void replayCancelled(File replay) {
+        }
+    }
+
+    private final ReplayProcessor processor;
+    private final ProcessingConfig processingConfig;
+    private final Listener listener;
+    private final ExecutorService workers;
+    private final Semaphore freeWorkers;
+
+    private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
+    private final ProcessingMetrics metrics;
+
+    // Thread currently blocked in run(), interrupted on shutdown so it stops waiting
+    private volatile Thread coordinatorThread;
+
+    public ReplayBatchRunner(ReplayProcessor processor, ProcessingConfig processingConfig, Listener listener) {
+        this.processor = processor;
+        this.processingConfig = processingConfig;
+        this.listener = listener;
+        this.metrics = processingConfig.getMetrics();
+        this.workers = Executors.newFixedThreadPool(processingConfig.getConcurrency(), IoThreads.factory("ReplayProcessingWorker"));
+        this.freeWorkers = new Semaphore(processingConfig.getConcurrency());
+    }
+
+    /**
+     * Process all replays in order and block until they are done or processing was shut down.
+     * The worker pool is shut down afterwards, so a runner can only run one batch.
+     */
+    public void run(List<File> replays) {
+        coordinatorThread = Thread.currentThread();
+        // All replays of the batch are queued when the batch starts
+        long enqueuedNanos = System.nanoTime();
+        processor.planJobs(replays);
+        DeviceScheduler scheduler = new DeviceScheduler(replays, processingConfig.getConcurrency());
+        try {
+            while (!shutdownRequested.get()) {
+                Job job;
+                try {
+                    // Check and wait if pause is requested, then wait until a worker is available
+                    // and until the device of one of the remaining replays can take another job
+                    processingConfig.checkAndWaitIfPaused();
+                    freeWorkers.acquire();
+                    job = scheduler.takeNext();
+                    if (job == null) {
+                        freeWorkers.release();
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    if (!shutdownRequested.get()) {
+                        ProcessingLogger.error("Processing interrupted: " + e.getMessage());
+                    }
+                    break;
+                }
+
+                if (shutdownRequested.get() || !dispatch(job, scheduler, enqueuedNanos)) {
+                    scheduler.finished(job, false);
+                    freeWorkers.release();
+                    break;
+                }
+            }
+
+            // No more replays will be dispatched; wait for the running ones to complete
+            workers.shutdown();
+            awaitWorkersTermination();
+        } finally {
+            coordinatorThread = null;
+            workers.shutdownNow();
+
+            // Jobs that are still running must not outlive the batch. After a complete batch the
+            // processor stays usable, e.g. to link duplicates to the results of their originals.
+            if (!workers.isTerminated()) {
+                processor.requestShutdown();
+            }
+            processor.saveThroughputHistory();
+        }
+    }
+
+    /**
+     * Queue a single replay for processing without blocking, e.g. for replays reported by a
+     * folder watcher. Call {@link #close()} once no more replays will be submitted.
+     */
+    public void submit(File replayFile) {
+        submit(replayFile, replay -> {});
+    }
+
+    /**
+     * Like {@link #submit(File)}, `whenDone` receives the replay once it is processed, failed,
+     * cancelled or rejected because processing has been stopped.
+     */
+    public void submit(File replayFile, Consumer<File> whenDone) {
+        long enqueuedNanos = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                try {
+                    processReplay(replayFile, enqueuedNanos);
+                    // Watched replays trickle in, so the history is kept up to date after each one
+                    processor.saveThroughputHistory();
+                } finally {
+                    whenDone.accept(replayFile);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ProcessingLogger.warn("Replay processing has been stopped, ignoring " + replayFile.getName());
+            whenDone.accept(replayFile);
+        }
+    }
+
+    /**
+     * Stop accepting replays; replays that are already queued or running are completed.
+     */
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * Wait until the replays that were submitted are done, after {@link #close()} or {@link #requestShutdown()}.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Request a graceful stop: nothing new is started and running jobs are terminated.
+     */
+    public void requestShutdown() {
+        shutdownRequested.set(true);
+        processor.requestShutdown();
+        workers.shutdownNow();
+
+        // Wake up the coordinator if it is waiting for a free worker or for a resume
+        Thread coordinator = coordinatorThread;
+        if (coordinator != null) {
+            coordinator.interrupt();
+        }
+    }
+
+    public boolean isShutdownRequested() {
+        return shutdownRequested.get();
+    }
+
+    public int getProcessedCount() {
+        return (int) metrics.getReplaysProcessed().get();
+    }
+
+    public int getFailedCount() {
+        return (int) metrics.getReplaysFailed().get();
+    }
+
+    public ProcessingMetrics getMetrics() {
+        return metrics;
+    }
+
+    private boolean dispatch(Job job, DeviceScheduler scheduler, long enqueuedNanos) {
+        try {
+            workers.execute(() -> {
+                boolean succeeded = false;
+                try {
+                    succeeded = processReplay(job.getReplay(), enqueuedNanos);
+                } finally {
+                    scheduler.finished(job, succeeded);
+                    freeWorkers.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Process a single replay on a worker thread and record the result.
+     * <p>
+     * InterruptedException is handled separately as it commonly signifies a requested
+     * shutdown; any other exception only fails this replay and does not abort the run.
+     *
+     * The processor reserves the disk space of the replay first and waits while it is short.
+     *
+     * @return true if the replay has been merged
+     */
+    private boolean processReplay(File replayFile, long enqueuedNanos) {
+        if (shutdownRequested.get()) {
+            return false;
+        }
+        metrics.recordStage(Stage.QUEUE_WAIT, enqueuedNanos);
+
+        try {
+            listener.replayStarted(replayFile);
+
+            // Process the replay file once (no retries) and update counters
+            processor.process(replayFile, listener::replayProgress);
+
+            metrics.getReplaysProcessed().increment();
+            listener.replayCompleted(replayFile);
+            return true;
+
+        } catch (InterruptedException e) {
+            ProcessingLogger.error("Processing interrupted: " + replayFile.getName());
+            if (shutdownRequested.get()) {
+                metrics.getReplaysCancelled().increment();
+                listener.replayCancelled(replayFile);
+                return false;
+            }
+            metrics.getReplaysFailed().increment();
+            listener.replayFailed(replayFile, e);
+            return false;
+
+        } catch (Exception e) {
+            // Generic exception for a single file should not abort the whole run; we record it
+            ProcessingLogger.error("Error processing: " + replayFile.getName() + " - " + e.getMessage(), e);
+            metrics.getReplaysFailed().increment();
+            listener.replayFailed(replayFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Block until all workers are done. If the coordinator is interrupted by a shutdown
+     * request we stop waiting; the caller then interrupts the remaining workers.
+     */
+    private void awaitWorkersTermination() {
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (shutdownRequested.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            if (!shutdownRequested.get()) {
+                ProcessingLogger.error("Interrupted while waiting for replay processing to finish: " + e.getMessage());
+            }
+        }
+    }
+}
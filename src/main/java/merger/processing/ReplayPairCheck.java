@@ -0,0 +1,124 @@
+package merger.processing;
+
+import merger.mp4.Mp4FormatException;
+import merger.mp4.Mp4Header;
+import merger.util.ProcessingLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Looks at the MP4 headers of a replay and its microphone track before anything is written,
+ * and at the headers of the merged output before the original is given up.
+ * <p>
+ * File names do not tell whether a replay has been merged by another tool or an older copy
+ * of this one. ReLive writes the game audio as the only audio track of the replay, so a replay
+ * with more audio tracks already carries the microphone. A truncated file fails the replay
+ * right away instead of after gigabytes have been written, and a microphone track whose
+ * duration differs from the replay is reported, as it will be out of sync.
+ * <p>
+ * Such a pair is still merged: the microphone may have been stopped a little later than the
+ * recording. The check of the output accepts the same pairs, it expects the video of the replay
+ * unchanged and the output as long as the longer of both inputs.
+ */
+final class ReplayPairCheck {
+
+    // Audio tracks of a replay as ReLive writes it; the microphone goes to the separate .m4a
+    static final int RELIVE_AUDIO_TRACKS = 1;
+
+    // Replay and microphone track start together but may end a little apart
+    static final long DURATION_TOLERANCE_MICROS = 2_000_000;
+
+    private final File replayFile;
+    private final Mp4Header replay;
+    // Null if the replay is already merged, the microphone track is not needed then
+    private final Mp4Header microphone;
+
+    private ReplayPairCheck(File replayFile, Mp4Header replay, Mp4Header microphone) {
+        this.replayFile = replayFile;
+        this.replay = replay;
+        this.microphone = microphone;
+    }
+
+    /**
+     * @throws Mp4FormatException if one of the files is truncated, incomplete or has no usable track
+     */
+    static ReplayPairCheck check(File replayFile, File microphoneTrack) throws IOException {
+        Mp4Header replay = Mp4Header.probe(replayFile);
+        if (replay.getAudioTrackCount() > RELIVE_AUDIO_TRACKS) {
+            return new ReplayPairCheck(replayFile, replay, null);
+        }
+
+        Mp4Header microphone = Mp4Header.probe(microphoneTrack);
+        if (microphone.getAudioTrackCount() == 0) {
+            throw new Mp4FormatException("Microphone track " + microphoneTrack.getName() + " contains no audio");
+        }
+        if (isDurationMismatch(replay, microphone)) {
+            ProcessingLogger.warn(String.format(Locale.ROOT, "Microphone track of %s is %.1f s long but the replay %.1f s, it is merged but may be out of sync",
+                    replayFile.getName(), microphone.getDurationMicros() / 1e6, replay.getDurationMicros() / 1e6));
+        }
+        return new ReplayPairCheck(replayFile, replay, microphone);
+    }
+
+    boolean isAlreadyMerged() {
+        return microphone == null;
+    }
+
+    /**
+     * Check that the merged output holds every track of both inputs and that its video is as long
+     * as the replay's.
+     *
+     * @throws IOException if the output is incomplete
+     */
+    void verifyOutput(File outputFile) throws IOException {
+        Mp4Header output;
+        try {
+            output = Mp4Header.probe(outputFile);
+        } catch (Mp4FormatException e) {
+            throw new IOException("Merged output of " + replayFile.getName() + " is damaged: " + e.getMessage());
+        }
+        verifyOutput(output);
+    }
+
+    /**
+     * Check the headers of a merged output that have already been read, e.g. the `moov` an
+     * append in place is about to commit.
+     *
+     * @throws IOException if the output is incomplete
+     */
+    void verifyOutput(Mp4Header output) throws IOException {
+        int expectedAudioTracks = replay.getAudioTrackCount() + microphone.getAudioTrackCount();
+        if (output.getVideoTrackCount() != replay.getVideoTrackCount() || output.getAudioTrackCount() != expectedAudioTracks) {
+            throw new IOException("Merged output of " + replayFile.getName() + " has " + output.getVideoTrackCount() + " video and "
+                    + output.getAudioTrackCount() + " audio tracks, expected " + replay.getVideoTrackCount() + " and " + expectedAudioTracks);
+        }
+        // The movie duration becomes the longer of video and microphone, the video must stay as it was
+        if (isMismatch(replay.getVideoDurationMicros(), output.getVideoDurationMicros())) {
+            throw new IOException(String.format(Locale.ROOT, "Video of the merged output of %s is %.1f s long instead of %.1f s",
+                    replayFile.getName(), output.getVideoDurationMicros() / 1e6, replay.getVideoDurationMicros() / 1e6));
+        }
+        long expectedDuration = getExpectedDurationMicros();
+        if (isMismatch(expectedDuration, output.getDurationMicros())) {
+            throw new IOException(String.format(Locale.ROOT, "Merged output of %s is %.1f s long instead of %.1f s",
+                    replayFile.getName(), output.getDurationMicros() / 1e6, expectedDuration / 1e6));
+        }
+    }
+
+    // A microphone track that is longer or shorter than the replay is accepted by check(), the output is as long as the longer one
+    private long getExpectedDurationMicros() {
+        if (replay.getDurationMicros() == Mp4Header.UNKNOWN_DURATION || microphone.getDurationMicros() == Mp4Header.UNKNOWN_DURATION) {
+            return Mp4Header.UNKNOWN_DURATION;
+        }
+        return Math.max(replay.getDurationMicros(), microphone.getDurationMicros());
+    }
+
+    private static boolean isDurationMismatch(Mp4Header first, Mp4Header second) {
+        return isMismatch(first.getDurationMicros(), second.getDurationMicros());
+    }
+
+    private static boolean isMismatch(long firstMicros, long secondMicros) {
+        return firstMicros != Mp4Header.UNKNOWN_DURATION && secondMicros != Mp4Header.UNKNOWN_DURATION
+                && Math.abs(firstMicros - secondMicros) > DURATION_TOLERANCE_MICROS;
+    }
+}
@@ -1,32 +1,97 @@
 package merger.processing;
 
+import merger.ffmpeg.FfmpegExitException;
+import merger.ffmpeg.FfmpegProcess;
+import merger.mp4.Mp4FormatException;
+import merger.mp4.Mp4Remuxer;
+import merger.mp4.Mp4SampleCheck;
+import merger.processing.DiskSpaceReservations.Reservation;
+import merger.processing.ProcessingMetrics.Stage;
+import merger.util.CopyStrategy;
+import merger.util.FileLinker;
+import merger.util.JobJournal;
+import merger.util.JobJournal.Job;
+import merger.util.JobJournal.Step;
+import merger.util.ProcessedReplayLedger;
 import merger.util.ProcessingLogger;
+import merger.util.ReplayUtils;
+import merger.util.SampledFileHash;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class ReplayProcessor {
 
     private final File outputDirectory;
-    private final File inputDirectory;
+    // Folders the replays were scanned from; there may be several, e.g. one per drive
+    private final List<File> inputDirectories;
     private final boolean replaceSourceReplays;
     private final boolean deleteMicrophoneTracks;
     private final ProcessingConfig processingConfig;
+    // Ledger of merged replays so later runs can skip them, may be null
+    private final ProcessedReplayLedger ledger;
+    // Write-ahead journal of the job steps so an interrupted run can be recovered, may be null
+    private final JobJournal journal = JobJournal.getDefault();
+    // Measured throughput per action and device, for the estimates of later batches
+    private final ThroughputHistory throughputHistory = ThroughputHistory.getDefault();
+    private final DiskSpaceReservations diskSpaceReservations = DiskSpaceReservations.getDefault();
     private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
-    private volatile Process currentProcess = null;
+    // FFmpeg processes of all replays that are currently being processed by worker threads
+    private final Set<Process> runningProcesses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // Lets replays that need FFmpeg at the same time share one FFmpeg run
+    private final FfmpegBatcher ffmpegBatcher;
 
-    public ReplayProcessor(File outputDirectory, File inputDirectory, boolean replaceSourceReplays, boolean deleteMicrophoneTracks, ProcessingConfig processingConfig) {
+    public ReplayProcessor(File outputDirectory, File inputDirectory, boolean replaceSourceReplays, boolean deleteMicrophoneTracks, ProcessingConfig processingConfig, ProcessedReplayLedger ledger) {
+        this(outputDirectory, Collections.singletonList(inputDirectory), replaceSourceReplays, deleteMicrophoneTracks, processingConfig, ledger);
+    }
+
+    public ReplayProcessor(File outputDirectory, List<File> inputDirectories, boolean replaceSourceReplays, boolean deleteMicrophoneTracks, ProcessingConfig processingConfig, ProcessedReplayLedger ledger) {
         this.outputDirectory = outputDirectory;
-        this.inputDirectory = inputDirectory;
+        this.inputDirectories = inputDirectories;
         this.replaceSourceReplays = replaceSourceReplays;
         this.deleteMicrophoneTracks = deleteMicrophoneTracks;
         this.processingConfig = processingConfig;
+        this.ledger = ledger;
+        this.ffmpegBatcher = new FfmpegBatcher(processingConfig, runningProcesses, shutdownRequested::get);
     }
 
     public void process(File replayFile) throws IOException, InterruptedException {
+        process(replayFile, progress -> {});
+    }
+
+    /**
+     * Process a replay and report how many bytes have been written while the job runs.
+     * The disk space needed by the replay is reserved for the duration of the job.
+     *
+     * @param progressListener receives progress snapshots on the calling thread or on an FFmpeg reader thread
+     */
+    public void process(File replayFile, Consumer<ReplayProgress> progressListener) throws IOException, InterruptedException {
+        try (Reservation reservation = reserveDiskSpace(replayFile)) {
+            process(replayFile, reservation, progressListener);
+        }
+    }
+
+    /**
+     * Process a replay whose disk space has already been reserved with {@link #reserveDiskSpace(File)}.
+     * The caller stays responsible for closing the reservation.
+     */
+    public void process(File replayFile, Reservation reservation, Consumer<ReplayProgress> progressListener) throws IOException, InterruptedException {
         // Check if shutdown was requested before starting
         if (shutdownRequested.get()) {
             throw new InterruptedException("Shutdown requested before processing file: " + replayFile.getName());
@@ -34,28 +99,203 @@ public class ReplayProcessor {
 
         // Check and wait if pause is requested
         processingConfig.checkAndWaitIfPaused();
-
-        // Validate available disk space before processing
-        validateDiskSpaceBeforeProcessing(replayFile);
+        long startNanos = System.nanoTime();
 
         String replayName = replayFile.getName();
-        String replayNameWithoutExtension = getFileNameWithoutExtension(replayName);
-        File microphoneTrack = new File(replayFile.getParent(), replayNameWithoutExtension + ".m4a");
-        File outputFile = prepareOutputFile(replayFile, replayNameWithoutExtension);
+        File microphoneTrack = ReplayUtils.getMicrophoneTrack(replayFile);
+        File outputFile = prepareOutputFile(replayFile);
 
-        if (microphoneTrack.exists()) {
-            embedMicrophoneTrackToReplay(replayFile, replayName, microphoneTrack, outputFile);
-        } else {
-            handleReplayWithNoMicrophoneTrack(replayFile, replayName, outputFile);
+        try {
+            ReplayPairCheck pairCheck = microphoneTrack.exists() ? checkReplayPair(replayFile, microphoneTrack) : null;
+            if (pairCheck == null) {
+                placeReplayWithoutMerging(replayFile, replayName, outputFile, "Replay does not contain a microphone track");
+            } else if (pairCheck.isAlreadyMerged()) {
+                getMetrics().getReplaysAlreadyMerged().increment();
+                placeReplayWithoutMerging(replayFile, replayName, outputFile, "Replay already contains its microphone track");
+            } else {
+                // Written bytes are already gone from the free space, they no longer need to be reserved
+                ReplayProgressTracker progress = new ReplayProgressTracker(replayFile, snapshot -> {
+                    reservation.setWrittenBytes(snapshot.getBytesWritten());
+                    progressListener.accept(snapshot);
+                });
+                embedMicrophoneTrackToReplay(replayFile, replayName, microphoneTrack, outputFile, pairCheck, reservation, progress);
+            }
+        } catch (IOException | RuntimeException e) {
+            // A cancelled job is left at its last step, recovery treats it like a crash
+            recordJobStep(replayFile, outputFile, Step.FAILED);
+            throw e;
+        }
+
+        recordProcessedReplay(replayFile);
+        recordJobStep(replayFile, outputFile, Step.FINISHED);
+        getMetrics().recordStage(Stage.TOTAL, startNanos);
+    }
+
+    /**
+     * Record the replays of a batch as planned in the job journal, so a run that is killed
+     * before it gets to them still knows they have to be processed.
+     */
+    public void planJobs(List<File> replayFiles) {
+        if (journal == null) {
+            return;
+        }
+        List<Job> jobs = new ArrayList<>(replayFiles.size());
+        for (File replayFile : replayFiles) {
+            jobs.add(createJob(replayFile, getOutputFile(replayFile)));
+        }
+        try {
+            journal.recordAll(jobs, Step.PLANNED);
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to record the planned replays in the job journal: " + e.getMessage());
         }
     }
 
+    /**
+     * Give a replay the scan found to be a copy of another one the result of that replay,
+     * linked (or copied, see {@link ProcessingConfig#getCopyStrategy()}) instead of merged again.
+     * Must be called after the original has been processed.
+     */
+    public void linkDuplicate(File duplicateFile, File originalFile) throws IOException {
+        File result = getResultFile(originalFile);
+        if (!result.isFile()) {
+            throw new IOException(originalFile.getName() + " has not been processed, " + duplicateFile + " is left alone");
+        }
+        File outputFile = prepareOutputFile(duplicateFile);
+        if (outputFile.getAbsoluteFile().equals(result.getAbsoluteFile())) {
+            // Both copies come from folders of the same name and share one output
+            recordProcessedReplay(duplicateFile);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        CopyStrategy usedStrategy = FileLinker.linkOrCopy(result.toPath(), outputFile.toPath(), processingConfig.getCopyStrategy(), isHardLinkAllowed(), shutdownRequested::get, processingConfig);
+        getMetrics().recordStage(Stage.COPY, startNanos);
+        recordThroughput(usedStrategy == CopyStrategy.COPY ? JobAction.COPY : JobAction.LINK, outputFile, outputFile.length(), startNanos);
+        if (isReplaceSourceReplaysSelected()) {
+            replaceSourceReplayWithProcessedReplay(duplicateFile, outputFile);
+            if (isDeleteMicrophoneTracksSelected()) {
+                ReplayUtils.getMicrophoneTrack(duplicateFile).delete();
+            }
+        }
+        recordProcessedReplay(duplicateFile);
+        ProcessingLogger.info("Linked duplicate " + duplicateFile + " to the result of " + originalFile.getName());
+    }
+
+    /**
+     * {@link #linkDuplicate(File, File) Link} every duplicate, failures are logged.
+     *
+     * @param duplicates copies of a replay mapped to their original
+     * @return number of duplicates that got the result of their original
+     */
+    public int linkDuplicates(Map<File, File> duplicates) {
+        int linked = 0;
+        for (Map.Entry<File, File> duplicate : duplicates.entrySet()) {
+            try {
+                linkDuplicate(duplicate.getKey(), duplicate.getValue());
+                linked++;
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to link duplicate " + duplicate.getKey().getName() + ": " + e.getMessage());
+            }
+        }
+        return linked;
+    }
+
+    /**
+     * Reserve the space the replay's output is expected to take on the target disk. Waits while
+     * running jobs hold the space and fails if the replay does not fit even without them.
+     */
+    public Reservation reserveDiskSpace(File replayFile) throws IOException, InterruptedException {
+        if (shutdownRequested.get()) {
+            throw new InterruptedException("Shutdown requested before processing file: " + replayFile.getName());
+        }
+
+        long startNanos = System.nanoTime();
+        Path location = isReplaceSourceReplaysSelected() || outputDirectory == null
+                ? replayFile.getAbsoluteFile().getParentFile().toPath()
+                : outputDirectory.toPath();
+        Reservation reservation = diskSpaceReservations.reserve(location, getExpectedOutputSize(replayFile));
+        getMetrics().recordStage(Stage.DISK_CHECK, startNanos);
+        return reservation;
+    }
+
+    private long getExpectedOutputSize(File replayFile) {
+        File microphoneTrack = ReplayUtils.getMicrophoneTrack(replayFile);
+        if (!microphoneTrack.exists()) {
+            // Replays without microphone track are left alone or placed in the output folder
+            return isReplaceSourceReplaysSelected() ? 0 : replayFile.length();
+        }
+        if (isReplaceSourceReplaysSelected() && processingConfig.isAppendInPlace()) {
+            return microphoneTrack.length();
+        }
+        // Stream copy: the output holds both inputs; when replacing, the original is only deleted afterwards
+        return replayFile.length() + microphoneTrack.length();
+    }
+
+    /**
+     * Remember the finished replay so the next scan can skip it. When replacing originals the
+     * replay itself is the result, otherwise the file written to the output folder.
+     */
+    private void recordProcessedReplay(File replayFile) {
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.recordProcessed(replayFile, getResultFile(replayFile));
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to record processed replay " + replayFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private Job createJob(File replayFile, File outputFile) {
+        return createJob(replayFile, outputFile, -1);
+    }
+
+    private Job createJob(File replayFile, File outputFile, long originalLength) {
+        return new Job(replayFile, outputFile, isReplaceSourceReplaysSelected(),
+                isReplaceSourceReplaysSelected() && isDeleteMicrophoneTracksSelected(), originalLength);
+    }
+
+    /**
+     * Append a step of the replay's job to the journal. Returns once the step is on disk.
+     */
+    private void recordJobStep(File replayFile, File outputFile, Step step) {
+        recordJobStep(createJob(replayFile, outputFile), step);
+    }
+
+    private void recordJobStep(Job job, Step step) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.record(job, step);
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to record " + job.getReplay().getName() + " in the job journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remember how long a job took on the device its output was written to.
+     */
+    private void recordThroughput(JobAction action, File outputFile, long bytesWritten, long startNanos) {
+        String device = DeviceScheduler.deviceName(outputFile.getAbsoluteFile().getParentFile());
+        throughputHistory.record(action, device, bytesWritten, startNanos, System.nanoTime());
+    }
+
+    /**
+     * Store the throughput measured by the jobs since the last call, see {@link ThroughputHistory#save()}.
+     */
+    void saveThroughputHistory() {
+        throughputHistory.save();
+    }
+
     public void requestShutdown() {
         shutdownRequested.set(true);
-        // Gracefully terminate the current FFmpeg process if running
-        if (currentProcess != null && currentProcess.isAlive()) {
-            ProcessingLogger.info("Terminating current FFmpeg process...");
-            currentProcess.destroy();
+        // Gracefully terminate all running FFmpeg processes
+        for (Process process : runningProcesses) {
+            if (process.isAlive()) {
+                ProcessingLogger.info("Terminating running FFmpeg process...");
+                process.destroy();
+            }
         }
     }
 
@@ -67,58 +307,261 @@ public class ReplayProcessor {
         return videoName.substring(0, videoName.lastIndexOf('.'));
     }
 
-    private void handleReplayWithNoMicrophoneTrack(File replayFile, String replayName, File outputFile) throws IOException {
+    /**
+     * Read the headers of both files to find replays that must not or need not be merged,
+     * before any data is written.
+     */
+    private ReplayPairCheck checkReplayPair(File replayFile, File microphoneTrack) throws IOException {
+        long startNanos = System.nanoTime();
+        ReplayPairCheck pairCheck = ReplayPairCheck.check(replayFile, microphoneTrack);
+        getMetrics().recordStage(Stage.PROBE, startNanos);
+        return pairCheck;
+    }
+
+    /**
+     * Check the headers of a merged output before it replaces or stands in for the original.
+     * An output that fails the check is deleted, unless it is the replay itself.
+     */
+    private void verifyMergedOutput(ReplayPairCheck pairCheck, File replayFile, File microphoneTrack, File outputFile, boolean compareSamples) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            pairCheck.verifyOutput(outputFile);
+            if (compareSamples) {
+                // The remuxer compares what it wrote itself, other muxers get a check of their samples
+                Mp4SampleCheck.verify(replayFile, microphoneTrack, outputFile);
+            }
+        } catch (IOException e) {
+            if (!outputFile.equals(replayFile)) {
+                Files.deleteIfExists(outputFile.toPath());
+            }
+            throw e;
+        } finally {
+            getMetrics().recordStage(Stage.VERIFY, startNanos);
+        }
+    }
+
+    /**
+     * Compare sampled blocks of a copied replay with the original.
+     */
+    private void verifyCopy(File replayFile, File outputFile) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            if (!SampledFileHash.compute(replayFile.toPath()).equals(SampledFileHash.compute(outputFile.toPath()))) {
+                Files.deleteIfExists(outputFile.toPath());
+                throw new IOException("Verification of the copy of " + replayFile.getName() + " failed, it differs from the replay");
+            }
+        } finally {
+            getMetrics().recordStage(Stage.VERIFY, startNanos);
+        }
+    }
+
+    /**
+     * Leave a replay that is not merged as it is, or place it in the output folder when copies are written.
+     *
+     * @param reason why the replay is not merged, for the log
+     */
+    private void placeReplayWithoutMerging(File replayFile, String replayName, File outputFile, String reason) throws IOException, InterruptedException {
         if (!isReplaceSourceReplaysSelected()) {
-            ProcessingLogger.info("Replay does not contain a microphone track, copying to output folder - " + replayName);
-            Files.copy(replayFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ProcessingLogger.info(reason + ", copying to output folder - " + replayName);
+            try {
+                recordJobStep(replayFile, outputFile, Step.STARTED);
+                long startNanos = System.nanoTime();
+                // The replay is not modified, so a link is sufficient when the output is on the same drive
+                CopyStrategy usedStrategy = FileLinker.linkOrCopy(replayFile.toPath(), outputFile.toPath(), processingConfig.getCopyStrategy(), isHardLinkAllowed(), shutdownRequested::get, processingConfig);
+                getMetrics().recordStage(Stage.COPY, startNanos);
+                recordThroughput(usedStrategy == CopyStrategy.COPY ? JobAction.COPY : JobAction.LINK, outputFile, replayFile.length(), startNanos);
+                if (usedStrategy == CopyStrategy.COPY) {
+                    getMetrics().getBytesRead().add(replayFile.length());
+                    getMetrics().getBytesWritten().add(replayFile.length());
+                    if (processingConfig.isSampledVerification()) {
+                        verifyCopy(replayFile, outputFile);
+                    }
+                }
+                ProcessingLogger.debug("Placed " + replayName + " in output folder using strategy " + usedStrategy);
+                recordJobStep(replayFile, outputFile, Step.OUTPUT_WRITTEN);
+            } catch (InterruptedIOException | ClosedByInterruptException e) {
+                throw new InterruptedException("Copying interrupted: " + replayName);
+            }
         } else {
-            ProcessingLogger.info("Replay does not contain a microphone track, nothing to do! - " + replayName);
+            ProcessingLogger.info(reason + ", nothing to do! - " + replayName);
         }
     }
 
-    private void embedMicrophoneTrackToReplay(File replayFile, String replayName, File microphoneTrack, File outputFile) throws IOException, InterruptedException {
-        // Check if shutdown was requested before starting FFmpeg
+    private void embedMicrophoneTrackToReplay(File replayFile, String replayName, File microphoneTrack, File outputFile, ReplayPairCheck pairCheck, Reservation reservation, ReplayProgressTracker progress) throws IOException, InterruptedException {
+        // Check if shutdown was requested before starting to write the output
         if (shutdownRequested.get()) {
             throw new InterruptedException("Shutdown requested before processing: " + replayName);
         }
 
         ProcessingLogger.info("Processing replay: " + replayName);
         long startTime = System.currentTimeMillis();
-        currentProcess = embedMicrophoneTrackToReplayAndSaveOutput(replayFile, microphoneTrack, outputFile);
+        long muxStartNanos = System.nanoTime();
+
+        // When replacing originals, appending the microphone track avoids rewriting the whole video
+        if (isReplaceSourceReplaysSelected() && processingConfig.isAppendInPlace()) {
+            long originalSize = replayFile.length();
+            // The replay itself is the output; recovery truncates it to this size if the append is not committed
+            recordJobStep(createJob(replayFile, replayFile, originalSize), Step.STARTED);
+            if (appendMicrophoneTrackToReplayInPlace(replayFile, replayName, microphoneTrack, pairCheck, progress)) {
+                getMetrics().recordStage(Stage.MUX, muxStartNanos);
+                getMetrics().getBytesRead().add(microphoneTrack.length());
+                getMetrics().getBytesWritten().add(replayFile.length() - originalSize);
+                recordThroughput(JobAction.APPEND, replayFile, replayFile.length() - originalSize, muxStartNanos);
+                recordJobStep(replayFile, replayFile, Step.ORIGINAL_REPLACED);
+                deleteMicrophoneTrackIfSelected(replayFile, replayFile, microphoneTrack);
+                logProcessingTime(replayFile, startTime);
+                return;
+            }
+            // Writing a new file needs space for the whole replay, not only for the microphone track
+            reservation.extendTo(replayFile.length() + microphoneTrack.length());
+        }
 
-        try {
-            // Wait for FFmpeg process to complete
-            currentProcess.waitFor();
-        } finally {
-            currentProcess = null;
+        // Prefer the in-process remuxer and only start FFmpeg for files it cannot handle
+        recordJobStep(replayFile, outputFile, Step.STARTED);
+        boolean remuxed = remuxMicrophoneTrackToReplay(replayFile, replayName, microphoneTrack, outputFile, progress);
+        if (!remuxed) {
+            getMetrics().getFfmpegFallbacks().increment();
+            embedMicrophoneTrackToReplayUsingFfmpeg(replayFile, microphoneTrack, outputFile, progress);
         }
+        getMetrics().recordStage(Stage.MUX, muxStartNanos);
+        getMetrics().getBytesRead().add(replayFile.length() + microphoneTrack.length());
+        getMetrics().getBytesWritten().add(outputFile.length());
+        recordThroughput(JobAction.MERGE, outputFile, outputFile.length(), muxStartNanos);
 
         // Check if shutdown was requested during processing
         if (shutdownRequested.get()) {
             throw new InterruptedException("Shutdown requested during processing: " + replayName);
         }
 
+        // Nothing is replaced or recorded unless the output holds all tracks of both inputs
+        verifyMergedOutput(pairCheck, replayFile, microphoneTrack, outputFile, !remuxed);
 
         if (isReplaceSourceReplaysSelected()) {
             /*
-                Ffmpeg cannot change files in-place, that means we need to delete the old replay and rename it to
-                the original replay name.
+                The output is always written to a separate file, that means we need to replace the old replay
+                with it. The output must be on disk before the original is gone.
              */
+            long replaceStartNanos = System.nanoTime();
+            forceToDisk(outputFile);
+            recordJobStep(replayFile, outputFile, Step.OUTPUT_WRITTEN);
             replaceSourceReplayWithProcessedReplay(replayFile, outputFile);
-            deleteMicrophoneTrackIfSelected(microphoneTrack);
+            recordJobStep(replayFile, outputFile, Step.ORIGINAL_REPLACED);
+            getMetrics().recordStage(Stage.REPLACE, replaceStartNanos);
+            deleteMicrophoneTrackIfSelected(replayFile, outputFile, microphoneTrack);
+        } else {
+            recordJobStep(replayFile, outputFile, Step.OUTPUT_WRITTEN);
         }
 
+        logProcessingTime(replayFile, startTime);
+    }
+
+    private static void logProcessingTime(File replayFile, long startTime) {
         long processingTimeMs = System.currentTimeMillis() - startTime;
         ProcessingLogger.info("Replay: " + replayFile.getName() + " processed in " + (processingTimeMs / 1000.0) + " seconds");
     }
 
-    private void deleteMicrophoneTrackIfSelected(File microphoneTrack) {
+    /**
+     * Append the microphone track to the end of the original replay. The appended headers are
+     * verified before the append is committed, a failed check leaves the replay as it was.
+     * @return false if the replay uses a structure that cannot be appended to
+     */
+    private boolean appendMicrophoneTrackToReplayInPlace(File replayFile, String replayName, File microphoneTrack, ReplayPairCheck pairCheck, ReplayProgressTracker progress) throws IOException, InterruptedException {
+        try {
+            // Only the microphone samples are written
+            progress.setExpectedBytes(microphoneTrack.length());
+            new Mp4Remuxer(shutdownRequested::get, progress::update, processingConfig).appendAudioTracksInPlace(replayFile, microphoneTrack, merged -> {
+                long startNanos = System.nanoTime();
+                try {
+                    pairCheck.verifyOutput(merged);
+                } finally {
+                    getMetrics().recordStage(Stage.VERIFY, startNanos);
+                }
+            });
+            progress.update(microphoneTrack.length(), ReplayProgress.UNKNOWN_OUT_TIME, Double.NaN, true);
+            return true;
+        } catch (Mp4FormatException e) {
+            ProcessingLogger.warn("Cannot append to " + replayName + " in place (" + e.getMessage() + "), writing a new file instead");
+            return false;
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            throw new InterruptedException("Appending interrupted: " + replayName);
+        }
+    }
+
+    /**
+     * Combine replay and microphone track with the in-process MP4 remuxer.
+     * @return false if the files use a structure the remuxer does not support
+     */
+    private boolean remuxMicrophoneTrackToReplay(File replayFile, String replayName, File microphoneTrack, File outputFile, ReplayProgressTracker progress) throws IOException, InterruptedException {
+        try {
+            progress.setExpectedBytes(replayFile.length() + microphoneTrack.length());
+            Mp4Remuxer remuxer = new Mp4Remuxer(shutdownRequested::get, progress::update, processingConfig);
+            remuxer.addAudioTracks(replayFile, microphoneTrack, outputFile);
+            progress.update(outputFile.length(), ReplayProgress.UNKNOWN_OUT_TIME, Double.NaN, true);
+            return true;
+        } catch (Mp4FormatException e) {
+            ProcessingLogger.warn("Cannot remux " + replayName + " in-process (" + e.getMessage() + "), falling back to FFmpeg");
+            return false;
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            throw new InterruptedException("Remuxing interrupted: " + replayName);
+        }
+    }
+
+    private void embedMicrophoneTrackToReplayUsingFfmpeg(File replayFile, File microphoneTrack, File outputFile, ReplayProgressTracker progress) throws IOException, InterruptedException {
+        // The streams are copied, so the output is roughly as large as both inputs
+        progress.setExpectedBytes(replayFile.length() + microphoneTrack.length());
+        if (ffmpegBatcher.merge(replayFile, microphoneTrack, outputFile, progress)) {
+            return;
+        }
+        if (shutdownRequested.get()) {
+            throw new InterruptedException("Shutdown requested before processing: " + replayFile.getName());
+        }
+
+        FfmpegProcess ffmpeg = embedMicrophoneTrackToReplayAndSaveOutput(replayFile, microphoneTrack, outputFile, progress);
+        runningProcesses.add(ffmpeg.getProcess());
+
+        try {
+            // A shutdown may have been requested between starting the process and registering it
+            if (shutdownRequested.get()) {
+                ffmpeg.destroy();
+            }
+            // Wait for FFmpeg process to complete and check its exit code; it is suspended while paused
+            ffmpeg.waitForSuccess(processingConfig);
+        } catch (InterruptedException e) {
+            // Do not leave an orphaned FFmpeg process behind when the worker is interrupted
+            ffmpeg.destroy();
+            throw e;
+        } catch (FfmpegExitException e) {
+            Files.deleteIfExists(outputFile.toPath());
+            if (shutdownRequested.get()) {
+                throw new InterruptedException("FFmpeg terminated: " + replayFile.getName());
+            }
+            throw e;
+        } finally {
+            runningProcesses.remove(ffmpeg.getProcess());
+        }
+    }
+
+    private void deleteMicrophoneTrackIfSelected(File replayFile, File outputFile, File microphoneTrack) {
         if (isDeleteMicrophoneTracksSelected()) {
+            long startNanos = System.nanoTime();
             microphoneTrack.delete();
+            recordJobStep(replayFile, outputFile, Step.MICROPHONE_TRACK_DELETED);
+            getMetrics().recordStage(Stage.DELETE, startNanos);
         }
     }
 
-    private File prepareOutputFile(File videoFile, String videoNameWithoutExtension) {
+    private File prepareOutputFile(File videoFile) {
+        File outputFile = getOutputFile(videoFile);
+        outputFile.getParentFile().mkdirs(); // create the parent folder if it doesn't exist
+        return outputFile;
+    }
+
+    /**
+     * The file the replay is written to: its merged copy in the output folder, or the temporary
+     * file next to it that replaces the original.
+     */
+    public File getOutputFile(File videoFile) {
+        String videoNameWithoutExtension = getFileNameWithoutExtension(videoFile.getName());
         String outputPath;
         if (isReplaceSourceReplaysSelected()) {
             outputPath = videoFile.getParent() + File.separator + videoNameWithoutExtension + "_temp.mp4";
@@ -134,20 +577,38 @@ public class ReplayProcessor {
             outputPath = outputPath + File.separator + videoNameWithoutExtension + "_merged.mp4";
         }
 
-        File outputFile = new File(outputPath);
-        outputFile.getParentFile().mkdirs(); // create the parent folder if it doesn't exist
-        return outputFile;
+        return new File(outputPath);
+    }
+
+    /**
+     * Whether {@link CopyStrategy#AUTO} may hard link a placed file to its source. Replaced
+     * originals may be appended to in place, which would change every name of the file.
+     */
+    private boolean isHardLinkAllowed() {
+        return !isReplaceSourceReplaysSelected();
     }
 
-    private static void replaceSourceReplayWithProcessedReplay(File unprocessedReplay, File processedReplay) {
-        String unprocessedReplayPath = unprocessedReplay.getAbsolutePath();
-        unprocessedReplay.delete(); // delete original replay
-        processedReplay.renameTo(new File(unprocessedReplayPath)); // rename new replay to the old replay
+    /**
+     * The merged replay once the replay is processed: the replay itself when originals are
+     * replaced, otherwise its {@link #getOutputFile(File) output}. This is what the ledger records.
+     */
+    public File getResultFile(File videoFile) {
+        return isReplaceSourceReplaysSelected() ? videoFile : getOutputFile(videoFile);
     }
 
-    private static Process embedMicrophoneTrackToReplayAndSaveOutput(File videoFile, File microphoneTrack, File outputFile) throws IOException {
-        return new ProcessBuilder(
-                "ffmpeg",
+    private static void replaceSourceReplayWithProcessedReplay(File unprocessedReplay, File processedReplay) throws IOException {
+        // A single rename over the original, so there is no moment in which neither file exists
+        Files.move(processedReplay.toPath(), unprocessedReplay.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void forceToDisk(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static FfmpegProcess embedMicrophoneTrackToReplayAndSaveOutput(File videoFile, File microphoneTrack, File outputFile, ReplayProgressTracker progress) throws IOException {
+        return FfmpegProcess.start(Arrays.asList(
                 "-i", videoFile.getAbsolutePath(),          // input video file
                 "-i", microphoneTrack.getAbsolutePath(),    // input microphone track
                 "-nostdin", "-y",                            // auto-yes to overwrite inputs
@@ -155,10 +616,10 @@ public class ReplayProcessor {
                 "-map", "1",                                // map input microphone stream
                 "-c", "copy",                               // copy streams without re-encoding
                 outputFile.getAbsolutePath()                // save result to outputFile path
-        ).inheritIO().start();
+        ), videoFile.getName(), progress::update);
     }
 
-    private boolean isReplaceSourceReplaysSelected() {
+    boolean isReplaceSourceReplaysSelected() {
         return replaceSourceReplays;
     }
 
@@ -167,30 +628,20 @@ public class ReplayProcessor {
     }
 
     private boolean isFromSubdirectory(File videoFile) {
-        return !videoFile.getParentFile().getName().equals(inputDirectory.getName());
-    }
-
-    private void validateDiskSpaceBeforeProcessing(File replayFile) throws IOException {
-        if (outputDirectory == null) {
-            return;
-        }
-
-        long availableSpace = outputDirectory.getFreeSpace();
-        long requiredSpace = replayFile.length() * 2; // Need space for both input and output during processing
-        long minRequiredSpace = ProcessingConfig.MIN_FREE_SPACE_MB * 1024 * 1024;
-
-        if (requiredSpace > availableSpace) {
-            String availableMB = String.format("%.1f", availableSpace / (1024.0 * 1024.0));
-            String requiredMB = String.format("%.1f", requiredSpace / (1024.0 * 1024.0));
-            throw new IOException("Insufficient disk space. Required: " + requiredMB + " MB, Available: " + availableMB + " MB");
-        }
-
-        if (availableSpace < minRequiredSpace) {
-            ProcessingLogger.warn("Low disk space: " + String.format("%.1f", availableSpace / (1024.0 * 1024.0)) + " MB remaining");
+        String parentName = videoFile.getParentFile().getName();
+        for (File inputDirectory : inputDirectories) {
+            if (parentName.equals(inputDirectory.getName())) {
+                return false;
+            }
         }
+        return true;
     }
 
     public ProcessingConfig getProcessingConfig() {
         return processingConfig;
     }
+
+    private ProcessingMetrics getMetrics() {
+        return processingConfig.getMetrics();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package merger.processing;
+
+import java.io.File;
+
+/**
+ * Immutable snapshot of how far a single replay job has come.
+ * <p>
+ * Progress is measured in bytes written to the output. FFmpeg jobs additionally report the
+ * media time that has been written and the speed relative to real time; jobs handled by the
+ * in-process remuxer leave those unknown.
+ */
+public final class ReplayProgress {
+
+    public static final long UNKNOWN_OUT_TIME = -1;
+
+    private final File replay;
+    private final long bytesWritten;
+    private final long expectedBytes;
+    private final long outTimeMicros;
+    private final double speed;
+    private final double bytesPerSecond;
+    private final long elapsedMillis;
+
+    ReplayProgress(File replay, long bytesWritten, long expectedBytes, long outTimeMicros, double speed, double bytesPerSecond, long elapsedMillis) {
+        this.replay = replay;
+        this.bytesWritten = bytesWritten;
+        this.expectedBytes = expectedBytes;
+        this.outTimeMicros = outTimeMicros;
+        this.speed = speed;
+        this.bytesPerSecond = bytesPerSecond;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public File getReplay() {
+        return replay;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Amount of bytes the job is expected to write, 0 if unknown.
+     */
+    public long getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    /**
+     * Media time written so far in microseconds or {@link #UNKNOWN_OUT_TIME}.
+     */
+    public long getOutTimeMicros() {
+        return outTimeMicros;
+    }
+
+    /**
+     * Processing speed relative to real time as reported by FFmpeg (e.g. 25.0 for "25x"), NaN if unknown.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Write throughput since the previous update. Drops to 0 while the job is stalled.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public double getMegabytesPerSecond() {
+        return bytesPerSecond / (1024.0 * 1024.0);
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Completed fraction between 0 and 1, 0 if the expected size is unknown.
+     */
+    public double getFraction() {
+        if (expectedBytes <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, bytesWritten / (double) expectedBytes);
+    }
+}
@@ -0,0 +1,60 @@
+package merger.processing;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * Turns raw progress updates of one job into {@link ReplayProgress} snapshots.
+ * <p>
+ * Updates are rate limited to one every {@link #MIN_UPDATE_INTERVAL_MS} so a fast copy does not
+ * flood the listener; the throughput is computed between two published snapshots.
+ */
+class ReplayProgressTracker {
+
+    static final long MIN_UPDATE_INTERVAL_MS = 250;
+
+    private final File replay;
+    private final Consumer<ReplayProgress> listener;
+    private final long startNanos = System.nanoTime();
+
+    private long expectedBytes;
+    private long lastBytesWritten;
+    private long lastUpdateNanos = startNanos;
+
+    ReplayProgressTracker(File replay, Consumer<ReplayProgress> listener) {
+        this.replay = replay;
+        this.listener = listener;
+    }
+
+    void setExpectedBytes(long expectedBytes) {
+        this.expectedBytes = expectedBytes;
+    }
+
+    void update(long bytesWritten) {
+        update(bytesWritten, ReplayProgress.UNKNOWN_OUT_TIME, Double.NaN, false);
+    }
+
+    /**
+     * Publish a snapshot unless the previous one is too recent. Final updates are always published.
+     */
+    synchronized void update(long bytesWritten, long outTimeMicros, double speed, boolean last) {
+        long now = System.nanoTime();
+        long sinceLastUpdateNanos = now - lastUpdateNanos;
+        if (!last && sinceLastUpdateNanos < MIN_UPDATE_INTERVAL_MS * 1_000_000L) {
+            return;
+        }
+
+        double bytesPerSecond = sinceLastUpdateNanos <= 0
+                ? 0
+                : Math.max(0, bytesWritten - lastBytesWritten) * 1_000_000_000.0 / sinceLastUpdateNanos;
+        lastBytesWritten = bytesWritten;
+        lastUpdateNanos = now;
+        if (last) {
+            // The expected size is only an estimate, the final snapshot always reads as complete
+            expectedBytes = bytesWritten;
+        }
+
+        listener.accept(new ReplayProgress(replay, bytesWritten, expectedBytes, outTimeMicros, speed,
+                bytesPerSecond, (now - startNanos) / 1_000_000L));
+    }
+}
@@ -0,0 +1,223 @@
+package merger.processing;
+
+import merger.util.AppDataDirectory;
+import merger.util.ProcessingLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput measured by earlier runs, per job action and device, to estimate how long a
+ * batch is going to take.
+ * <p>
+ * Every finished job is recorded with its action, the device its output was written to, the
+ * bytes it wrote and when it ran. {@link #save()} folds the jobs of the run into the stored
+ * rates: for each action and device the bytes (or, for links and skips, the jobs) are divided by
+ * the wall time in which at least one such job was running. Jobs that ran in parallel therefore
+ * count once, and the rate is what the device delivers at the concurrency it was driven with.
+ * Older runs fade out with every new one. Devices without history fall back to the average of
+ * the other devices and then to a modest default; the live ETA corrects wrong guesses.
+ */
+public class ThroughputHistory {
+
+    public static final String DEFAULT_FILE_NAME = "throughput-history.properties";
+
+    // Rate of any device, used for devices that have not been written to yet
+    static final String ANY_DEVICE = "*";
+
+    private static final double DEFAULT_BYTES_PER_SECOND = 100.0 * 1024 * 1024;
+    private static final double DEFAULT_JOBS_PER_SECOND = 50;
+
+    // Weight of the latest run in the stored rate
+    private static final double SMOOTHING = 0.5;
+
+    private static ThroughputHistory defaultHistory;
+
+    // null if the history is only kept in memory
+    private final Path historyFile;
+    private final Map<String, Double> rates = new ConcurrentHashMap<>();
+    // Jobs of the current run by rate key, guarded by this
+    private final Map<String, List<Sample>> samples = new HashMap<>();
+
+    ThroughputHistory(Path historyFile) {
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * The shared history in the application data directory, loaded on first use.
+     * It is only kept in memory if the data directory is not available.
+     */
+    public static synchronized ThroughputHistory getDefault() {
+        if (defaultHistory == null) {
+            Path historyFile = null;
+            try {
+                historyFile = AppDataDirectory.resolve(DEFAULT_FILE_NAME);
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to open the throughput history: " + e.getMessage());
+            }
+            defaultHistory = new ThroughputHistory(historyFile);
+            defaultHistory.load();
+        }
+        return defaultHistory;
+    }
+
+    private void load() {
+        if (historyFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(historyFile)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to read the throughput history: " + e.getMessage());
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                double rate = Double.parseDouble(properties.getProperty(key));
+                if (rate > 0) {
+                    rates.put(key, rate);
+                }
+            } catch (NumberFormatException e) {
+                // A damaged entry only loses its history
+            }
+        }
+    }
+
+    /**
+     * Estimated duration of a job, in seconds.
+     *
+     * @param bytes bytes the job writes
+     */
+    public double estimateSeconds(JobAction action, String device, long bytes) {
+        double rate = getRate(action, device);
+        return action.movesData() ? bytes / rate : 1 / rate;
+    }
+
+    /**
+     * Bytes per second for actions that move data, jobs per second for the others.
+     */
+    double getRate(JobAction action, String device) {
+        Double rate = rates.get(key(action, device));
+        if (rate == null) {
+            rate = rates.get(key(action, ANY_DEVICE));
+        }
+        if (rate != null) {
+            return rate;
+        }
+        return action.movesData() ? DEFAULT_BYTES_PER_SECOND : DEFAULT_JOBS_PER_SECOND;
+    }
+
+    /**
+     * Remember a finished job of the current run.
+     *
+     * @param bytes bytes the job wrote
+     */
+    public synchronized void record(JobAction action, String device, long bytes, long startNanos, long endNanos) {
+        samples.computeIfAbsent(key(action, device), key -> new ArrayList<>()).add(new Sample(bytes, startNanos, endNanos));
+    }
+
+    /**
+     * Fold the jobs recorded since the last call into the rates and write them to disk.
+     */
+    public synchronized void save() {
+        if (samples.isEmpty()) {
+            return;
+        }
+        Map<JobAction, List<Double>> runRates = new HashMap<>();
+        for (Map.Entry<String, List<Sample>> entry : samples.entrySet()) {
+            JobAction action = JobAction.forName(entry.getKey().substring(0, entry.getKey().indexOf('@')));
+            double rate = measureRate(action, entry.getValue());
+            if (rate > 0) {
+                update(entry.getKey(), rate);
+                runRates.computeIfAbsent(action, key -> new ArrayList<>()).add(rate);
+            }
+        }
+        // Devices run side by side, so the rate of "any device" is the average, not the sum
+        for (Map.Entry<JobAction, List<Double>> entry : runRates.entrySet()) {
+            double sum = 0;
+            for (double rate : entry.getValue()) {
+                sum += rate;
+            }
+            update(key(entry.getKey(), ANY_DEVICE), sum / entry.getValue().size());
+        }
+        samples.clear();
+        write();
+    }
+
+    private void update(String key, double rate) {
+        Double previous = rates.get(key);
+        rates.put(key, previous == null ? rate : previous * (1 - SMOOTHING) + rate * SMOOTHING);
+    }
+
+    // Divide by the time in which at least one job was running, so parallel jobs are not counted twice
+    private static double measureRate(JobAction action, List<Sample> jobs) {
+        jobs.sort((a, b) -> Long.compare(a.startNanos, b.startNanos));
+        long busyNanos = 0;
+        long busyUntil = Long.MIN_VALUE;
+        long bytes = 0;
+        for (Sample job : jobs) {
+            bytes += job.bytes;
+            long start = Math.max(job.startNanos, busyUntil);
+            if (job.endNanos > start) {
+                busyNanos += job.endNanos - start;
+            }
+            busyUntil = Math.max(busyUntil, job.endNanos);
+        }
+        double busySeconds = busyNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        if (busySeconds <= 0) {
+            return 0;
+        }
+        return (action.movesData() ? bytes : jobs.size()) / busySeconds;
+    }
+
+    private void write() {
+        if (historyFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> rate : rates.entrySet()) {
+            properties.setProperty(rate.getKey(), Double.toString(rate.getValue()));
+        }
+        Path temporaryFile = historyFile.resolveSibling(historyFile.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+                properties.store(out, "Throughput per action and device: bytes per second, jobs per second for link and skip");
+            }
+            Files.move(temporaryFile, historyFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to write the throughput history: " + e.getMessage());
+        }
+    }
+
+    private static String key(JobAction action, String device) {
+        return action.getName() + "@" + device;
+    }
+
+    private static final class Sample {
+
+        private final long bytes;
+        private final long startNanos;
+        private final long endNanos;
+
+        private Sample(long bytes, long startNanos, long endNanos) {
+            this.bytes = bytes;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package merger.ui;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Bridges System.out/System.err into a JTextArea without flooding the event dispatch thread.
+ * <p>
+ * Writers only put complete lines into a {@link LogRingBuffer}; a Swing timer drains the buffer
+ * on the EDT and appends everything that arrived in the meantime with a single call. The text
+ * area keeps at most `maxLines` lines: once the limit is exceeded the oldest lines are removed
+ * in one bulk edit, down to {@link #TRIM_RATIO} of the limit, so trimming does not happen on
+ * every append.
+ */
+public class LogConsole {
+
+    // How often pending log text is flushed to the text area
+    public static final int FLUSH_INTERVAL_MS = 100;
+
+    // Fraction of maxLines that is kept after trimming
+    static final double TRIM_RATIO = 0.8;
+
+    private final JTextArea textArea;
+    private final int maxLines;
+    private final LogRingBuffer buffer;
+    private final Timer flushTimer;
+
+    public LogConsole(JTextArea textArea, int maxLines) {
+        this.textArea = textArea;
+        this.maxLines = Math.max(1, maxLines);
+        // Lines are drained every flush interval, so the buffer only has to absorb short bursts
+        this.buffer = new LogRingBuffer(Math.max(1024, this.maxLines));
+        this.flushTimer = new Timer(FLUSH_INTERVAL_MS, e -> flush());
+        this.flushTimer.setCoalesce(true);
+    }
+
+    /**
+     * Redirect System.out and System.err into the console and start flushing.
+     */
+    public void install() {
+        PrintStream printStream = new PrintStream(createOutputStream(), true);
+        System.setOut(printStream);
+        System.setErr(printStream);
+        flushTimer.start();
+    }
+
+    /**
+     * Stream whose complete lines end up in this console on the next flush.
+     */
+    OutputStream createOutputStream() {
+        return new LineOutputStream(buffer);
+    }
+
+    /**
+     * Append all pending text to the text area and trim old lines. Runs on the EDT.
+     */
+    void flush() {
+        StringBuilder pending = new StringBuilder();
+        long droppedBefore = buffer.getDroppedEntries();
+        if (buffer.drainTo(pending) == 0 && buffer.getDroppedEntries() == droppedBefore) {
+            return;
+        }
+        long dropped = buffer.getDroppedEntries() - droppedBefore;
+        if (dropped > 0) {
+            pending.insert(0, "... " + dropped + " log line(s) skipped ..." + System.lineSeparator());
+        }
+
+        textArea.append(pending.toString());
+        trimOldLines();
+    }
+
+    /**
+     * Remove all text, including text that has been written but not flushed yet. Runs on the EDT.
+     */
+    public void clear() {
+        buffer.clear();
+        textArea.setText("");
+    }
+
+    private void trimOldLines() {
+        int lineCount = textArea.getLineCount();
+        if (lineCount <= maxLines) {
+            return;
+        }
+        int linesToRemove = lineCount - (int) (maxLines * TRIM_RATIO);
+        try {
+            textArea.getDocument().remove(0, textArea.getLineStartOffset(linesToRemove));
+        } catch (BadLocationException e) {
+            textArea.setText("");
+        }
+    }
+
+    /**
+     * Collects bytes until a line is complete (or the stream is flushed) and hands the decoded
+     * text to the ring buffer. The wrapping PrintStream serializes all calls, so the line
+     * buffer needs no further synchronization.
+     */
+    static final class LineOutputStream extends OutputStream {
+
+        private final LogRingBuffer buffer;
+        private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream(256);
+        private final Charset charset = Charset.defaultCharset();
+
+        LineOutputStream(LogRingBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            currentLine.write(b);
+            if (b == '\n') {
+                publish();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            int lineStart = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    currentLine.write(bytes, lineStart, i + 1 - lineStart);
+                    publish();
+                    lineStart = i + 1;
+                }
+            }
+            currentLine.write(bytes, lineStart, end - lineStart);
+        }
+
+        @Override
+        public void flush() {
+            publish();
+        }
+
+        private void publish() {
+            if (currentLine.size() > 0) {
+                buffer.offer(new String(currentLine.toByteArray(), charset));
+                currentLine.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package merger.ui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer/single-consumer ring buffer for log text.
+ * <p>
+ * Producers claim a slot with a single atomic increment and never block or wait for the
+ * consumer. If the consumer falls behind by more than the capacity, the oldest entries are
+ * overwritten and reported as dropped instead of growing memory without limit.
+ * <p>
+ * Claiming and publishing are two steps, so a producer that is preempted in between may find
+ * its slot already holding an entry a lap newer. Publishing is a compare-and-set that never
+ * replaces a newer entry: the late entry is dropped, and the consumer counts it when it skips
+ * over its sequence.
+ */
+public class LogRingBuffer {
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong writeSequence = new AtomicLong(0);
+
+    // Only accessed by the single consumer
+    private long readSequence = 0;
+    private long droppedEntries = 0;
+
+    public LogRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Add text to the buffer. Safe to call from any thread.
+     */
+    public void offer(String text) {
+        long sequence = writeSequence.getAndIncrement();
+        int index = (int) (sequence % capacity);
+        Entry entry = new Entry(sequence, text);
+        while (true) {
+            Entry current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                // A faster producer already published a newer entry in this slot
+                return;
+            }
+            if (slots.compareAndSet(index, current, entry)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move all published entries into `target`, in order. Must only be called by one consumer.
+     * @return number of entries drained
+     */
+    public int drainTo(StringBuilder target) {
+        int drained = 0;
+        while (true) {
+            Entry entry = slots.get((int) (readSequence % capacity));
+            if (entry == null || entry.sequence < readSequence) {
+                // Slot has not been published yet
+                return drained;
+            }
+            if (entry.sequence > readSequence) {
+                // Producers lapped us; continue with the oldest entry that is still available
+                long oldestAvailable = Math.max(readSequence, writeSequence.get() - capacity);
+                droppedEntries += Math.max(1, oldestAvailable - readSequence);
+                readSequence = Math.max(readSequence + 1, oldestAvailable);
+                continue;
+            }
+            if (target != null) {
+                target.append(entry.text);
+            }
+            readSequence++;
+            drained++;
+        }
+    }
+
+    /**
+     * Discard everything published so far. Must only be called by the consumer.
+     */
+    public void clear() {
+        drainTo(null);
+    }
+
+    /**
+     * Number of entries overwritten before the consumer could read them.
+     */
+    public long getDroppedEntries() {
+        return droppedEntries;
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final String text;
+
+        private Entry(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package merger.ui;
 import com.formdev.flatlaf.FlatDarculaLaf;
 import merger.controller.ReliveTrackMergerController;
 import merger.ffmpeg.FfmpegInstaller;
+import merger.processing.ProcessingConfig;
 import merger.util.OutputFolderResolver;
 import merger.util.ProcessingLogger;
 
@@ -11,8 +12,11 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static merger.ui.UIConstants.*;
 
@@ -21,7 +25,9 @@ public class ReliveTrackMergerUI extends JFrame {
     private JPanel contentPane;
     private JButton buttonProcess;
     private JButton buttonPauseResume;
+    private JSpinner spinnerConcurrency;
     private JButton buttonSelectInputFolder;
+    private JButton buttonAddInputFolder;
     private JButton buttonSelectOutputFolder;
     private JTextField textFieldInputFolderPath;
     private JTextField textFieldOutputFolderPath;
@@ -29,12 +35,17 @@ public class ReliveTrackMergerUI extends JFrame {
     private JCheckBox checkboxOpenOutputFolder;
     private JCheckBox checkboxReplaceOriginalVideoInsteadOfCopying;
     private JCheckBox checkboxDeleteMicrophoneTracksAfterCopying;
+    private JCheckBox checkboxAppendInPlace;
+    private JCheckBox checkboxVerifyOutput;
+    private JCheckBox checkboxLinkDuplicates;
+    private JCheckBox checkboxWatchInputFolder;
     private JSeparator checkboxSeparator;
-    private JList<String> listVideoView;
-    private DefaultListModel<String> listVideoModel;
+    private JList<File> listVideoView;
+    private ReplayListModel listVideoModel;
     private JScrollPane scrollpaneVideoList;
     private JTextArea textareaLog;
     private JScrollPane scrollpaneLog;
+    private LogConsole logConsole;
 
     private final ReliveTrackMergerController controller;
 
@@ -42,9 +53,10 @@ public class ReliveTrackMergerUI extends JFrame {
     private boolean processingPaused = false;
 
     public static void start() {
+        // Probe FFmpeg in the background while the window is being created, the check follows once the probe is done
         FlatDarculaLaf.setup();
         SwingUtilities.invokeLater(() -> new ReliveTrackMergerUI(new ReliveTrackMergerController()).setVisible(true));
-        FfmpegInstaller.checkOrInstallFfmpeg();
+        FfmpegInstaller.checkOrInstallFfmpegAsync();
     }
 
     public ReliveTrackMergerUI(ReliveTrackMergerController controller) {
@@ -53,6 +65,7 @@ public class ReliveTrackMergerUI extends JFrame {
         initializeContentPane();
         initializeUIElements();
         redirectSystemOutToTextArea();
+        controller.recoverInterruptedJobs();
         pack();
         setLocationRelativeTo(null);
     }
@@ -73,7 +86,7 @@ public class ReliveTrackMergerUI extends JFrame {
         GridBagConstraints constraints = new GridBagConstraints();
         constraints.insets = new Insets(2, 10, 2, 10);
 
-        buttonSelectInputFolder = createButton(BUTTON_INPUT_LABEL, e -> controller.selectInputFolder(this, selectDirectory()));
+        buttonSelectInputFolder = createButton(BUTTON_INPUT_LABEL, e -> controller.selectInputFolders(this, selectDirectories()));
         constraints.gridx = 0;
         constraints.gridy = 0;
         constraints.weightx = 0;
@@ -81,12 +94,20 @@ public class ReliveTrackMergerUI extends JFrame {
         constraints.anchor = GridBagConstraints.WEST;
         contentPane.add(buttonSelectInputFolder, constraints);
 
+        // Further input folders are added next to the path, so the other rows keep their two columns
         textFieldInputFolderPath = createNonEditableTextField();
+        buttonAddInputFolder = new JButton(BUTTON_ADD_INPUT_LABEL);
+        buttonAddInputFolder.setToolTipText(BUTTON_ADD_INPUT_TOOLTIP);
+        buttonAddInputFolder.setFocusable(false);
+        buttonAddInputFolder.addActionListener(e -> controller.addInputFolders(this, selectDirectories()));
+        JPanel panelInputFolders = new JPanel(new BorderLayout(5, 0));
+        panelInputFolders.add(textFieldInputFolderPath, BorderLayout.CENTER);
+        panelInputFolders.add(buttonAddInputFolder, BorderLayout.EAST);
         constraints.gridx = 1;
         constraints.gridy = 0;
         constraints.weightx = 1.0;
         constraints.fill = GridBagConstraints.HORIZONTAL;
-        contentPane.add(textFieldInputFolderPath, constraints);
+        contentPane.add(panelInputFolders, constraints);
 
         buttonSelectOutputFolder = createButton(BUTTON_OUTPUT_LABEL, e -> controller.selectOutputFolder(this, selectDirectory()));
         constraints.gridx = 0;
@@ -142,6 +163,7 @@ public class ReliveTrackMergerUI extends JFrame {
                         textFieldOutputFolderPath.setText(out.getAbsolutePath());
                     }
                     checkboxDeleteMicrophoneTracksAfterCopying.setEnabled(true);
+                    checkboxAppendInPlace.setEnabled(true);
 
                     if (!warnedAboutReplace) {
                         ProcessingLogger.warn("Warning: there will be no way of recovering the original replays after they have been replaced!");
@@ -155,6 +177,7 @@ public class ReliveTrackMergerUI extends JFrame {
                         textFieldOutputFolderPath.setText(out.getAbsolutePath());
                     }
                     checkboxDeleteMicrophoneTracksAfterCopying.setEnabled(false);
+                    checkboxAppendInPlace.setEnabled(false);
                 }
             }
         });
@@ -174,17 +197,53 @@ public class ReliveTrackMergerUI extends JFrame {
         constraints.anchor = GridBagConstraints.WEST;
         contentPane.add(checkboxDeleteMicrophoneTracksAfterCopying, constraints);
 
-        scrollpaneVideoList = createVideoListScrollPane();
+        checkboxAppendInPlace = createCheckBox(CHECKBOX_APPEND_IN_PLACE, CHECKBOX_APPEND_IN_PLACE_TOOLTIP);
+        checkboxAppendInPlace.setSelected(true);
+        checkboxAppendInPlace.setEnabled(false);
         constraints.gridx = 0;
         constraints.gridy = 7;
         constraints.gridwidth = 2;
+        constraints.fill = GridBagConstraints.VERTICAL;
+        constraints.anchor = GridBagConstraints.WEST;
+        contentPane.add(checkboxAppendInPlace, constraints);
+
+        checkboxVerifyOutput = createCheckBox(CHECKBOX_VERIFY_OUTPUT, CHECKBOX_VERIFY_OUTPUT_TOOLTIP);
+        constraints.gridx = 0;
+        constraints.gridy = 8;
+        constraints.gridwidth = 2;
+        constraints.fill = GridBagConstraints.VERTICAL;
+        constraints.anchor = GridBagConstraints.WEST;
+        contentPane.add(checkboxVerifyOutput, constraints);
+
+        checkboxLinkDuplicates = createCheckBox(CHECKBOX_LINK_DUPLICATES, CHECKBOX_LINK_DUPLICATES_TOOLTIP);
+        checkboxLinkDuplicates.setSelected(true);
+        constraints.gridx = 0;
+        constraints.gridy = 9;
+        constraints.gridwidth = 2;
+        constraints.fill = GridBagConstraints.VERTICAL;
+        constraints.anchor = GridBagConstraints.WEST;
+        contentPane.add(checkboxLinkDuplicates, constraints);
+
+        checkboxWatchInputFolder = createCheckBox(CHECKBOX_WATCH_INPUT_FOLDER, CHECKBOX_WATCH_INPUT_FOLDER_TOOLTIP);
+        checkboxWatchInputFolder.addActionListener(e -> toggleWatchInputFolder());
+        constraints.gridx = 0;
+        constraints.gridy = 10;
+        constraints.gridwidth = 2;
+        constraints.fill = GridBagConstraints.VERTICAL;
+        constraints.anchor = GridBagConstraints.WEST;
+        contentPane.add(checkboxWatchInputFolder, constraints);
+
+        scrollpaneVideoList = createVideoListScrollPane();
+        constraints.gridx = 0;
+        constraints.gridy = 11;
+        constraints.gridwidth = 2;
         constraints.fill = GridBagConstraints.BOTH;
         constraints.weighty = 1.0;
         contentPane.add(scrollpaneVideoList, constraints);
 
         scrollpaneLog = createLogScrollPane();
         constraints.gridx = 0;
-        constraints.gridy = 8;
+        constraints.gridy = 12;
         constraints.gridwidth = 2;
         constraints.weighty = 1.0;
         constraints.fill = GridBagConstraints.BOTH;
@@ -202,22 +261,47 @@ public class ReliveTrackMergerUI extends JFrame {
         buttonConstraints.weightx = 1.0;
         buttonPanel.add(buttonProcess, buttonConstraints);
 
+        JLabel labelConcurrency = new JLabel(LABEL_CONCURRENCY);
+        labelConcurrency.setToolTipText(SPINNER_CONCURRENCY_TOOLTIP);
+        buttonConstraints.gridx = 1;
+        buttonConstraints.weightx = 0;
+        buttonPanel.add(labelConcurrency, buttonConstraints);
+
+        spinnerConcurrency = createConcurrencySpinner();
+        buttonConstraints.gridx = 2;
+        buttonConstraints.weightx = 0;
+        buttonPanel.add(spinnerConcurrency, buttonConstraints);
+
         buttonPauseResume = new JButton("Pause");
         buttonPauseResume.setEnabled(false);
         buttonPauseResume.setFocusable(false);
         buttonPauseResume.addActionListener(e -> togglePauseResume());
-        buttonConstraints.gridx = 1;
+        buttonConstraints.gridx = 3;
         buttonConstraints.weightx = 0.3;
         buttonPanel.add(buttonPauseResume, buttonConstraints);
 
         constraints.gridx = 0;
-        constraints.gridy = 9;
+        constraints.gridy = 13;
         constraints.gridwidth = 2;
         constraints.weighty = 0;
         constraints.fill = GridBagConstraints.HORIZONTAL;
         contentPane.add(buttonPanel, constraints);
     }
 
+    private void toggleWatchInputFolder() {
+        if (checkboxWatchInputFolder.isSelected()) {
+            if (!controller.startWatchingInputFolder(this)) {
+                checkboxWatchInputFolder.setSelected(false);
+            }
+        } else {
+            controller.stopWatchingInputFolder(this);
+        }
+    }
+
+    public void setWatchInputFolderSelected(boolean selected) {
+        checkboxWatchInputFolder.setSelected(selected);
+    }
+
     private void togglePauseResume() {
         if (processingPaused) {
             controller.resumeReplayProcessing();
@@ -238,6 +322,13 @@ public class ReliveTrackMergerUI extends JFrame {
         return button;
     }
 
+    private JSpinner createConcurrencySpinner() {
+        SpinnerNumberModel model = new SpinnerNumberModel(ProcessingConfig.DEFAULT_CONCURRENCY, 1, ProcessingConfig.MAX_CONCURRENCY, 1);
+        JSpinner spinner = new JSpinner(model);
+        spinner.setToolTipText(SPINNER_CONCURRENCY_TOOLTIP);
+        return spinner;
+    }
+
     private JSeparator createSeparator() {
         return new JSeparator(SwingConstants.HORIZONTAL);
     }
@@ -268,7 +359,7 @@ public class ReliveTrackMergerUI extends JFrame {
     }
 
     public void cleanLogTextarea() {
-        textareaLog.setText("");
+        logConsole.clear();
     }
 
     public void disableButtonSelectOutputFolder() {
@@ -298,6 +389,7 @@ public class ReliveTrackMergerUI extends JFrame {
 
     public void setButtonProcessToInitialState() {
         buttonProcess.setText(BUTTON_PROCESS_LABEL);
+        spinnerConcurrency.setEnabled(true);
         buttonPauseResume.setEnabled(false);
         buttonPauseResume.setText("Pause");
         processingPaused = false;
@@ -313,6 +405,7 @@ public class ReliveTrackMergerUI extends JFrame {
 
     public void setButtonProcessToCancelState() {
         buttonProcess.setText(BUTTON_CANCEL_LABEL);
+        spinnerConcurrency.setEnabled(false);
         buttonPauseResume.setEnabled(true);
         clearActionListenersAndSetNewAction(buttonProcess, cancelProcessingAction());
     }
@@ -327,14 +420,17 @@ public class ReliveTrackMergerUI extends JFrame {
 
     public void cleanTextFieldInputFolderPath() {
         textFieldInputFolderPath.setText("");
+        textFieldInputFolderPath.setToolTipText(null);
     }
 
     public void cleanTextFieldOutputFolderPath() {
         textFieldOutputFolderPath.setText("");
     }
 
-    public void setTextFieldInputFolderPath(String textFieldInputFolderPath) {
-        this.textFieldInputFolderPath.setText(textFieldInputFolderPath);
+    public void setTextFieldInputFolderPaths(List<File> inputFolders) {
+        String paths = inputFolders.stream().map(File::getAbsolutePath).collect(Collectors.joining(INPUT_FOLDERS_SEPARATOR));
+        textFieldInputFolderPath.setText(paths);
+        textFieldInputFolderPath.setToolTipText(inputFolders.size() > 1 ? paths : null);
     }
 
     public void setTextFieldOutputFolderPath(String textFieldOutputFolderPath) {
@@ -357,35 +453,68 @@ public class ReliveTrackMergerUI extends JFrame {
         return checkboxDeleteMicrophoneTracksAfterCopying.isSelected();
     }
 
+    public boolean isAppendInPlaceSelected() {
+        return checkboxAppendInPlace.isSelected();
+    }
+
+    public boolean isVerifyOutputSelected() {
+        return checkboxVerifyOutput.isSelected();
+    }
+
+    public boolean isLinkDuplicatesSelected() {
+        return checkboxLinkDuplicates.isSelected();
+    }
+
+    public int getConcurrency() {
+        return (Integer) spinnerConcurrency.getValue();
+    }
+
     public void clearVideoList() {
         listVideoModel.clear();
     }
 
-    public void addToVideoList(String replayName) {
-        listVideoModel.addElement(replayName);
+    public void addToVideoList(File replay) {
+        listVideoModel.add(replay);
+    }
+
+    public void addAllToVideoList(Collection<File> replays) {
+        listVideoModel.addAll(replays);
+    }
+
+    public void setVideoList(Collection<File> replays) {
+        listVideoModel.setAll(replays);
     }
 
     public void repaintVideoList() {
         listVideoView.repaint();
     }
 
-    public void updateReplayStatusInList(String updatedStatus) {
-        SwingUtilities.invokeLater(() -> {
-            String videoName = updatedStatus.substring(2); // Assume status is a single character followed by a space
-            for (int i = 0; i < listVideoModel.getSize(); i++) {
-                String currentName = listVideoModel.getElementAt(i);
-                if (currentName.trim().endsWith(videoName)) {
-                    listVideoModel.set(i, updatedStatus);
-                    break;
-                }
-            }
-        });
+    public void updateReplayStatusInList(File replay, ReplayState state) {
+        updateReplayStatusInList(replay, state, null);
+    }
+
+    /**
+     * Update the status of a replay in the list and show `details` (e.g. live progress) after its name.
+     * Can be called from any thread.
+     */
+    public void updateReplayStatusInList(File replay, ReplayState state, String details) {
+        listVideoModel.postUpdate(replay, state, details);
+    }
+
+    /**
+     * Show the overall progress of the running batch in the window title, null to reset it.
+     */
+    public void setOverallProgress(String progress) {
+        SwingUtilities.invokeLater(() -> setTitle(progress == null ? APP_TITLE : APP_TITLE + LIST_DETAILS_SEPARATOR + progress));
     }
 
     private JScrollPane createVideoListScrollPane() {
-        listVideoModel = new DefaultListModel<>();
+        listVideoModel = new ReplayListModel();
         listVideoView = new JList<>(listVideoModel);
         listVideoView.setFocusable(false);
+        listVideoView.setCellRenderer(new ReplayListCellRenderer(listVideoModel));
+        // A prototype gives every row the same height, so JList never measures all rows
+        listVideoView.setPrototypeCellValue(new File(LIST_PROTOTYPE_REPLAY_NAME));
 
         return new JScrollPane(listVideoView);
     }
@@ -397,6 +526,23 @@ public class ReliveTrackMergerUI extends JFrame {
         return button;
     }
 
+    // Several folders can be picked at once when they are next to each other
+    private List<File> selectDirectories() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setMultiSelectionEnabled(true);
+        int result = chooser.showOpenDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) {
+            return Collections.emptyList();
+        }
+        File[] selectedFiles = chooser.getSelectedFiles();
+        // Some look and feels only fill the single selection when one folder has been picked
+        if (selectedFiles.length == 0 && chooser.getSelectedFile() != null) {
+            return Collections.singletonList(chooser.getSelectedFile());
+        }
+        return Arrays.asList(selectedFiles);
+    }
+
     private File selectDirectory() {
         JFileChooser chooser = new JFileChooser();
         chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -405,25 +551,8 @@ public class ReliveTrackMergerUI extends JFrame {
     }
 
     private void redirectSystemOutToTextArea() {
-        OutputStream textAreaStream = new OutputStream() {
-            @Override
-            public void write(int b) {
-                appendLog(String.valueOf((char) b));
-            }
-
-            @Override
-            public void write(byte[] b, int off, int len) {
-                appendLog(new String(b, off, len));
-            }
-
-            private void appendLog(String text) {
-                SwingUtilities.invokeLater(() -> textareaLog.append(text));
-            }
-        };
-
-        PrintStream printStream = new PrintStream(textAreaStream, true);
-        System.setOut(printStream);
-        System.setErr(printStream);
+        logConsole = new LogConsole(textareaLog, Integer.getInteger(LOG_MAX_LINES_PROPERTY, LOG_MAX_LINES));
+        logConsole.install();
     }
 
 }
@@ -0,0 +1,46 @@
+package merger.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+
+import static merger.ui.UIConstants.LIST_DETAILS_SEPARATOR;
+
+/**
+ * Renders a row of the {@link ReplayListModel} as "state icon, replay name, progress details".
+ * <p>
+ * The text is built only for the rows JList actually paints; together with a fixed cell height
+ * this keeps lists with a very large number of replays responsive.
+ */
+class ReplayListCellRenderer extends DefaultListCellRenderer {
+
+    private final ReplayListModel model;
+
+    ReplayListCellRenderer(ReplayListModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+        File replay = (File) value;
+        StringBuilder text = new StringBuilder();
+        if (index >= 0 && index < model.getSize()) {
+            String icon = model.getStateAt(index).getIcon();
+            if (!icon.isEmpty()) {
+                text.append(icon).append(' ');
+            }
+            text.append(replay.getName());
+            String details = model.getDetailsAt(index);
+            if (details != null) {
+                text.append(LIST_DETAILS_SEPARATOR).append(details);
+            }
+        } else {
+            // Prototype value used to compute the fixed cell height
+            text.append(replay.getName());
+        }
+
+        super.getListCellRendererComponent(list, text.toString(), index, isSelected, cellHasFocus);
+        setToolTipText(index >= 0 ? replay.getAbsolutePath() : null);
+        return this;
+    }
+}
@@ -0,0 +1,160 @@
+package merger.ui;
+
+import javax.swing.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * List model of the replays shown in the UI, keyed by the replay file itself.
+ * <p>
+ * Rows are found through an index map, so updating the state of a replay is O(1) regardless
+ * of the list size and replays with the same name in different game folders stay separate.
+ * Per row only the replay, a one byte {@link ReplayState} and, while a replay is running, its
+ * progress details are stored.
+ * <p>
+ * All methods must be called on the EDT except {@link #postUpdate}, which may be called from
+ * any thread: updates are collected and applied in one EDT task, firing a single change event
+ * for the range of affected rows instead of one event per update.
+ */
+public class ReplayListModel extends AbstractListModel<File> {
+
+    private final List<File> replays = new ArrayList<>();
+    private final Map<File, Integer> rowByReplay = new HashMap<>();
+    private byte[] states = new byte[64];
+    // Only rows that currently show details have an entry
+    private final Map<Integer, String> detailsByRow = new HashMap<>();
+
+    // Updates posted by worker threads that have not been applied yet, latest update per replay wins
+    private final Map<File, Update> pendingUpdates = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    @Override
+    public int getSize() {
+        return replays.size();
+    }
+
+    @Override
+    public File getElementAt(int index) {
+        return replays.get(index);
+    }
+
+    public ReplayState getStateAt(int index) {
+        return ReplayState.VALUES[states[index]];
+    }
+
+    /**
+     * Progress details of the row or null.
+     */
+    public String getDetailsAt(int index) {
+        return detailsByRow.get(index);
+    }
+
+    public void add(File replay) {
+        addAll(Collections.singletonList(replay));
+    }
+
+    /**
+     * Append replays that are not in the list yet, firing a single event for all of them.
+     */
+    public void addAll(Collection<File> newReplays) {
+        int firstRow = replays.size();
+        for (File replay : newReplays) {
+            File key = replay.getAbsoluteFile();
+            if (!rowByReplay.containsKey(key)) {
+                rowByReplay.put(key, replays.size());
+                replays.add(key);
+            }
+        }
+        int lastRow = replays.size() - 1;
+        if (lastRow < firstRow) {
+            return;
+        }
+
+        ensureStateCapacity(replays.size());
+        Arrays.fill(states, firstRow, lastRow + 1, (byte) ReplayState.QUEUED.ordinal());
+        fireIntervalAdded(this, firstRow, lastRow);
+    }
+
+    /**
+     * Replace the whole content of the list.
+     */
+    public void setAll(Collection<File> newReplays) {
+        clear();
+        addAll(newReplays);
+    }
+
+    public void clear() {
+        int size = replays.size();
+        replays.clear();
+        rowByReplay.clear();
+        detailsByRow.clear();
+        pendingUpdates.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+    /**
+     * Queue a state change of a replay; safe to call from any thread.
+     *
+     * @param details progress details shown after the name, null for none
+     */
+    public void postUpdate(File replay, ReplayState state, String details) {
+        pendingUpdates.put(replay.getAbsoluteFile(), new Update(state, details));
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::applyPendingUpdates);
+        }
+    }
+
+    private void applyPendingUpdates() {
+        flushScheduled.set(false);
+        int firstChangedRow = Integer.MAX_VALUE;
+        int lastChangedRow = -1;
+
+        for (File replay : pendingUpdates.keySet()) {
+            Update update = pendingUpdates.remove(replay);
+            Integer row = rowByReplay.get(replay);
+            if (update == null || row == null) {
+                continue;
+            }
+
+            states[row] = (byte) update.state.ordinal();
+            if (update.details == null) {
+                detailsByRow.remove(row);
+            } else {
+                detailsByRow.put(row, update.details);
+            }
+            firstChangedRow = Math.min(firstChangedRow, row);
+            lastChangedRow = Math.max(lastChangedRow, row);
+        }
+
+        if (lastChangedRow >= 0) {
+            fireContentsChanged(this, firstChangedRow, lastChangedRow);
+        }
+    }
+
+    private void ensureStateCapacity(int size) {
+        if (size > states.length) {
+            states = Arrays.copyOf(states, Math.max(size, states.length * 2));
+        }
+    }
+
+    private static final class Update {
+
+        private final ReplayState state;
+        private final String details;
+
+        private Update(ReplayState state, String details) {
+            this.state = state;
+            this.details = details;
+        }
+    }
+}
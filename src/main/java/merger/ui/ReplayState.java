@@ -0,0 +1,26 @@
+package merger.ui;
+
+/**
+ * Processing state of a replay as shown in the replay list.
+ */
+public enum ReplayState {
+
+    QUEUED(""),
+    PROCESSING("🔁"),
+    COMPLETED("✅"),
+    FAILED("❌"),
+    CANCELLED("⏹️");
+
+    // Shared array so rows can store their state as a single byte
+    static final ReplayState[] VALUES = values();
+
+    private final String icon;
+
+    ReplayState(String icon) {
+        this.icon = icon;
+    }
+
+    public String getIcon() {
+        return icon;
+    }
+}
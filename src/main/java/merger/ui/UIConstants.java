@@ -6,11 +6,19 @@ import java.awt.*;
 public class UIConstants {
 
     static final String APP_TITLE = "Relive Track Merger";
+    // Separates a replay name in the list from its live progress details
+    static final String LIST_DETAILS_SEPARATOR = "  —  ";
+    static final String LIST_PROTOTYPE_REPLAY_NAME = "Game_replay_2024.01.01-00.00.mp4";
     static final String BUTTON_INPUT_LABEL = "Select Input Folder";
+    static final String BUTTON_ADD_INPUT_LABEL = "Add…";
+    static final String BUTTON_ADD_INPUT_TOOLTIP = "Add another input folder, e.g. the replay folder on a second drive.";
+    static final String INPUT_FOLDERS_SEPARATOR = "; ";
     static final String BUTTON_OUTPUT_LABEL = "Select Output Folder";
     static final String BUTTON_PROCESS_LABEL = "Process";
     static final String BUTTON_PROCESS_TOOLTIP = "Please select an input folder first before processing.";
     static final String BUTTON_CANCEL_LABEL = "Cancel";
+    static final String LABEL_CONCURRENCY = "Parallel jobs:";
+    static final String SPINNER_CONCURRENCY_TOOLTIP = "Number of replays that are processed at the same time.";
     static final String CHECKBOX_CLEAN_OUTPUT_FOLDER = "Clean output folder if it exists";
     static final String CHECKBOX_CLEAN_OUTPUT_FOLDER_TOOLTIP = "Leaving this unchecked will overwrite existing files in the output folder. Check this box to clean the output folder before processing.";
     static final String CHECKBOX_OPEN_OUTPUT_FOLDER = "Open output folder after processing";
@@ -19,6 +27,18 @@ public class UIConstants {
     static final String CHECKBOX_REPLACE_SOURCE_INSTEAD_OF_COPYING_TOOLTIP = "Instead of being copied separately to an output folder, processed replays will replace the source video.";
     static final String CHECKBOX_DELETE_MICROPHONE_TRACKS_AFTER_PROCESSING = "Delete microphone tracks after processing";
     static final String CHECKBOX_DELETE_MICROPHONE_TRACKS_AFTER_PROCESSING_TOOLTIP = "Delete microphone tracks after they have been added to their replay.";
+    static final String CHECKBOX_VERIFY_OUTPUT = "Also verify copied replays by reading samples back";
+    static final String CHECKBOX_VERIFY_OUTPUT_TOOLTIP = "Read about one megabyte of every copied replay back and compare it with the original. Merged replays are always checked this way.";
+    static final String CHECKBOX_LINK_DUPLICATES = "Link copies of a replay to its merged replay";
+    static final String CHECKBOX_LINK_DUPLICATES_TOOLTIP = "Replays that are byte-identical copies of another replay, e.g. in a backup folder, are merged only once. Check this box to give the copies the merged replay as a link (or a copy) afterwards, uncheck it to skip them.";
+    static final String CHECKBOX_WATCH_INPUT_FOLDER = "Watch input folder and merge new replays automatically";
+    static final String CHECKBOX_WATCH_INPUT_FOLDER_TOOLTIP = "Keep running and merge every new replay as soon as it has been completely written. Processing manually is disabled while watching.";
+    static final String CHECKBOX_APPEND_IN_PLACE = "Append microphone tracks in place";
+    static final String CHECKBOX_APPEND_IN_PLACE_TOOLTIP = "Append the microphone track to the end of the original replay instead of rewriting the whole video. The original stays intact until the last step.";
+
+    // Maximum number of lines kept in the log area, can be overridden with -Dmerger.logMaxLines=<n>
+    static final int LOG_MAX_LINES = 5000;
+    static final String LOG_MAX_LINES_PROPERTY = "merger.logMaxLines";
 
     static final Dimension APP_WINDOW_SIZE = new Dimension(600, 600);
     static final Dimension DEFAULT_SELECT_BUTTON_SIZE = new Dimension(150, 25);
@@ -0,0 +1,37 @@
+package merger.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Location of files the application keeps between runs (ledger, caches, history).
+ * Defaults to `~/.relive-track-merger` and can be overridden with the
+ * `merger.dataDirectory` system property.
+ */
+public final class AppDataDirectory {
+
+    private static final String DATA_DIRECTORY_PROPERTY = "merger.dataDirectory";
+    private static final String DEFAULT_DIRECTORY_NAME = ".relive-track-merger";
+
+    private AppDataDirectory() {}
+
+    public static Path get() throws IOException {
+        String configured = System.getProperty(DATA_DIRECTORY_PROPERTY);
+        Path directory = configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), DEFAULT_DIRECTORY_NAME);
+        Files.createDirectories(directory);
+        return directory;
+    }
+
+    public static Path resolve(String fileName) throws IOException {
+        return get().resolve(fileName);
+    }
+
+    public static File resolveFile(String fileName) throws IOException {
+        return resolve(fileName).toFile();
+    }
+}
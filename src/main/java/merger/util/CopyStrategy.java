@@ -0,0 +1,35 @@
+package merger.util;
+
+/**
+ * How a replay that does not need to be modified is placed into the output folder.
+ */
+public enum CopyStrategy {
+
+    /**
+     * Reflink when source and target are on the same file store and it supports them, otherwise a
+     * hard link on the same file store as long as neither file is changed in place later (i.e. not
+     * when originals are replaced), and a channel-based copy if neither is possible.
+     */
+    AUTO,
+
+    /**
+     * Copy-on-write clone of the file (Btrfs, XFS, APFS, ...). Falls back to a copy if unsupported.
+     */
+    REFLINK,
+
+    /**
+     * Hard link to the original, also when originals are replaced. Both names share the same data,
+     * so changes to one, e.g. appending a microphone track in place, are visible in the other.
+     */
+    HARD_LINK,
+
+    /**
+     * Symbolic link pointing to the original. Breaks if the original is moved or deleted.
+     */
+    SYMBOLIC_LINK,
+
+    /**
+     * Full copy of the file contents.
+     */
+    COPY
+}
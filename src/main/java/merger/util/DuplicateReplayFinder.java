@@ -0,0 +1,87 @@
+package merger.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds byte-identical copies among scanned replays, e.g. of sessions copied to a backup folder
+ * that is scanned as well.
+ * <p>
+ * Replays are grouped by the size of the replay and of its microphone track first; only replays
+ * that share both sizes are hashed with {@link SampledFileHash}, which reads a few blocks with
+ * positional I/O instead of the whole file. A replay is only a duplicate if its microphone track
+ * matches too, otherwise merging it gives a different result.
+ */
+final class DuplicateReplayFinder {
+
+    private static final String NO_MICROPHONE_TRACK = "-";
+
+    private DuplicateReplayFinder() {}
+
+    /**
+     * @return every duplicate mapped to the replay it is a copy of; of each group of copies the
+     * replay with the lexically smallest path is kept, so repeated scans agree on it
+     */
+    static Map<File, File> find(Collection<File> replays) {
+        Map<String, List<File>> bySize = new HashMap<>();
+        for (File replay : replays) {
+            File microphoneTrack = ReplayUtils.getMicrophoneTrack(replay);
+            String sizes = replay.length() + ":" + (microphoneTrack.isFile() ? microphoneTrack.length() : NO_MICROPHONE_TRACK);
+            bySize.computeIfAbsent(sizes, key -> new ArrayList<>()).add(replay);
+        }
+
+        List<File> candidates = new ArrayList<>();
+        for (List<File> group : bySize.values()) {
+            if (group.size() > 1) {
+                candidates.addAll(group);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        // Runs on the calling fork/join pool, i.e. the scanner threads
+        Map<File, String> fingerprints = new ConcurrentHashMap<>();
+        candidates.parallelStream().forEach(replay -> {
+            String fingerprint = fingerprint(replay);
+            if (fingerprint != null) {
+                fingerprints.put(replay, fingerprint);
+            }
+        });
+
+        candidates.sort(Comparator.comparing(File::getAbsolutePath));
+        Map<String, File> originals = new HashMap<>();
+        Map<File, File> duplicates = new LinkedHashMap<>();
+        for (File replay : candidates) {
+            String fingerprint = fingerprints.get(replay);
+            if (fingerprint == null) {
+                continue;
+            }
+            File original = originals.putIfAbsent(fingerprint, replay);
+            if (original != null) {
+                duplicates.put(replay, original);
+            }
+        }
+        return duplicates;
+    }
+
+    // Returns null if the files cannot be read, such a replay is never treated as a duplicate
+    private static String fingerprint(File replay) {
+        try {
+            File microphoneTrack = ReplayUtils.getMicrophoneTrack(replay);
+            return SampledFileHash.compute(replay.toPath()) + ":"
+                    + (microphoneTrack.isFile() ? SampledFileHash.compute(microphoneTrack.toPath()) : NO_MICROPHONE_TRACK);
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to hash " + replay + " for duplicate detection: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package merger.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Places an unchanged file at a new location as cheaply as possible.
+ * <p>
+ * Links and reflinks only need a metadata update instead of duplicating gigabytes of video,
+ * but they only work when source and target live on the same file store. The requested
+ * strategy is tried first; whenever it is not possible we fall back to a plain channel copy.
+ * {@link CopyStrategy#AUTO} tries a reflink and then, unless the caller may change one of the
+ * files in place later, a hard link. Windows has no reflinks, so there a hard link is what
+ * saves the copy.
+ */
+public class FileLinker {
+
+    // Amount of bytes copied between two cancellation and pause checks
+    private static final long TRANSFER_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private static final long REFLINK_TIMEOUT_SECONDS = 60;
+
+    private static final String OS_NAME = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+
+    // File stores that do not support reflinks, so we do not spawn `cp` again for every file
+    private static final Map<FileStore, Boolean> reflinkUnsupported = new ConcurrentHashMap<>();
+
+    /**
+     * Place `source` at `target`, replacing an existing target file.
+     * @return the strategy that was actually used (never AUTO)
+     */
+    public static CopyStrategy linkOrCopy(Path source, Path target, CopyStrategy strategy, BooleanSupplier cancellationRequested) throws IOException {
+        return linkOrCopy(source, target, strategy, cancellationRequested, PauseGate.NONE);
+    }
+
+    /**
+     * Like {@link #linkOrCopy(Path, Path, CopyStrategy, BooleanSupplier)}, a copy stops in the middle of the file while the gate is paused.
+     * {@link CopyStrategy#AUTO} does not hard link.
+     */
+    public static CopyStrategy linkOrCopy(Path source, Path target, CopyStrategy strategy, BooleanSupplier cancellationRequested, PauseGate pauseGate) throws IOException {
+        return linkOrCopy(source, target, strategy, false, cancellationRequested, pauseGate);
+    }
+
+    /**
+     * @param hardLinkAllowed whether {@link CopyStrategy#AUTO} may hard link when a reflink is not possible;
+     *                        false if one of the files may be changed in place later, which would change both
+     */
+    public static CopyStrategy linkOrCopy(Path source, Path target, CopyStrategy strategy, boolean hardLinkAllowed,
+                                          BooleanSupplier cancellationRequested, PauseGate pauseGate) throws IOException {
+        Files.deleteIfExists(target);
+
+        FileStore sourceStore = Files.getFileStore(source);
+        boolean sameFileStore = sourceStore.equals(Files.getFileStore(target.toAbsolutePath().getParent()));
+
+        switch (strategy) {
+            case AUTO:
+                if (sameFileStore && tryReflink(source, target, sourceStore)) {
+                    return CopyStrategy.REFLINK;
+                }
+                if (sameFileStore && hardLinkAllowed && tryHardLink(source, target)) {
+                    return CopyStrategy.HARD_LINK;
+                }
+                break;
+            case REFLINK:
+                if (sameFileStore && tryReflink(source, target, sourceStore)) {
+                    return CopyStrategy.REFLINK;
+                }
+                break;
+            case HARD_LINK:
+                if (sameFileStore && tryHardLink(source, target)) {
+                    return CopyStrategy.HARD_LINK;
+                }
+                break;
+            case SYMBOLIC_LINK:
+                // Symbolic links may cross file stores, they only need to resolve to the original
+                if (trySymbolicLink(source, target)) {
+                    return CopyStrategy.SYMBOLIC_LINK;
+                }
+                break;
+            default:
+                break;
+        }
+
+        copy(source, target, cancellationRequested, pauseGate);
+        return CopyStrategy.COPY;
+    }
+
+    /**
+     * Whether this platform can make reflinks at all. Whether a file store supports them is only
+     * known after the first attempt.
+     */
+    public static boolean isReflinkAvailable() {
+        return !OS_NAME.contains("win");
+    }
+
+    /**
+     * Copy the file contents with FileChannel.transferTo, which lets the OS move the bytes
+     * without passing them through the Java heap.
+     */
+    public static void copy(Path source, Path target, BooleanSupplier cancellationRequested) throws IOException {
+        copy(source, target, cancellationRequested, PauseGate.NONE);
+    }
+
+    public static void copy(Path source, Path target, BooleanSupplier cancellationRequested, PauseGate pauseGate) throws IOException {
+        boolean completed = false;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                awaitResume(pauseGate, "Copying was cancelled: " + source.getFileName());
+                if (cancellationRequested.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Copying was cancelled: " + source.getFileName());
+                }
+                long transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of file while copying " + source.getFileName());
+                }
+                position += transferred;
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    /**
+     * Wait while processing is paused; the copy continues where it stopped.
+     */
+    private static void awaitResume(PauseGate pauseGate, String cancelMessage) throws InterruptedIOException {
+        if (!pauseGate.isPauseRequested()) {
+            return;
+        }
+        try {
+            pauseGate.awaitResume();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(cancelMessage);
+        }
+    }
+
+    private static boolean tryHardLink(Path source, Path target) {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            ProcessingLogger.debug("Hard link not possible for " + source.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean trySymbolicLink(Path source, Path target) {
+        try {
+            Files.createSymbolicLink(target, source.toAbsolutePath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Windows requires a privilege or developer mode for symbolic links
+            ProcessingLogger.debug("Symbolic link not possible for " + source.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Java has no API for copy-on-write clones, so we delegate to `cp` which uses the
+     * FICLONE ioctl on Linux and clonefile() on macOS. Not available on Windows.
+     * <p>
+     * Only a definite "not supported" from `cp`, or no `cp` at all, rules out the file store for
+     * the rest of the session; any other failure, e.g. a timeout, only affects this file.
+     */
+    private static boolean tryReflink(Path source, Path target, FileStore fileStore) {
+        if (!isReflinkAvailable() || reflinkUnsupported.containsKey(fileStore)) {
+            return false;
+        }
+
+        String[] command = OS_NAME.contains("mac")
+                ? new String[]{"cp", "-c", source.toString(), target.toString()}
+                : new String[]{"cp", "--reflink=always", source.toString(), target.toString()};
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            if (!process.waitFor(REFLINK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                ProcessingLogger.debug("Reflink of " + source.getFileName() + " timed out");
+            } else if (process.exitValue() == 0) {
+                return true;
+            } else {
+                String output = readOutput(process);
+                ProcessingLogger.debug("Reflink not possible for " + source.getFileName() + ": " + output);
+                // EOPNOTSUPP, e.g. "failed to clone ...: Operation not supported"
+                if (output.toLowerCase(Locale.ROOT).contains("not supported")) {
+                    reflinkUnsupported.put(fileStore, Boolean.TRUE);
+                }
+            }
+        } catch (IOException e) {
+            // `cp` could not be started
+            ProcessingLogger.debug("Reflink not possible for " + source.getFileName() + ": " + e.getMessage());
+            reflinkUnsupported.put(fileStore, Boolean.TRUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        deleteQuietly(target);
+        return false;
+    }
+
+    // The output of `cp` is a line or two, it is only read once the process has exited
+    private static String readOutput(Process process) throws IOException {
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line.trim()).append(' ');
+            }
+        }
+        return output.toString().trim();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            ProcessingLogger.debug("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package merger.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for work that spends its time blocked: waiting for FFmpeg, draining its output and
+ * reading or writing replays.
+ * <p>
+ * This is the Java 8 version, which starts a platform thread for every task. The jar is a
+ * multi-release jar: on Java 21 and newer the class in {@code META-INF/versions/21} is loaded
+ * instead, which starts virtual threads, so a blocked job or pipe reader does not hold on to a
+ * platform thread. Both versions must offer the same methods.
+ * <p>
+ * All threads are daemon threads, as virtual threads always are; callers wait for their tasks.
+ */
+public final class IoThreads {
+
+    private IoThreads() {
+    }
+
+    /**
+     * Whether the threads are virtual threads.
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Factory for threads named {@code <namePrefix>-1}, {@code <namePrefix>-2} and so on.
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        AtomicInteger index = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Start a thread for a single task.
+     */
+    public static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,457 @@
+package merger.util;
+
+import merger.mp4.Mp4Remuxer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-ahead journal of the steps every replay job goes through, so a run that was killed
+ * halfway can be cleaned up or completed on the next start.
+ * <p>
+ * A job is planned, started, has its output written, replaces the original and deletes the
+ * microphone track before it is finished. Each step is appended and forced to disk before
+ * the file operation that depends on it. Every record holds the whole job (replay, output,
+ * options and the length of a replay that is appended to in place), so the last record of a
+ * replay tells what is left to do.
+ * {@link #recover(ProcessedReplayLedger)} runs once at startup: it deletes partial outputs,
+ * completes replacements whose output was already written and rewrites the journal with the
+ * jobs that still have to be processed. While running, e.g. in watch mode, the journal is
+ * compacted every {@value #COMPACTION_INTERVAL} finished or failed jobs, which drops the records
+ * of jobs that have nothing left to recover.
+ */
+public class JobJournal {
+
+    public static final String DEFAULT_FILE_NAME = "jobs.journal";
+
+    private static final int FIELD_COUNT = 5;
+
+    // Finished or failed jobs between two compactions of the journal
+    static final int COMPACTION_INTERVAL = 64;
+
+    private static JobJournal defaultJournal;
+
+    private final Path journalFile;
+    // Finished or failed jobs recorded since the journal was last rewritten
+    private int terminalRecordsSinceCompaction;
+
+    public enum Step {
+        PLANNED,
+        STARTED,
+        OUTPUT_WRITTEN,
+        ORIGINAL_REPLACED,
+        MICROPHONE_TRACK_DELETED,
+        FINISHED,
+        FAILED
+    }
+
+    public JobJournal(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * The shared journal in the application data directory.
+     * Returns null if the data directory is not available, in which case nothing is journaled.
+     */
+    public static synchronized JobJournal getDefault() {
+        if (defaultJournal == null) {
+            try {
+                defaultJournal = new JobJournal(AppDataDirectory.resolve(DEFAULT_FILE_NAME));
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to open the job journal: " + e.getMessage());
+            }
+        }
+        return defaultJournal;
+    }
+
+    /**
+     * Append a step of a job and force it to disk before returning.
+     */
+    public void record(Job job, Step step) throws IOException {
+        recordAll(Collections.singletonList(job), step);
+    }
+
+    /**
+     * Append the same step for several jobs with a single write to disk, e.g. when a batch is planned.
+     */
+    public void recordAll(List<Job> jobs, Step step) throws IOException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        StringBuilder records = new StringBuilder();
+        for (Job job : jobs) {
+            records.append(job.format(step)).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            try (FileChannel channel = FileChannel.open(journalFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            }
+            if (step == Step.FINISHED || step == Step.FAILED) {
+                terminalRecordsSinceCompaction += jobs.size();
+                if (terminalRecordsSinceCompaction >= COMPACTION_INTERVAL) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal with the last record of every job that is not finished, so it does not
+     * grow with every replay of a long watch session. Failed jobs are dropped as well, unless the
+     * data of a failed append in place is still there for recovery to truncate.
+     */
+    private void compact() throws IOException {
+        Map<String, Record> lastRecords = new LinkedHashMap<>();
+        Map<String, Record> lastStarts = new LinkedHashMap<>();
+        readLastRecords(lastRecords, lastStarts);
+
+        StringBuilder records = new StringBuilder();
+        for (Record record : lastRecords.values()) {
+            String replayPath = record.job.replay.getAbsolutePath();
+            if (record.step == Step.FAILED) {
+                Record lastStart = lastStarts.get(replayPath);
+                if (lastStart == null || lastStart.job.originalLength < 0
+                        || !record.job.replay.isFile() || record.job.replay.length() <= lastStart.job.originalLength) {
+                    continue;
+                }
+                // Recovery takes the original length from the start of the append
+                records.append(lastStart.job.format(Step.STARTED)).append('\n');
+            } else if (record.step == Step.FINISHED) {
+                continue;
+            }
+            records.append(record.job.format(record.step)).append('\n');
+        }
+        rewrite(records.toString());
+    }
+
+    /**
+     * Bring every job an earlier run left unfinished into a consistent state and rewrite the
+     * journal with the jobs that still have to be processed.
+     * <ul>
+     * <li>Started, nothing written yet: a partial output is deleted, unless the remuxer left a
+     * checkpoint to continue it.</li>
+     * <li>Started or failed while appending to the replay in place: the replay is truncated to the
+     * length recorded when the job started, unless the append was already committed, in which
+     * case the job is completed like a replaced original.</li>
+     * <li>Output written: the original is replaced by it and the microphone track is deleted
+     * if the job asked for it.</li>
+     * <li>Original replaced: the microphone track is deleted if the job asked for it.</li>
+     * </ul>
+     * Completed jobs are recorded in the ledger, so the next scan skips them.
+     *
+     * @param ledger ledger of processed replays, may be null
+     */
+    public synchronized Recovery recover(ProcessedReplayLedger ledger) throws IOException {
+        Map<String, Record> lastRecords = new LinkedHashMap<>();
+        Map<String, Record> lastStarts = new LinkedHashMap<>();
+        if (!readLastRecords(lastRecords, lastStarts)) {
+            return new Recovery();
+        }
+
+        Recovery recovery = new Recovery();
+        for (Record record : lastRecords.values()) {
+            Job job = record.job;
+            switch (record.step) {
+                case STARTED:
+                    if (job.originalLength >= 0) {
+                        if (!discardUncommittedAppend(recovery, job.replay, job.originalLength)) {
+                            if (complete(job, Step.ORIGINAL_REPLACED, ledger)) {
+                                recovery.completedJobs++;
+                            }
+                            break;
+                        }
+                    } else if (deletePartialOutput(job)) {
+                        recovery.removedOutputs++;
+                    }
+                    addIfPending(recovery, job, ledger);
+                    break;
+                case PLANNED:
+                    addIfPending(recovery, job, ledger);
+                    break;
+                case OUTPUT_WRITTEN:
+                case ORIGINAL_REPLACED:
+                case MICROPHONE_TRACK_DELETED:
+                    if (complete(job, record.step, ledger)) {
+                        recovery.completedJobs++;
+                    }
+                    break;
+                case FAILED:
+                    // A failed append truncates the replay itself, unless that failed as well
+                    Record lastStart = lastStarts.get(job.replay.getAbsolutePath());
+                    if (lastStart != null && lastStart.job.originalLength >= 0) {
+                        discardUncommittedAppend(recovery, job.replay, lastStart.job.originalLength);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Only the jobs that still have to be processed are kept, as planned
+        StringBuilder records = new StringBuilder();
+        for (Job job : recovery.pendingJobs) {
+            records.append(job.format(Step.PLANNED)).append('\n');
+        }
+        rewrite(records.toString());
+
+        if (recovery.completedJobs > 0 || recovery.removedOutputs > 0) {
+            ProcessingLogger.info("Recovered interrupted run: " + recovery.completedJobs + " replay(s) completed, "
+                    + recovery.removedOutputs + " partial output(s) removed");
+        }
+        if (!recovery.pendingJobs.isEmpty()) {
+            ProcessingLogger.info(recovery.pendingJobs.size() + " replay(s) of an interrupted run still have to be processed");
+        }
+        return recovery;
+    }
+
+    /**
+     * Collect the last record of every replay in the journal, and the last start of every replay.
+     *
+     * @param lastStarts receives the last {@link Step#STARTED} record per replay, which holds the
+     *                   original length if the replay was appended to in place
+     * @return false if there is no journal
+     */
+    private boolean readLastRecords(Map<String, Record> lastRecords, Map<String, Record> lastStarts) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.parse(line);
+                if (record != null) {
+                    String replayPath = record.job.replay.getAbsolutePath();
+                    lastRecords.put(replayPath, record);
+                    if (record.step == Step.STARTED) {
+                        lastStarts.put(replayPath, record);
+                    }
+                }
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replace the journal with the given records in one rename, so a crash leaves either the old
+     * or the new journal.
+     */
+    private void rewrite(String records) throws IOException {
+        Path compacted = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(compacted,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        terminalRecordsSinceCompaction = 0;
+    }
+
+    private static boolean deletePartialOutput(Job job) {
+        if (job.output.equals(job.replay) || !job.output.exists()) {
+            return false;
+        }
+        if (Mp4Remuxer.isResumable(job.output)) {
+            ProcessingLogger.info("Keeping partial output " + job.output.getName() + ", it is continued when the replay is processed again");
+            return false;
+        }
+        if (!job.output.delete()) {
+            ProcessingLogger.warn("Failed to delete partial output " + job.output);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Truncate a replay an interrupted run was appending to in place back to its original length.
+     *
+     * @return false if the append had already been committed, so the replay holds the merged tracks
+     */
+    private static boolean discardUncommittedAppend(Recovery recovery, File replay, long originalLength) {
+        if (!replay.isFile() || replay.length() <= originalLength) {
+            return true;
+        }
+        try {
+            if (!Mp4Remuxer.truncateUncommittedAppend(replay, originalLength)) {
+                return false;
+            }
+            ProcessingLogger.info("Removed the data an interrupted run appended to " + replay.getName());
+            recovery.removedOutputs++;
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to truncate " + replay + " to its original length: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private static void addIfPending(Recovery recovery, Job job, ProcessedReplayLedger ledger) {
+        if (job.replay.isFile() && (ledger == null || !ledger.isProcessed(job.replay, job.getResult()))) {
+            recovery.pendingJobs.add(job);
+        }
+    }
+
+    /**
+     * Carry out the steps that follow the last recorded one.
+     *
+     * @return false if the job could not be completed
+     */
+    private static boolean complete(Job job, Step reached, ProcessedReplayLedger ledger) {
+        if (reached == Step.OUTPUT_WRITTEN && job.replaceOriginal) {
+            if (job.output.isFile()) {
+                try {
+                    // The original may already be gone if the run died between deleting and renaming
+                    Files.move(job.output.toPath(), job.replay.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    ProcessingLogger.info("Replaced " + job.replay.getName() + " with its merged output of the interrupted run");
+                } catch (IOException e) {
+                    ProcessingLogger.warn("Failed to replace " + job.replay.getName() + " with " + job.output.getName() + ": " + e.getMessage());
+                    return false;
+                }
+            } else if (!job.replay.isFile()) {
+                ProcessingLogger.warn("Neither " + job.replay + " nor its merged output exist anymore");
+                return false;
+            }
+            // Otherwise the output was already renamed to the original
+        }
+
+        if (reached != Step.MICROPHONE_TRACK_DELETED && job.deleteMicrophoneTrack) {
+            File microphoneTrack = ReplayUtils.getMicrophoneTrack(job.replay);
+            if (microphoneTrack.exists() && !microphoneTrack.delete()) {
+                ProcessingLogger.warn("Failed to delete microphone track " + microphoneTrack);
+            }
+        }
+
+        File result = job.getResult();
+        if (ledger != null && result.isFile() && !ledger.isProcessed(job.replay, result)) {
+            try {
+                ledger.recordProcessed(job.replay, result);
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to record processed replay " + job.replay.getName() + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A replay, the file it is merged into and the options that decide which steps it takes.
+     */
+    public static final class Job {
+
+        private final File replay;
+        private final File output;
+        private final boolean replaceOriginal;
+        private final boolean deleteMicrophoneTrack;
+        // Length of the replay before it is appended to in place, -1 if it is not
+        private final long originalLength;
+
+        /**
+         * @param output the file the merge is written to; the replay itself when it is appended to in place
+         */
+        public Job(File replay, File output, boolean replaceOriginal, boolean deleteMicrophoneTrack) {
+            this(replay, output, replaceOriginal, deleteMicrophoneTrack, -1);
+        }
+
+        /**
+         * @param originalLength length of the replay before it is appended to in place, so recovery
+         *                       can cut off an append that was not committed; -1 if it is not appended to
+         */
+        public Job(File replay, File output, boolean replaceOriginal, boolean deleteMicrophoneTrack, long originalLength) {
+            this.replay = replay.getAbsoluteFile();
+            this.output = output.getAbsoluteFile();
+            this.replaceOriginal = replaceOriginal;
+            this.deleteMicrophoneTrack = deleteMicrophoneTrack;
+            this.originalLength = originalLength;
+        }
+
+        public File getReplay() {
+            return replay;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * The merged replay once the job is finished: the replay itself when it replaces the original.
+         */
+        public File getResult() {
+            return replaceOriginal ? replay : output;
+        }
+
+        // Paths go last so the other fields can be parsed without escaping
+        private String format(Step step) {
+            String options = (replaceOriginal ? "r" : "") + (deleteMicrophoneTrack ? "d" : "");
+            return step + "\t" + (options.isEmpty() ? "-" : options) + "\t" + (originalLength >= 0 ? originalLength : "-") + "\t"
+                    + ProcessedReplayLedger.escape(replay.getPath()) + "\t" + ProcessedReplayLedger.escape(output.getPath());
+        }
+    }
+
+    private static final class Record {
+
+        private final Step step;
+        private final Job job;
+
+        private Record(Step step, Job job) {
+            this.step = step;
+            this.job = job;
+        }
+
+        // A torn last line of a crashed run is ignored
+        private static Record parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != FIELD_COUNT) {
+                return null;
+            }
+            try {
+                Job job = new Job(new File(ProcessedReplayLedger.unescape(fields[3])), new File(ProcessedReplayLedger.unescape(fields[4])),
+                        fields[1].contains("r"), fields[1].contains("d"), fields[2].equals("-") ? -1 : Long.parseLong(fields[2]));
+                return new Record(Step.valueOf(fields[0]), job);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Outcome of {@link #recover(ProcessedReplayLedger)}.
+     */
+    public static final class Recovery {
+
+        private int completedJobs;
+        private int removedOutputs;
+        private final List<Job> pendingJobs = new ArrayList<>();
+
+        public int getCompletedJobs() {
+            return completedJobs;
+        }
+
+        public int getRemovedOutputs() {
+            return removedOutputs;
+        }
+
+        /**
+         * Jobs that were planned or started but not finished and whose replay still needs processing.
+         */
+        public List<Job> getPendingJobs() {
+            return pendingJobs;
+        }
+    }
+}
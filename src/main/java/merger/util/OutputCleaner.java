@@ -0,0 +1,343 @@
+package merger.util;
+
+import merger.mp4.Mp4Remuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes merged replays from the output folder according to a {@link RetentionPolicy}.
+ * <p>
+ * Cleaning is split in two steps. {@link #plan(boolean)} lists the output folder and decides what to
+ * delete; it also updates the ledger, so a scan that follows already knows which replays have
+ * to be merged again. {@link #deleteAsync(Plan, Collection)} then deletes the planned files on
+ * a background fork/join pool while the replays are processed. A file is only deleted if it
+ * is not an output of the running batch and has not changed since it was planned, so a
+ * replay that is merged again at the same path keeps its new output.
+ * Folders left empty are removed afterwards, except the output folder itself.
+ */
+public class OutputCleaner {
+
+    // Deleting mostly waits for the file system, network drives in particular
+    private static final int DELETE_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final ForkJoinPool DELETE_POOL = new ForkJoinPool(DELETE_PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("OutputCleaner-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    private final File outputFolder;
+    private final RetentionPolicy policy;
+    private final ProcessedReplayLedger ledger;
+
+    /**
+     * @param ledger ledger of processed replays, may be null
+     */
+    public OutputCleaner(File outputFolder, RetentionPolicy policy, ProcessedReplayLedger ledger) {
+        this.outputFolder = outputFolder.getAbsoluteFile();
+        this.policy = policy;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Decide which merged replays to delete, without deleting anything. The ledger is updated
+     * unless this is a dry run: replays whose outputs are deleted by {@link RetentionPolicy#deleteAll()}
+     * are merged again, replays retired by a limit are not.
+     */
+    public Plan plan(boolean dryRun) throws IOException {
+        List<OutputFile> outputs = listOutputs();
+        List<OutputFile> planned = selectForDeletion(outputs, System.currentTimeMillis());
+        Plan plan = new Plan(planned, outputs.size() - planned.size());
+
+        if (!dryRun && ledger != null && !planned.isEmpty()) {
+            List<File> files = new ArrayList<>(planned.size());
+            for (OutputFile output : planned) {
+                files.add(output.file);
+            }
+            ledger.releaseOutputs(files, !policy.isDeleteAll());
+        }
+        return plan;
+    }
+
+    /**
+     * Delete the planned files in the background.
+     *
+     * @param protectedFiles outputs of the replays that are about to be processed, never deleted
+     */
+    public CompletableFuture<Result> deleteAsync(Plan plan, Collection<File> protectedFiles) {
+        Set<File> protectedOutputs = new HashSet<>();
+        Set<File> protectedFolders = new HashSet<>();
+        for (File file : protectedFiles) {
+            File absolute = file.getAbsoluteFile();
+            protectedOutputs.add(absolute);
+            for (File folder = absolute.getParentFile(); folder != null; folder = folder.getParentFile()) {
+                protectedFolders.add(folder);
+            }
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicInteger deleted = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            AtomicLong reclaimedBytes = new AtomicLong();
+            // Runs on the delete pool, so the parallel stream does too
+            plan.files.parallelStream().forEach(output -> {
+                if (protectedOutputs.contains(output.file)) {
+                    return;
+                }
+                try {
+                    if (output.isUnchanged() && Files.deleteIfExists(output.file.toPath())) {
+                        deleted.incrementAndGet();
+                        reclaimedBytes.addAndGet(output.size);
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    ProcessingLogger.warn("Failed to delete " + output.file + ": " + e.getMessage());
+                }
+            });
+            removeEmptyFolders(plan.files, protectedFolders);
+            return new Result(deleted.get(), failed.get(), reclaimedBytes.get());
+        }, DELETE_POOL);
+    }
+
+    /**
+     * Plan and delete in the background, for callers that do not scan after cleaning.
+     *
+     * @param protectedFiles outputs of the replays that are about to be processed, never deleted
+     */
+    public CompletableFuture<Result> cleanAsync(Collection<File> protectedFiles) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return plan(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, DELETE_POOL).thenCompose(plan -> {
+            ProcessingLogger.info("Cleaning output folder (" + policy + "): " + plan);
+            return deleteAsync(plan, protectedFiles);
+        });
+    }
+
+    private List<OutputFile> listOutputs() throws IOException {
+        List<OutputFile> outputs = new ArrayList<>();
+        if (!outputFolder.isDirectory()) {
+            return outputs;
+        }
+        Path root = outputFolder.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                File file = path.toFile();
+                if (attributes.isRegularFile() && ReplayUtils.isProcessedReplay(file)) {
+                    Path folder = root.relativize(path.getParent());
+                    outputs.add(new OutputFile(file, folder.toString(), attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                // Unreadable entries are left alone, just like the scanner skips them
+                ProcessingLogger.debug("Skipping unreadable " + path + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return outputs;
+    }
+
+    /**
+     * Walk the replays from newest to oldest and keep each one until a limit is reached.
+     */
+    private List<OutputFile> selectForDeletion(List<OutputFile> outputs, long now) {
+        if (policy.isDeleteAll()) {
+            return outputs;
+        }
+        List<OutputFile> newestFirst = new ArrayList<>(outputs);
+        newestFirst.sort(Comparator.comparingLong((OutputFile output) -> output.lastModified).reversed()
+                .thenComparing(output -> output.file.getPath()));
+
+        List<OutputFile> planned = new ArrayList<>();
+        Map<String, Integer> keptPerGame = new HashMap<>();
+        long keptBytes = 0;
+        boolean sizeLimitReached = false;
+        for (OutputFile output : newestFirst) {
+            if (Mp4Remuxer.isResumable(output.file)) {
+                // A merge that was cancelled halfway continues into this file
+                continue;
+            }
+            boolean tooOld = policy.getMaxAgeMillis() != RetentionPolicy.UNLIMITED
+                    && now - output.lastModified > policy.getMaxAgeMillis();
+            int gameCount = keptPerGame.getOrDefault(output.game, 0);
+            boolean tooMany = policy.getKeepNewestPerGame() != RetentionPolicy.UNLIMITED
+                    && gameCount >= policy.getKeepNewestPerGame();
+            // Once a replay does not fit, older ones are not kept either, even if they are smaller
+            sizeLimitReached = sizeLimitReached || policy.getMaxTotalBytes() != RetentionPolicy.UNLIMITED
+                    && keptBytes + output.size > policy.getMaxTotalBytes();
+
+            if (tooOld || tooMany || sizeLimitReached) {
+                planned.add(output);
+            } else {
+                keptPerGame.put(output.game, gameCount + 1);
+                keptBytes += output.size;
+            }
+        }
+        return planned;
+    }
+
+    // Deepest folders first, so a game folder that only held empty folders goes too
+    private void removeEmptyFolders(List<OutputFile> deletedFiles, Set<File> protectedFolders) {
+        Set<File> folders = new TreeSet<>(Comparator.comparingInt((File folder) -> folder.getPath().length()).reversed()
+                .thenComparing(File::getPath));
+        for (OutputFile output : deletedFiles) {
+            for (File folder = output.file.getParentFile(); folder != null && !folder.equals(outputFolder); folder = folder.getParentFile()) {
+                folders.add(folder);
+            }
+        }
+        for (File folder : folders) {
+            String[] entries = folder.list();
+            if (!protectedFolders.contains(folder) && entries != null && entries.length == 0 && !folder.delete()) {
+                ProcessingLogger.debug("Failed to delete empty folder " + folder);
+            }
+        }
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static final class OutputFile {
+
+        private final File file;
+        // Subfolder of the output folder, i.e. the game the replay belongs to
+        private final String game;
+        private final long size;
+        private final long lastModified;
+
+        private OutputFile(File file, String game, long size, long lastModified) {
+            this.file = file;
+            this.game = game;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // A file that was written again since it was planned belongs to the running batch
+        private boolean isUnchanged() throws IOException {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+        }
+    }
+
+    /**
+     * Files a cleanup is going to delete.
+     */
+    public static final class Plan {
+
+        private final List<OutputFile> files;
+        private final int keptCount;
+
+        private Plan(List<OutputFile> files, int keptCount) {
+            this.files = Collections.unmodifiableList(files);
+            this.keptCount = keptCount;
+        }
+
+        public List<File> getFiles() {
+            List<File> result = new ArrayList<>(files.size());
+            for (OutputFile output : files) {
+                result.add(output.file);
+            }
+            return result;
+        }
+
+        public int getFileCount() {
+            return files.size();
+        }
+
+        /**
+         * Merged replays that stay in the output folder.
+         */
+        public int getKeptCount() {
+            return keptCount;
+        }
+
+        /**
+         * Bytes the cleanup frees if every planned file is deleted.
+         */
+        public long getReclaimableBytes() {
+            long bytes = 0;
+            for (OutputFile output : files) {
+                bytes += output.size;
+            }
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return files.size() + " merged replay(s), " + formatBytes(getReclaimableBytes()) + " (" + keptCount + " kept)";
+        }
+    }
+
+    /**
+     * Outcome of {@link #deleteAsync(Plan, Collection)}.
+     */
+    public static final class Result {
+
+        private final int deletedCount;
+        private final int failedCount;
+        private final long reclaimedBytes;
+
+        private Result(int deletedCount, int failedCount, long reclaimedBytes) {
+            this.deletedCount = deletedCount;
+            this.failedCount = failedCount;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        public int getDeletedCount() {
+            return deletedCount;
+        }
+
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "deleted " + deletedCount + " merged replay(s), reclaimed " + formatBytes(reclaimedBytes)
+                    + (failedCount > 0 ? ", " + failedCount + " could not be deleted" : "");
+        }
+    }
+}
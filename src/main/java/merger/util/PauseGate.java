@@ -0,0 +1,31 @@
+package merger.util;
+
+/**
+ * Lets long copy loops and external processes stop in the middle of a file while processing
+ * is paused, instead of only between two files.
+ */
+public interface PauseGate {
+
+    /**
+     * A gate that never pauses.
+     */
+    PauseGate NONE = new PauseGate() {
+        @Override
+        public boolean isPauseRequested() {
+            return false;
+        }
+
+        @Override
+        public void awaitResume() {
+        }
+    };
+
+    boolean isPauseRequested();
+
+    /**
+     * Block while a pause is requested.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting, e.g. on cancel
+     */
+    void awaitResume() throws InterruptedException;
+}
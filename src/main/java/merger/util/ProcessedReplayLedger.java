@@ -0,0 +1,255 @@
+package merger.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of replays that have already been merged.
+ * <p>
+ * File names alone cannot tell whether a replay was processed when originals are replaced
+ * in place, so every completed merge is recorded with the size and modification time of the
+ * resulting replay (and optionally a sampled hash). A scan can then skip a replay with a
+ * single map lookup and one stat, no matter how large the library is.
+ * <p>
+ * Entries are kept per replay and result: a replay merged into one output folder is merged
+ * again for another one, or when its original is to be replaced instead, and is still skipped
+ * when the first output folder is selected again.
+ * <p>
+ * The ledger is an append-only text file with one tab-separated entry per line; later
+ * entries for the same replay and result win. It is compacted when it is loaded.
+ */
+public class ProcessedReplayLedger {
+
+    public static final String DEFAULT_FILE_NAME = "processed-replays.ledger";
+
+    private static final int FIELD_COUNT = 5;
+
+    // Prefixes the output path of a replay whose merged copy was deleted on purpose and must not
+    // be merged into that output again
+    private static final String RETIRED_OUTPUT = "-";
+
+    private static ProcessedReplayLedger defaultLedger;
+
+    private final Path ledgerFile;
+    private final boolean useSampledHash;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    public ProcessedReplayLedger(Path ledgerFile, boolean useSampledHash) {
+        this.ledgerFile = ledgerFile;
+        this.useSampledHash = useSampledHash;
+    }
+
+    /**
+     * The shared ledger in the application data directory, loaded on first use.
+     * Returns null if the ledger cannot be loaded, in which case nothing is skipped.
+     */
+    public static synchronized ProcessedReplayLedger getDefault() {
+        if (defaultLedger == null) {
+            try {
+                ProcessedReplayLedger ledger = new ProcessedReplayLedger(AppDataDirectory.resolve(DEFAULT_FILE_NAME), false);
+                ledger.load();
+                defaultLedger = ledger;
+            } catch (IOException e) {
+                ProcessingLogger.warn("Failed to load the processed replay ledger: " + e.getMessage());
+            }
+        }
+        return defaultLedger;
+    }
+
+    /**
+     * Read all entries from disk and rewrite the file if it contains superseded entries.
+     */
+    public void load() throws IOException {
+        entries.clear();
+        int lineCount = 0;
+        try (BufferedReader reader = Files.newBufferedReader(ledgerFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.put(entry.key(), entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (lineCount > entries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Check whether the replay was already merged into the given result and has not changed since.
+     * Only replays that have an entry cost a file system access.
+     *
+     * @param result the file the replay is merged into, the replay itself when originals are replaced
+     */
+    public boolean isProcessed(File replay, File result) {
+        Entry entry = entries.get(key(replay.getAbsolutePath(), result.getAbsolutePath()));
+        if (entry == null) {
+            return false;
+        }
+        boolean retired = entry.isRetired();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(replay.toPath(), BasicFileAttributes.class);
+            if (attributes.size() != entry.size || attributes.lastModifiedTime().toMillis() != entry.lastModified) {
+                return false;
+            }
+            if (!retired && !entry.outputPath.equals(entry.replayPath) && !new File(entry.outputPath).exists()) {
+                // The merged copy was removed, so the replay has to be processed again
+                return false;
+            }
+            return !useSampledHash || entry.sampledHash.equals(SampledFileHash.compute(replay.toPath()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record a completed merge. Must be called after the replay and its output have been written.
+     * @param replay the replay as it exists after processing
+     * @param output the merged file, which is the replay itself when originals are replaced
+     */
+    public void recordProcessed(File replay, File output) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(replay.toPath(), BasicFileAttributes.class);
+        String sampledHash = useSampledHash ? SampledFileHash.compute(replay.toPath()) : "-";
+        Entry entry = new Entry(replay.getAbsolutePath(), output.getAbsolutePath(),
+                attributes.size(), attributes.lastModifiedTime().toMillis(), sampledHash);
+
+        synchronized (writeLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(ledgerFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(entry.format());
+                writer.newLine();
+            }
+            entries.put(entry.key(), entry);
+        }
+    }
+
+    /**
+     * Update the entries of merged copies a cleanup is about to delete and rewrite the ledger.
+     *
+     * @param retire true if the copies are deleted on purpose and their replays stay skipped,
+     *               false if the replays are to be merged again
+     */
+    public void releaseOutputs(Collection<File> outputs, boolean retire) throws IOException {
+        Set<String> outputPaths = new HashSet<>();
+        for (File output : outputs) {
+            outputPaths.add(output.getAbsolutePath());
+        }
+        synchronized (writeLock) {
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                if (entry.isRetired() || !outputPaths.contains(entry.outputPath)) {
+                    continue;
+                }
+                if (retire) {
+                    entries.put(entry.key(), new Entry(entry.replayPath, RETIRED_OUTPUT + entry.outputPath, entry.size, entry.lastModified, entry.sampledHash));
+                } else {
+                    entries.remove(entry.key());
+                }
+            }
+            compact();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void compact() throws IOException {
+        synchronized (writeLock) {
+            Path compacted = ledgerFile.resolveSibling(ledgerFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries.values()) {
+                    writer.write(entry.format());
+                    writer.newLine();
+                }
+            }
+            Files.move(compacted, ledgerFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String key(String replayPath, String resultPath) {
+        return replayPath + '\t' + resultPath;
+    }
+
+    // Tabs and line breaks would end a field or an entry, so paths are escaped
+    static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    static String unescape(String path) {
+        StringBuilder result = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 1 < path.length()) {
+                char next = path.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static final class Entry {
+        private final String replayPath;
+        private final String outputPath;
+        private final long size;
+        private final long lastModified;
+        private final String sampledHash;
+
+        private Entry(String replayPath, String outputPath, long size, long lastModified, String sampledHash) {
+            this.replayPath = replayPath;
+            this.outputPath = outputPath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sampledHash = sampledHash;
+        }
+
+        private boolean isRetired() {
+            return outputPath.startsWith(RETIRED_OUTPUT);
+        }
+
+        // A retired entry replaces the entry of the merged copy it was recorded for
+        private String key() {
+            return ProcessedReplayLedger.key(replayPath, isRetired() ? outputPath.substring(RETIRED_OUTPUT.length()) : outputPath);
+        }
+
+        // Paths go last so the numeric fields can be parsed without escaping
+        private String format() {
+            return size + "\t" + lastModified + "\t" + sampledHash + "\t" + escape(replayPath) + "\t" + escape(outputPath);
+        }
+
+        private static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != FIELD_COUNT) {
+                return null;
+            }
+            try {
+                return new Entry(unescape(fields[3]), unescape(fields[4]),
+                        Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package merger.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Scans one or more directory trees for unprocessed replays on a background fork/join pool.
+ * <p>
+ * Every directory is listed by its own task, so subdirectories are visited in parallel.
+ * This matters most on network drives, where each listing is dominated by latency.
+ * Replays are handed to the consumer as soon as they are found (from scanner threads),
+ * and a running scan can be cancelled, e.g. when the user picks another folder.
+ * Roots that lie inside another root are only scanned once.
+ * <p>
+ * If a {@link ProcessedReplayLedger} is given, replays it has recorded as merged into the result
+ * the current run would write (see {@link ProcessedReplayLedger#isProcessed(File, File)}) are skipped.
+ * <p>
+ * Once all directories are listed, byte-identical copies of a replay (see {@link DuplicateReplayFinder})
+ * are left out of the result and reported by {@link #getDuplicates()}. They have already been
+ * handed to the consumer by then, so the result replaces whatever the consumer collected.
+ */
+public class ReplayScanner {
+
+    // Directory listings mostly wait for I/O, so use more threads than there are cores
+    private static final int SCAN_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final ForkJoinPool SCAN_POOL = new ForkJoinPool(SCAN_PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("ReplayScanner-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    private final List<Path> roots;
+    private final ProcessedReplayLedger ledger;
+    private final Function<File, File> resultOf;
+    private final Consumer<File> replayConsumer;
+    private final Queue<File> foundReplays = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger skippedReplays = new AtomicInteger(0);
+    private volatile Map<File, File> duplicates = Collections.emptyMap();
+    private volatile boolean cancelled = false;
+
+    public ReplayScanner(File root, Consumer<File> replayConsumer) {
+        this(Collections.singletonList(root), null, null, replayConsumer);
+    }
+
+    /**
+     * @param roots    folders to scan, e.g. replay folders on different drives
+     * @param ledger   ledger of already merged replays to skip, or null to return all unprocessed replays
+     * @param resultOf the file a replay is merged into by this run, e.g. {@code ReplayProcessor::getResultFile};
+     *                 only used with a ledger
+     */
+    public ReplayScanner(Collection<File> roots, ProcessedReplayLedger ledger, Function<File, File> resultOf, Consumer<File> replayConsumer) {
+        this.roots = withoutNestedRoots(roots);
+        this.ledger = ledger;
+        this.resultOf = resultOf;
+        this.replayConsumer = replayConsumer;
+    }
+
+    /**
+     * Start scanning in the background.
+     * @return a future completed with all found replays except duplicates, or cancelled if the scan was cancelled
+     */
+    public CompletableFuture<List<File>> start() {
+        return CompletableFuture.supplyAsync(() -> {
+            List<DirectoryScanTask> rootTasks = new ArrayList<>();
+            for (Path root : roots) {
+                rootTasks.add(new DirectoryScanTask(root));
+            }
+            ForkJoinTask.invokeAll(rootTasks);
+            if (cancelled) {
+                throw new CancellationException("Scan of " + roots + " was cancelled");
+            }
+            List<File> replays = new ArrayList<>(foundReplays);
+            duplicates = Collections.unmodifiableMap(DuplicateReplayFinder.find(replays));
+            replays.removeAll(duplicates.keySet());
+            return replays;
+        }, SCAN_POOL);
+    }
+
+    /**
+     * Scan synchronously on the calling thread's behalf and return all found replays.
+     */
+    public List<File> scan() {
+        return start().join();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Number of replays skipped because the ledger has recorded them as merged.
+     */
+    public int getSkippedCount() {
+        return skippedReplays.get();
+    }
+
+    /**
+     * Replays left out of the result because they are copies of another found replay, each
+     * mapped to the replay it is a copy of. Empty until the scan has completed.
+     */
+    public Map<File, File> getDuplicates() {
+        return duplicates;
+    }
+
+    // A root inside another root would report its replays twice
+    private static List<Path> withoutNestedRoots(Collection<File> roots) {
+        List<Path> normalized = new ArrayList<>();
+        for (File root : roots) {
+            normalized.add(root.toPath().toAbsolutePath().normalize());
+        }
+        List<Path> distinct = new ArrayList<>();
+        for (Path root : normalized) {
+            boolean nested = false;
+            for (Path other : normalized) {
+                if (!other.equals(root) && root.startsWith(other)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested && !distinct.contains(root)) {
+                distinct.add(root);
+            }
+        }
+        return distinct;
+    }
+
+    private final class DirectoryScanTask extends RecursiveAction {
+
+        private final Path directory;
+
+        private DirectoryScanTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+
+            List<DirectoryScanTask> subdirectoryTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (Files.isDirectory(entry)) {
+                        subdirectoryTasks.add(new DirectoryScanTask(entry));
+                    } else {
+                        File file = entry.toFile();
+                        if (!ReplayUtils.isUnprocessedReplay(file)) {
+                            continue;
+                        }
+                        if (ledger != null && ledger.isProcessed(file, resultOf.apply(file))) {
+                            skippedReplays.incrementAndGet();
+                            continue;
+                        }
+                        foundReplays.add(file);
+                        replayConsumer.accept(file);
+                    }
+                }
+            } catch (IOException | SecurityException e) {
+                // Unreadable directories are skipped, just like File.listFiles() returning null
+                ProcessingLogger.debug("Skipping unreadable directory " + directory + ": " + e.getMessage());
+            }
+
+            invokeAll(subdirectoryTasks);
+        }
+    }
+}
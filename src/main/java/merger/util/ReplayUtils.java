@@ -1,60 +1,33 @@
 package merger.util;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 
 public class ReplayUtils {
 
-    public static void deleteProcessedReplaysInDirectory(File directory) {
-        File[] filesInDirectory = directory.listFiles();
-        if (filesInDirectory != null) {
-            for (File subfolder : filesInDirectory) {
-                deleteProcessedReplaysInDirectory(subfolder);
-            }
-        }
-        if (isProcessedReplay(directory) || isEmptyDirectory(directory)) {
-            directory.delete();
-        }
-    }
-
+    /**
+     * Blocking scan of the whole tree. Use a {@link ReplayScanner} directly to receive
+     * replays incrementally or to be able to cancel the scan.
+     */
     public static List<File> getUnprocessedReplays(File inputFolder) {
-        List<File> unprocessedReplays = new ArrayList<>();
-        collectUnprocessedReplays(inputFolder, unprocessedReplays);
-        return unprocessedReplays;
-    }
-
-    private static void collectUnprocessedReplays(File folder, List<File> collectedReplays) {
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    collectUnprocessedReplays(file, collectedReplays);
-                } else if (isUnprocessedReplay(file)) {
-                    collectedReplays.add(file);
-                }
-            }
-        }
+        return new ReplayScanner(inputFolder, replay -> {}).scan();
     }
 
-    private static boolean isEmptyDirectory(File directory) {
-        if (directory == null || !directory.exists()) {
-            return true;
-        }
-
-        File[] files = directory.listFiles();
-        if (files != null) {
-            return files.length == 0;
-        }
-        return false;
+    static boolean isProcessedReplay(File replay) {
+        return isReplay(replay) && !isUnprocessedReplay(replay);
     }
 
-    private static boolean isProcessedReplay(File replay) {
-        return isReplay(replay) && !isUnprocessedReplay(replay);
+    public static boolean isUnprocessedReplay(File replay) {
+        // `_temp` files are intermediate outputs of replacing originals, never source replays
+        return isReplay(replay) && !replay.getName().contains("_merged") && !replay.getName().endsWith("_temp.mp4");
     }
 
-    private static boolean isUnprocessedReplay(File replay) {
-        return isReplay(replay) && !replay.getName().contains("_merged");
+    /**
+     * The microphone track ReLive records next to a replay has the same base name with an .m4a extension.
+     */
+    public static File getMicrophoneTrack(File replay) {
+        String name = replay.getName();
+        return new File(replay.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".m4a");
     }
 
     private static boolean isReplay(File file) {
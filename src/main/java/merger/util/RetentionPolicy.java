@@ -0,0 +1,73 @@
+package merger.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which merged replays an {@link OutputCleaner} removes from the output folder.
+ * <p>
+ * Without any limit every merged replay is deleted, which is what "clean output folder" always
+ * did; those replays are merged again by the next run. With limits the newest replays are kept:
+ * at most a number per game (the subfolder the replay is in), at most a total size and none
+ * older than a maximum age. Replays removed by a limit have been retired on purpose and are not
+ * merged again.
+ */
+public final class RetentionPolicy {
+
+    public static final int UNLIMITED = 0;
+
+    private final int keepNewestPerGame;
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * @param keepNewestPerGame number of replays kept per game, {@link #UNLIMITED} for no limit
+     * @param maxTotalBytes     size of all kept replays together, {@link #UNLIMITED} for no limit
+     * @param maxAgeDays        age after which a replay is deleted, {@link #UNLIMITED} for no limit
+     */
+    public RetentionPolicy(int keepNewestPerGame, long maxTotalBytes, int maxAgeDays) {
+        this.keepNewestPerGame = keepNewestPerGame;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(maxAgeDays);
+    }
+
+    /**
+     * Delete every merged replay.
+     */
+    public static RetentionPolicy deleteAll() {
+        return new RetentionPolicy(UNLIMITED, UNLIMITED, UNLIMITED);
+    }
+
+    public boolean isDeleteAll() {
+        return keepNewestPerGame == UNLIMITED && maxTotalBytes == UNLIMITED && maxAgeMillis == UNLIMITED;
+    }
+
+    public int getKeepNewestPerGame() {
+        return keepNewestPerGame;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (isDeleteAll()) {
+            return "delete all merged replays";
+        }
+        StringBuilder description = new StringBuilder("keep");
+        if (keepNewestPerGame != UNLIMITED) {
+            description.append(" the newest ").append(keepNewestPerGame).append(" per game,");
+        }
+        if (maxTotalBytes != UNLIMITED) {
+            description.append(" at most ").append(OutputCleaner.formatBytes(maxTotalBytes)).append(" in total,");
+        }
+        if (maxAgeMillis != UNLIMITED) {
+            description.append(" none older than ").append(TimeUnit.MILLISECONDS.toDays(maxAgeMillis)).append(" day(s),");
+        }
+        return description.substring(0, description.length() - 1);
+    }
+}
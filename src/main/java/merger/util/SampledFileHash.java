@@ -0,0 +1,79 @@
+package merger.util;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fingerprint of a file computed from a few sampled blocks instead of its full contents.
+ * <p>
+ * The head, the tail and a few evenly spaced blocks in between are read with positional
+ * I/O and hashed together with the file size. For multi-GB replays this costs a few hundred
+ * KB of reads, while still telling apart files that merely share a size or timestamp.
+ */
+public final class SampledFileHash {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MIDDLE_BLOCKS = 3;
+
+    private SampledFileHash() {}
+
+    public static String compute(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            digest.update(ByteBuffer.allocate(8).putLong(0, size));
+
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            if (size <= (long) BLOCK_SIZE * (MIDDLE_BLOCKS + 2)) {
+                // Small files are hashed completely
+                for (long position = 0; position < size; position += BLOCK_SIZE) {
+                    hashBlock(channel, position, block, digest);
+                }
+            } else {
+                hashBlock(channel, 0, block, digest);
+                for (int i = 1; i <= MIDDLE_BLOCKS; i++) {
+                    hashBlock(channel, size / (MIDDLE_BLOCKS + 1) * i, block, digest);
+                }
+                hashBlock(channel, size - BLOCK_SIZE, block, digest);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void hashBlock(FileChannel channel, long position, ByteBuffer block, MessageDigest digest) throws IOException {
+        ((Buffer) block).clear();
+        long readPosition = position;
+        while (block.hasRemaining()) {
+            int read = channel.read(block, readPosition);
+            if (read < 0) {
+                break;
+            }
+            readPosition += read;
+        }
+        ((Buffer) block).flip();
+        digest.update(block);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
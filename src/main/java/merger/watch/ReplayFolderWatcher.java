@@ -0,0 +1,296 @@
+package merger.watch;
+
+import merger.mp4.Mp4BoxReader;
+import merger.util.ProcessedReplayLedger;
+import merger.util.ProcessingLogger;
+import merger.util.ReplayUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Watches an input folder tree and reports replays as soon as ReLive has finished writing them.
+ * <p>
+ * File system events only mark a replay as a candidate; the replay is reported once both the
+ * `.mp4` and its `.m4a` have kept the same size for {@link #STABLE_PERIOD_MS}, contain a
+ * `moov` box (ReLive writes it last) and are no longer held open by the recorder. There are
+ * no periodic rescans: directories are registered once and new subdirectories as they appear.
+ * A reported replay is not reported again until the consumer calls {@link #processed(File)};
+ * after that, changes to its files make it a candidate again, and the ledger skips it unless
+ * it was recorded anew.
+ */
+public class ReplayFolderWatcher implements AutoCloseable {
+
+    // Time a replay and its microphone track must not change before they are considered complete
+    public static final long STABLE_PERIOD_MS = 3000;
+
+    // Interval in which pending candidates are checked while no events arrive
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final Path root;
+    private final ProcessedReplayLedger ledger;
+    private final Function<File, File> resultOf;
+    private final Consumer<File> readyReplayConsumer;
+
+    // Only accessed by the watcher thread
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    // Replays the consumer has not processed yet, also removed from by the consumer's threads
+    private final Set<Path> reportedReplays = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean closed = false;
+
+    /**
+     * @param ledger ledger of already merged replays to ignore, may be null
+     * @param resultOf the file a replay is merged into, to look it up in the ledger
+     * @param readyReplayConsumer receives completely written replays on the watcher thread
+     */
+    public ReplayFolderWatcher(File root, ProcessedReplayLedger ledger, Function<File, File> resultOf, Consumer<File> readyReplayConsumer) {
+        this.root = root.toPath();
+        this.ledger = ledger;
+        this.resultOf = resultOf;
+        this.readyReplayConsumer = readyReplayConsumer;
+    }
+
+    public synchronized void start() throws IOException {
+        if (watcherThread != null) {
+            throw new IllegalStateException("Watcher has already been started");
+        }
+        watchService = root.getFileSystem().newWatchService();
+        registerTree(root, false);
+
+        watcherThread = new Thread(this::watchLoop);
+        watcherThread.setName("ReplayFolderWatcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        ProcessingLogger.info("Watching " + root + " for new replays");
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                ProcessingLogger.debug("Failed to close watch service: " + e.getMessage());
+            }
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+        }
+    }
+
+    /**
+     * Called by the consumer once a reported replay is processed, whether it succeeded or not.
+     * Replays this watcher did not report are ignored.
+     */
+    public void processed(File replay) {
+        reportedReplays.remove(replay.toPath());
+    }
+
+    public boolean isRunning() {
+        return watcherThread != null && watcherThread.isAlive();
+    }
+
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                checkCandidates();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher was closed
+        } catch (RuntimeException e) {
+            ProcessingLogger.error("Folder watcher stopped unexpectedly: " + e.getMessage(), e);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so look at this one directory again
+                registerTree(directory, true);
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // A new game folder (or a copied folder) may already contain replays
+                registerTree(path, true);
+            } else {
+                addCandidate(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /**
+     * Register a directory and all its subdirectories. When `addExistingFiles` is set, files that
+     * already exist are added as candidates, which covers folders created or moved in at once.
+     */
+    private void registerTree(Path start, boolean addExistingFiles) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    if (!watchedDirectories.containsValue(directory)) {
+                        WatchKey key = directory.register(watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        watchedDirectories.put(key, directory);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (addExistingFiles) {
+                        addCandidate(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            ProcessingLogger.warn("Failed to watch " + start + ": " + e.getMessage());
+        }
+    }
+
+    private void addCandidate(Path path) {
+        Path replay = toReplayPath(path);
+        if (replay == null || reportedReplays.contains(replay) || candidates.containsKey(replay)) {
+            return;
+        }
+        File replayFile = replay.toFile();
+        if (!ReplayUtils.isUnprocessedReplay(replayFile) || (ledger != null && ledger.isProcessed(replayFile, resultOf.apply(replayFile)))) {
+            return;
+        }
+        candidates.put(replay, new Candidate());
+    }
+
+    // Map a replay or microphone track path to the path of its replay
+    private static Path toReplayPath(Path path) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".mp4")) {
+            return path;
+        }
+        if (name.endsWith(".m4a")) {
+            return path.resolveSibling(name.substring(0, name.length() - ".m4a".length()) + ".mp4");
+        }
+        return null;
+    }
+
+    private void checkCandidates() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext() && !closed) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Path replay = entry.getKey();
+            Path microphoneTrack = ReplayUtils.getMicrophoneTrack(replay.toFile()).toPath();
+            Candidate candidate = entry.getValue();
+
+            long replaySize = sizeOf(replay);
+            long microphoneTrackSize = sizeOf(microphoneTrack);
+            if (replaySize < 0) {
+                // Replay was deleted or renamed (or only the microphone track exists so far)
+                if (now - candidate.lastChange > STABLE_PERIOD_MS) {
+                    iterator.remove();
+                }
+                continue;
+            }
+
+            if (candidate.update(replaySize, microphoneTrackSize, now) || now - candidate.lastChange < STABLE_PERIOD_MS) {
+                continue;
+            }
+
+            if (isCompletelyWritten(replay) && (microphoneTrackSize < 0 || isCompletelyWritten(microphoneTrack))) {
+                iterator.remove();
+                reportedReplays.add(replay);
+                readyReplayConsumer.accept(replay.toFile());
+            } else {
+                // Still being written or locked by the recorder, wait for another stable period
+                candidate.lastChange = now;
+            }
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Heuristic for a finished recording: the file contains a `moov` box and can be locked,
+     * which fails on Windows while the recorder still holds the file open.
+     */
+    private static boolean isCompletelyWritten(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return Mp4BoxReader.findFirst(Mp4BoxReader.readTopLevelBoxes(channel), "moov") != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class Candidate {
+        private long replaySize = -1;
+        private long microphoneTrackSize = -1;
+        private long lastChange = System.currentTimeMillis();
+
+        // Returns true if any of the sizes changed since the last check
+        private boolean update(long newReplaySize, long newMicrophoneTrackSize, long now) {
+            if (newReplaySize != replaySize || newMicrophoneTrackSize != microphoneTrackSize) {
+                replaySize = newReplaySize;
+                microphoneTrackSize = newMicrophoneTrackSize;
+                lastChange = now;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package merger.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for work that spends its time blocked: waiting for FFmpeg, draining its output and
+ * reading or writing replays.
+ * <p>
+ * This is the Java 21 version of the multi-release jar, which starts virtual threads. A job that
+ * waits for FFmpeg or the disk only occupies a carrier thread while it actually runs, so the
+ * number of jobs and pipe readers in flight is not bounded by platform threads. It must offer
+ * the same methods as the Java 8 version in {@code src/main/java}.
+ */
+public final class IoThreads {
+
+    private IoThreads() {
+    }
+
+    /**
+     * Whether the threads are virtual threads.
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Factory for threads named {@code <namePrefix>-1}, {@code <namePrefix>-2} and so on.
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        return Thread.ofVirtual().name(namePrefix + "-", 1).factory();
+    }
+
+    /**
+     * Start a thread for a single task.
+     */
+    public static Thread start(String name, Runnable task) {
+        return Thread.ofVirtual().name(name).start(task);
+    }
+}